@@ -68,15 +68,12 @@ public class Application implements Runnable {
 					
 					d.setCategory(profile);
 					
-					List<Integer> listNumber = new ArrayList<Integer>();
-					List<String> listString = new ArrayList<String>();
+					// les attributs sont ajoutés directement dans les slots de l'objet
 					for(int j =0; j<5 ; j++)
 					{
-						listNumber.add(j);
-						listString.add("test"+j);
+						d.addNumber(j);
+						d.addString("test"+j);
 					}
-					d.setListNumber(listNumber);
-					d.setListString(listString);
 					
 					// On l'ajoute à la liste des opérations
 					operations.add(new WriteOperation(d));
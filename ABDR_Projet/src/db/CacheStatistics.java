@@ -0,0 +1,62 @@
+package db;
+
+import java.io.Serializable;
+
+/**
+ * Snapshot of the statistics of the object cache of a KVDB
+ * @author 2600705
+ *
+ */
+public class CacheStatistics implements Serializable {
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 1L;
+	private long hits;
+	private long misses;
+	private long evictions;
+	private int entries;
+	private long bytes;
+	
+	public CacheStatistics(long hits, long misses, long evictions, int entries, long bytes) {
+		this.hits = hits;
+		this.misses = misses;
+		this.evictions = evictions;
+		this.entries = entries;
+		this.bytes = bytes;
+	}
+	
+	
+	public long getHits() {
+		return hits;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+	
+	public double getHitRatio() {
+		if (hits + misses == 0)
+			return 0;
+		return (double) hits / (hits + misses);
+	}
+
+	public long getEvictions() {
+		return evictions;
+	}
+
+	public int getEntries() {
+		return entries;
+	}
+
+	//estimated memory footprint of the cached objects
+	public long getBytes() {
+		return bytes;
+	}
+
+	@Override
+	public String toString() {
+		return "CacheStatistics [hits=" + hits + ", misses=" + misses + ", hitRatio=" + getHitRatio() 
+				+ ", evictions=" + evictions + ", entries=" + entries + ", bytes=" + bytes + "]";
+	}
+}
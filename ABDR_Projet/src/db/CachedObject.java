@@ -0,0 +1,36 @@
+package db;
+
+import transaction.ObjectVersion;
+
+/**
+ * Object kept by the ObjectCache : its record (RecordCodec) and the version it was read with
+ * @author 2600705
+ *
+ */
+public class CachedObject {
+	private byte[] record;
+	private ObjectVersion version;
+	
+	public CachedObject(byte[] record, ObjectVersion version) {
+		this.record = record;
+		this.version = version;
+	}
+
+	public byte[] getRecord() {
+		return record;
+	}
+
+	//null if unknown
+	public ObjectVersion getVersion() {
+		return version;
+	}
+	
+	public int getSize() {
+		int size = record.length;
+		if (version != null) {
+			for (int i = 0; i < version.getKeyCount(); i++)
+				size += version.getKeyVersion(i).length;
+		}
+		return size;
+	}
+}
@@ -3,6 +3,8 @@ package db;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 
+import storage.StorageEngine;
+
 
 /** 
  * gestion d'une base de donnée
@@ -22,16 +24,32 @@ import java.rmi.registry.Registry;
 public class KVDB {
 
 	public static void startKVDB(String hostNameRMI, int portRMI, int id, String storeName, String hostName, String hostPort) {
+		startKVDB(hostNameRMI, portRMI, id, storeName, hostName, hostPort, StorageMode.ATTRIBUTES);
+	}
+	
+	public static void startKVDB(String hostNameRMI, int portRMI, int id, String storeName, String hostName, String hostPort, StorageMode storageMode) {
 		try {
 			System.setProperty("java.rmi.server.hostname", hostNameRMI);
 			Registry registry = LocateRegistry.createRegistry(portRMI);
 			
 			// create a new service named myMessage
-            registry.rebind("KVDB" + id, new KVDBImplementation(id, storeName, hostName, hostPort));
+            registry.rebind("KVDB" + id, new KVDBImplementation(id, storeName, hostName, hostPort, storageMode));
 		}
 		catch (Exception e) {
 			System.out.println("fuuuuuuuuuuu");
 			e.printStackTrace();
 		}
 	}
+	
+	public static void startKVDB(String hostNameRMI, int portRMI, int id, StorageEngine store, StorageMode storageMode) {
+		try {
+			System.setProperty("java.rmi.server.hostname", hostNameRMI);
+			Registry registry = LocateRegistry.createRegistry(portRMI);
+			
+			registry.rebind("KVDB" + id, new KVDBImplementation(id, store, storageMode));
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
 }
@@ -3,32 +3,66 @@ package db;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import monitor.MonitorInterface;
-import oracle.kv.DurabilityException;
-import oracle.kv.FaultException;
-import oracle.kv.KVStore;
-import oracle.kv.KVStoreConfig;
-import oracle.kv.KVStoreFactory;
-import oracle.kv.Key;
-import oracle.kv.KeyRange;
-import oracle.kv.OperationExecutionException;
-import oracle.kv.OperationFactory;
-import oracle.kv.Value;
-import oracle.kv.ValueVersion;
+import storage.GroupCommitter;
+import storage.KVStoreEngine;
+import storage.StorageEngine;
+import storage.StorageExecutionException;
+import storage.StorageFaultException;
+import storage.StorageKey;
+import storage.StorageOperation;
+import storage.StorageOperationResult;
+import storage.StorageRange;
+import storage.StorageVersion;
+import storage.StoredValue;
+import transaction.ConditionalWriteOperation;
 import transaction.Data;
 import transaction.DeleteOperation;
+import transaction.IncrementOperation;
+import transaction.ObjectVersion;
 import transaction.Operation;
 import transaction.OperationResult;
+import transaction.ProjectedReadOperation;
 import transaction.ReadOperation;
+import transaction.ScanOperation;
+import transaction.ScanResult;
 import transaction.WriteOperation;
 
 public class KVDBImplementation extends UnicastRemoteObject implements KVDBInterface {
@@ -36,11 +70,14 @@ public class KVDBImplementation extends UnicastRemoteObject implements KVDBInter
 	 * 
 	 */
 	private static final long serialVersionUID = 1L;
-	private KVStore store;
+	private StorageEngine store;
+	//transactions of concurrent callers on the same major key are executed in the same store batch
+	private GroupCommitter groupCommitter;
 	private int id;
     private String storeName = "kvstore";
     private String hostName = "localhost";
     private String hostPort = "5000";
+    private StorageMode storageMode = StorageMode.ATTRIBUTES;
     
     private final int nbInt = 5;
     private final int nbString = 5;
@@ -49,11 +86,83 @@ public class KVDBImplementation extends UnicastRemoteObject implements KVDBInter
     private final int highLoadThreshold = 150;
     private final int lowLoadThreshold = 60;
     private final int loadDelegateThreshold = 70;
+    private final int groupCheckDelay = 1000;
+    private final int groupIdleDelay = 5000;
+    private final int maxGroupIdleDelay = 60000;
+    private final int maxScanChunk = 1000;
+    private final int maxScanKeys = 20000;
+    private final int scanBatchSize = 500;
+    //reads of a profile are done by a single pass when at least minDenseReads objects are asked, 
+    //and the pass reads at most denseReadOverhead times the keys of the asked objects
+    private final int minDenseReads = 8;
+    private final int denseReadOverhead = 2;
+    private final int cacheCapacity = 10000;
+    private final int groupCommitSize = 500;
+    private final int groupCommitWindow = 2;
+    private final int maxAttempts = 6;
+    private final int retryBaseDelay = 5;
+    private final int retryMaxDelay = 500;
+    private final int retryBudget = 100;
+    private final double retryRefund = 0.1;
+    private final int maxIncrementAttempts = 10;
+    private final int maxStoreBatchSize = 500;
+    private final int asyncPoolSize = 32;
+    private final int maxDeliveryAttempts = 5;
+    private final int migrationChunkSize = 100;
+    private final int migrationWindow = 4;
+    //profiles of a transaction copied at once
+    private final int migrationParallelism = 4;
+    private final int migrationStatisticsSize = 100;
+    //compression of migration blocks, by preference
+    private final List<MigrationCodec> migrationCodecs = Arrays.asList(MigrationCodec.LZ, MigrationCodec.NONE);
 
     private Map<String, KVDBInterface> neighbourKvdbs = new HashMap<String, KVDBInterface>();
     private Map<Integer, MonitorInterface> monitorMapping = new ConcurrentHashMap<Integer, MonitorInterface>();
     private Map<Integer, Integer> localProfiles = new ConcurrentHashMap<Integer, Integer>();
     private Map<Integer, Integer> localProfilesAccessCount = new ConcurrentHashMap<Integer, Integer>();
+    //storage layout of each local profile, profiles not in this map use storageMode
+    private Map<Integer, StorageMode> profileStorageModes = new ConcurrentHashMap<Integer, StorageMode>();
+    //profiles being converted to another layout, or whose conversion stopped on a store failure
+    private Map<Integer, ProfileConversion> profileConversions = new ConcurrentHashMap<Integer, ProfileConversion>();
+    //changes each time a profile arrives or leaves, snapshot reads check it did not change while they read
+    private Map<Integer, Long> ownershipEpochs = new ConcurrentHashMap<Integer, Long>();
+    //profiles being copied from here to another KVDB
+    private ConcurrentMap<Integer, OutgoingMigration> outgoingMigrations = new ConcurrentHashMap<Integer, OutgoingMigration>();
+    //new KVDB of the profiles which left, requests still arriving here for them are forwarded to it
+    private Map<Integer, KVDBInterface> forwardedProfiles = new ConcurrentHashMap<Integer, KVDBInterface>();
+    //layout of the objects of the profiles being copied here
+    private Map<Integer, StorageMode> incomingStorageModes = new ConcurrentHashMap<Integer, StorageMode>();
+    //last migrations sent from here
+    private LinkedList<MigrationStatistics> migrationStatistics = new LinkedList<MigrationStatistics>();
+    private final KeyBuilder keyBuilder = new KeyBuilder(nbInt + nbString);
+    
+    //profiles transacted together share the major key of their group, profiles not in a group use their own
+    private Map<Integer, Integer> profileGroups = new ConcurrentHashMap<Integer, Integer>();
+    private Map<Integer, List<Integer>> groupMembers = new HashMap<Integer, List<Integer>>();
+    private Map<Integer, Long> groupLastAccess = new ConcurrentHashMap<Integer, Long>();
+    //idle time before a group of the profile is dissolved, longer for profiles grouped again soon after
+    private Map<Integer, Long> profileIdleDelays = new ConcurrentHashMap<Integer, Long>();
+    private Map<Integer, Long> profileDissolveTimes = new ConcurrentHashMap<Integer, Long>();
+    //profiles transacted together out of a group, grouped in background by the regrouper
+    private BlockingQueue<List<Integer>> groupRequests = new LinkedBlockingQueue<List<Integer>>();
+    private Set<List<Integer>> requestedGroups = Collections.newSetFromMap(new ConcurrentHashMap<List<Integer>, Boolean>());
+    //read = operations on the store, write = keys of the profile changing place
+    private ConcurrentMap<Integer, ReadWriteLock> profileLocks = new ConcurrentHashMap<Integer, ReadWriteLock>();
+    private Thread regrouper;
+    private boolean runRegrouper = true;
+    
+    //objects read recently, invalidated by the transactions writing them
+    private ObjectCache objectCache = new ObjectCache(cacheCapacity);
+    //faults of the store are retried with backoff, within a budget
+    private RetryPolicy retryPolicy = new RetryPolicy(maxAttempts, retryBaseDelay, retryMaxDelay, retryBudget, retryRefund);
+    //executes the profiles of non atomic batches in parallel
+    private ExecutorService workers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new DaemonThreadFactory("KVDB worker"));
+    //executes the transactions submitted asynchronously, results are sent back to the monitor
+    private ExecutorService asyncWorkers = Executors.newFixedThreadPool(asyncPoolSize, new DaemonThreadFactory("KVDB async worker"));
+    //sends the chunks of the profiles migrating from here
+    private ExecutorService migrationSenders = Executors.newCachedThreadPool(new DaemonThreadFactory("KVDB migration sender"));
+    //copies the profiles of a migration in parallel
+    private ExecutorService migrationWorkers = Executors.newCachedThreadPool(new DaemonThreadFactory("KVDB migration worker"));
     private KVDBInterface myself;
 
     private Thread loadBalancer;
@@ -63,10 +172,25 @@ public class KVDBImplementation extends UnicastRemoteObject implements KVDBInter
     
 	
 	public KVDBImplementation(int id, String storeName, String hostName, String hostPort) throws RemoteException {
+		this(id, storeName, hostName, hostPort, StorageMode.ATTRIBUTES);
+	}
+	
+	public KVDBImplementation(int id, String storeName, String hostName, String hostPort, StorageMode storageMode) throws RemoteException {
 		this.id = id;
 		this.storeName = storeName;
 		this.hostName = hostName;
 		this.hostPort = hostPort;
+		this.storageMode = storageMode;
+		initAll();
+	}
+	
+	/**
+	 * KVDB using the given storage engine instead of a KVStore (ex : OffHeapStorageEngine)
+	 */
+	public KVDBImplementation(int id, StorageEngine store, StorageMode storageMode) throws RemoteException {
+		this.id = id;
+		this.store = store;
+		this.storageMode = storageMode;
 		initAll();
 	}
 	
@@ -102,33 +226,42 @@ public class KVDBImplementation extends UnicastRemoteObject implements KVDBInter
 
 	
 	private void initBase() {
-        Key key;
-
         //instanciation de la base de donnée
-		try {
-		      store = KVStoreFactory.getStore(new KVStoreConfig(storeName, hostName + ":" + hostPort));
-		} catch (Exception e) {
-		    e.printStackTrace();
-		}
+        if (store == null) {
+			try {
+			      store = new KVStoreEngine(storeName, hostName, hostPort);
+			} catch (Exception e) {
+			    e.printStackTrace();
+			}
+        }
+        groupCommitter = new GroupCommitter(store, Math.min(groupCommitSize, maxStoreBatchSize), groupCommitWindow);
 		
 		for (int i = 0; i < 100; i++) {
-			store.multiDelete(Key.createKey("" + i), null, null);
+			store.deleteRange(keyBuilder.getProfileKey(i), null);
+			store.deleteRange(keyBuilder.getGroupKey(i), null);
 		}
         
         //foreach profile
 		for (int i = id; i < (id + nbProfile); i++) {
 			localProfiles.put(i, i);
 			localProfilesAccessCount.put(i, 0);
+			profileStorageModes.put(i, storageMode);
 
 			//foreach object
 			for (int j = 0; j < nbObjects; j++) {
+				if (storageMode == StorageMode.RECORD) {
+					Data data = new Data(nbInt, nbString);
+					for (int k = 0; k < nbInt; k++)
+						data.addNumber(0);
+					for (int k = 0; k < nbString; k++)
+						data.addString("0");
+					store.put(keyBuilder.getRecordKey(null, i, j), RecordCodec.encode(data));
+					continue;
+				}
+				
 				//foreach attribute
-				for (int k = 0; k < nbString + nbInt; k++) {
-					List<String> att = new ArrayList<String>();
-					att.add(new Integer(j).toString());
-					att.add(new Integer(k).toString());
-					key = Key.createKey("" + i,  att);
-					store.put(key, Value.createValue(new Integer(0).toString().getBytes()));
+				for (StorageKey key : keyBuilder.getAttributeKeys(null, i, j)) {
+					store.put(key, "0".getBytes());
 				}
 			}
 		}
@@ -136,6 +269,7 @@ public class KVDBImplementation extends UnicastRemoteObject implements KVDBInter
 	
 	private void initAll() {
 		initBase();
+		startRegrouper();
 	}
 	
 	
@@ -150,6 +284,26 @@ public class KVDBImplementation extends UnicastRemoteObject implements KVDBInter
 		return unknownProfiles;
 	}
 	
+	/**
+	 * the transaction only reads, its objects are read together rather than written
+	 * @param operations
+	 * @return
+	 */
+	private static boolean isReadOnly(List<Operation> operations) {
+		for (Operation operation : operations) {
+			if (! (operation instanceof ReadOperation))
+				return false;
+		}
+		return true;
+	}
+	
+	private static List<ReadOperation> getReads(List<Operation> operations) {
+		List<ReadOperation> reads = new ArrayList<ReadOperation>(operations.size());
+		for (Operation operation : operations)
+			reads.add((ReadOperation) operation);
+		return reads;
+	}
+	
 	private List<Integer> getTransactionProfiles(List<Operation> operations) {
 		Map<Integer, Integer> transactionProfiles = new HashMap<Integer, Integer>();
 		
@@ -163,117 +317,558 @@ public class KVDBImplementation extends UnicastRemoteObject implements KVDBInter
 	}
 	
 	
-	private List<Integer> implodeProfiles(List<Integer> profiles) {
-		List<String> prim = new ArrayList<String>();
-		for (int c : profiles) {
-    		prim.add(c + "");
-		}
-
+	/**
+	 * group shared by every profile, null if they are not in the same group
+	 * @param profiles
+	 * @return
+	 */
+	private Integer getCommonGroup(List<Integer> profiles) {
+		Integer group = profileGroups.get(profiles.get(0));
+		if (group == null)
+			return null;
+		
 		for (int profile : profiles) {
-			//get every values for this profile
-			SortedMap<Key,ValueVersion> profileObjects = store.multiGet(Key.createKey(profile + ""), null, null);
-			
-			//for every values, insert them to their new profile and delete it from it's old one
-			for (Entry<Key, ValueVersion> profileObject : profileObjects.entrySet()) {
-				Key oldKey = profileObject.getKey();
-				Value value = profileObject.getValue().getValue();
-				List<String> newMinorKey = oldKey.getFullPath();
-				Key key = Key.createKey(prim, newMinorKey);
+			if (! group.equals(profileGroups.get(profile)))
+				return null;
+		}
+		
+		return group;
+	}
+	
+	/**
+	 * lock of the profile : read = operations on the store, write = keys of the profile changing place, 
+	 * or transaction on profiles of different groups
+	 * @param profile
+	 * @return
+	 */
+	private ReadWriteLock getProfileLock(int profile) {
+		ReadWriteLock lock = profileLocks.get(profile);
+		if (lock == null) {
+			profileLocks.putIfAbsent(profile, new ReentrantReadWriteLock());
+			lock = profileLocks.get(profile);
+		}
+		return lock;
+	}
+	
+	/**
+	 * lock the profiles by increasing number, so transactions sharing profiles never wait for each other
+	 * @param profiles
+	 * @param isExclusive
+	 * @return the locks taken, for unlockProfiles
+	 */
+	private List<Lock> lockProfiles(List<Integer> profiles, boolean isExclusive) {
+		List<Integer> sortedProfiles = new ArrayList<Integer>(profiles);
+		Collections.sort(sortedProfiles);
+		List<Lock> locks = new ArrayList<Lock>(sortedProfiles.size());
+		for (int profile : sortedProfiles) {
+			Lock lock = isExclusive ? getProfileLock(profile).writeLock() : getProfileLock(profile).readLock();
+			lock.lock();
+			locks.add(lock);
+		}
+		return locks;
+	}
+	
+	private static void unlockProfiles(List<Lock> locks) {
+		for (Lock lock : locks)
+			lock.unlock();
+	}
+	
+	/**
+	 * ask the regrouper to put the profiles in the same group, a request already waiting is not added again
+	 * @param profiles
+	 */
+	private void requestGroup(List<Integer> profiles) {
+		List<Integer> request = new ArrayList<Integer>(profiles);
+		Collections.sort(request);
+		if (requestedGroups.add(request))
+			groupRequests.add(request);
+	}
+	
+	/**
+	 * put the profiles in the same group, only the regrouper groups profiles. The group having the most of them is kept 
+	 * so only the other profiles are moved, every other member keeps its keys
+	 * @param profiles
+	 * @return false if a profile could not be moved, the profiles already moved stay in the group
+	 */
+	private boolean groupProfiles(List<Integer> profiles) {
+		Integer targetGroup = null;
+		long now = System.currentTimeMillis();
+		synchronized (groupMembers) {
+			if (getCommonGroup(profiles) != null)
+				return true;
+			
+			Map<Integer, Integer> groupCounts = new HashMap<Integer, Integer>();
+			for (int profile : profiles) {
+				Integer group = profileGroups.get(profile);
+				if (group == null)
+					continue;
 				
-				store.put(key, value);
-				store.delete(oldKey);
+				int count = groupCounts.containsKey(group) ? groupCounts.get(group) + 1 : 1;
+				groupCounts.put(group, count);
+				if ((targetGroup == null) || (count > groupCounts.get(targetGroup)))
+					targetGroup = group;
+			}
+			
+			if (targetGroup == null) {
+				targetGroup = 0;
+				while (groupMembers.containsKey(targetGroup))
+					targetGroup++;
+				groupMembers.put(targetGroup, new ArrayList<Integer>());
 			}
+			groupLastAccess.put(targetGroup, now);
+		}
+		
+		//hysteresis : a profile grouped again soon after its group was dissolved keeps its next group twice longer
+		for (int profile : profiles) {
+			Long dissolveTime = profileDissolveTimes.remove(profile);
+			long idleDelay = getIdleDelay(profile);
+			if (dissolveTime == null)
+				continue;
+			if (now - dissolveTime < idleDelay)
+				profileIdleDelays.put(profile, Math.min(maxGroupIdleDelay, 2 * idleDelay));
+			else
+				profileIdleDelays.put(profile, Math.max(groupIdleDelay, idleDelay / 2));
 		}
 		
-		return profiles;
+		try {
+			for (int profile : profiles) {
+				if ((! targetGroup.equals(profileGroups.get(profile))) && (! moveProfile(profile, targetGroup)))
+					return false;
+			}
+			return true;
+		} finally {
+			synchronized (groupMembers) {
+				//new group whose first profile could not be moved
+				if (groupMembers.containsKey(targetGroup) && (groupMembers.get(targetGroup).size() == 0)) {
+					groupMembers.remove(targetGroup);
+					groupLastAccess.remove(targetGroup);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @param profile
+	 * @return time without transaction before a group of the profile is dissolved
+	 */
+	private long getIdleDelay(int profile) {
+		Long idleDelay = profileIdleDelays.get(profile);
+		return (idleDelay == null) ? groupIdleDelay : idleDelay;
 	}
 	
-	private void explodeProfile(List<Integer> fusedProfilesMasterKey) {
-		List<String> prim = new ArrayList<String>();
-		for (int partialFused : fusedProfilesMasterKey) {
-			prim.add(partialFused + "");
+	/**
+	 * dissolve the groups which were not used by a transaction for the idle delay of their profiles, and the groups 
+	 * left with a single profile. Profiles go back to their own major key one by one, a profile which can't be 
+	 * moved stays in its group until the next check
+	 */
+	private void dissolveIdleGroups() {
+		long now = System.currentTimeMillis();
+		List<Integer> idleProfiles = new ArrayList<Integer>();
+		synchronized (groupMembers) {
+			for (Entry<Integer, List<Integer>> group : groupMembers.entrySet()) {
+				long idleDelay = groupIdleDelay;
+				for (int profile : group.getValue())
+					idleDelay = Math.max(idleDelay, getIdleDelay(profile));
+				
+				Long lastAccess = groupLastAccess.get(group.getKey());
+				if ((group.getValue().size() > 1) && (lastAccess != null) && (now - lastAccess < idleDelay))
+					continue;
+				idleProfiles.addAll(group.getValue());
+			}
+		}
+		
+		for (int profile : idleProfiles) {
+			if (moveProfile(profile, null))
+				profileDissolveTimes.put(profile, now);
 		}
+	}
+	
+	/**
+	 * move every key of the profile below the given group (null = its own major key) while the profile is used : 
+	 * objects are copied by chunks, then the profile is write locked for a short catch up of the objects written 
+	 * during the copy. Other profiles are never locked. A profile being migrated or converted is not moved, 
+	 * a blocking migration stops the move
+	 * @param profile
+	 * @param targetGroup
+	 * @return false if the keys could not be written, the profile is left where it was
+	 */
+	private boolean moveProfile(int profile, Integer targetGroup) {
+		OutgoingMigration move = new OutgoingMigration();
+		if ((! localProfiles.containsKey(profile)) || (outgoingMigrations.putIfAbsent(profile, move) != null))
+			return false;
 		
-		SortedMap<Key,ValueVersion> profileObjects = store.multiGet(Key.createKey(prim), null, null);
-		//for every values, insert them to their old profile and delete it from it's temporary one
-		for (Entry<Key, ValueVersion> profileObject : profileObjects.entrySet()) {
-			Key oldKey = profileObject.getKey();
-			Value value = profileObject.getValue().getValue();
-			List<String> newMinorKey = oldKey.getMinorPath().subList(1, oldKey.getMinorPath().size());
-			List<String> newMajorKey = oldKey.getMinorPath().subList(0, 1);
-			Key key = Key.createKey(newMajorKey, newMinorKey);
+		StorageKey source = keyBuilder.getProfileParentKey(profileGroups.get(profile), profile);
+		StorageKey target = keyBuilder.getProfileParentKey(targetGroup, profile);
+		boolean isMoved = false;
+		try {
+			//keys below target only belong to the profile, a previous move may have left some
+			store.deleteRange(target, null);
+			ProfileObjects profileObjects = new ProfileObjects(profile);
+			for (ProfileBlock block = profileObjects.nextBlock(migrationChunkSize); (block.getObjectCount() != 0) && (! move.isAborted); block = profileObjects.nextBlock(migrationChunkSize))
+				writeBlock(profile, targetGroup, block, false);
+			
+			Lock lock = getProfileLock(profile).writeLock();
+			lock.lock();
+			try {
+				if (move.isAborted || (! localProfiles.containsKey(profile)))
+					return false;
+				
+				//objects written during the copy, deleted ones have no key and are deleted there too
+				List<Integer> writtenIds = new ArrayList<Integer>(move.writtenIds);
+				for (int start = 0; start < writtenIds.size(); start += migrationChunkSize)
+					writeBlock(profile, targetGroup, getObjectsBlock(profile, writtenIds.subList(start, Math.min(writtenIds.size(), start + migrationChunkSize))), true);
+				
+				synchronized (groupMembers) {
+					leaveGroup(profile);
+					if (targetGroup != null) {
+						profileGroups.put(profile, targetGroup);
+						groupMembers.get(targetGroup).add(profile);
+					}
+				}
+				//the keys got new versions, cached versions would make conditional writes fail
+				objectCache.invalidateProfile(profile);
+				isMoved = true;
+			} finally {
+				lock.unlock();
+			}
 			
-			store.put(key, value);
-			store.delete(oldKey);
+			//nothing reads below source any more
+			store.deleteRange(source, null);
+			return true;
+		} catch (RemoteException | StorageFaultException e) {
+			System.err.println("KVDB " + id + " could not move profile " + profile + " : " + e);
+			return isMoved;
+		} finally {
+			if (! isMoved)
+				discardMove(target);
+			outgoingMigrations.remove(profile, move);
 		}
 	}
 	
+	/**
+	 * remove the keys written by a move which did not end, the next move there removes them otherwise
+	 * @param target
+	 */
+	private void discardMove(StorageKey target) {
+		try {
+			store.deleteRange(target, null);
+		} catch (StorageFaultException e) {
+			System.err.println("KVDB " + id + " could not remove the keys below " + target + " : " + e);
+		}
+	}
 	
 	/**
-	 * entry point of monitors transactions
+	 * forget the group of the profile, the profile must be write locked
+	 * @param profile
 	 */
-	@Override
-	public List<OperationResult> executeOperations(List<Operation> operations) {
-		List<OperationResult> result = new ArrayList<OperationResult>();
-		//System.out.println("KVDB " + id + " solicité pour " + getTransactionProfiles(operations));
+	private void leaveGroup(int profile) {
+		synchronized (groupMembers) {
+			Integer group = profileGroups.remove(profile);
+			if (group == null)
+				return;
+			
+			List<Integer> members = groupMembers.get(group);
+			members.remove((Integer) profile);
+			if (members.size() == 0) {
+				groupMembers.remove(group);
+				groupLastAccess.remove(group);
+			}
+		}
+	}
+
+	/**
+	 * execute the transaction then remove its objects from the cache. 
+	 * A transaction with increments is read and tried again if an incremented object was written since it was read
+	 * @param operations
+	 * @return
+	 */
+	private List<OperationResult> executeWrites(List<Operation> operations) {
+		return executeWrites(operations, new BatchOutcome());
+	}
+	
+	/**
+	 * @param outcome gets how the last store batch of the transaction ended
+	 */
+	private List<OperationResult> executeWrites(List<Operation> operations, BatchOutcome outcome) {
+		boolean hasIncrement = false;
+		for (Operation operation : operations) {
+			if (operation instanceof IncrementOperation)
+				hasIncrement = true;
+		}
 		
-		for (int profile : getTransactionProfiles(operations)) {
-			try {
-				synchronized (localProfiles.get(profile)) {
-					
-					localProfilesAccessCount.put(profile, localProfilesAccessCount.get(profile) + 1);
+		List<OperationResult> result;
+		int attempt = 0;
+		boolean isIncrementConflict;
+		do {
+			outcome.isAborted = false;
+			outcome.failedOperation = -1;
+			List<StorageOperation> storageOperations = convertOperations(operations);
+			//an incremented object doesn't exist, or reads are mixed with writes
+			if (storageOperations == null) {
+				outcome.isAborted = true;
+				result = getFailedResults(operations.size());
+				break;
+			}
+			result = internalExecute(storageOperations, getOperationSizes(operations), true, outcome);
+			attempt++;
+			
+			//only a concurrent increment of the object is worth a retry, other failures would fail again
+			isIncrementConflict = hasIncrement && (outcome.failedOperation != -1) && (operations.get(outcome.failedOperation) instanceof IncrementOperation);
+			//concurrent increments of the object retry at different times
+			if (isIncrementConflict && (attempt < maxIncrementAttempts)) {
+				try {
+					Thread.sleep(ThreadLocalRandom.current().nextInt(1 << attempt));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
 				}
-			} catch (Exception e) {
-				System.out.println("********* KVDB " + id + " tried to access profile " + profile);
 			}
+		} while (isIncrementConflict && (attempt < maxIncrementAttempts));
+		
+		endWrites(operations, result);
+		return result;
+	}
+	
+	/**
+	 * remove the objects written by the transaction from the cache, and give their new values to the increments
+	 * @param operations
+	 * @param result
+	 */
+	private void endWrites(List<Operation> operations, List<OperationResult> result) {
+		for (Operation operation : operations) {
+			objectCache.invalidate(ObjectCache.getKey(operation.getData().getCategory(), operation.getData().getId()));
+			//objects of a profile being copied elsewhere are sent again at the end of the copy
+			OutgoingMigration migration = outgoingMigrations.get(operation.getData().getCategory());
+			if (migration != null)
+				migration.writtenIds.add(operation.getData().getId());
 		}
 		
-		//get on a single data
-		if ((operations.size() == 1) && (operations.get(0) instanceof ReadOperation)) {
-			result = getData(operations.get(0).getData());
+		//new values of the incremented attributes
+		for (int i = 0; i < operations.size(); i++) {
+			if ((operations.get(i) instanceof IncrementOperation) && result.get(i).isSuccess()) {
+				result.get(i).setData(operations.get(i).getData());
+				result.get(i).setVersion(null);
+			}
 		}
-		//single key transaction (we should have this key so we don't check)
-		else if (getTransactionProfiles(operations).size() == 1) {
-			//System.out.println(id + " single key transaction with key " + getTransactionProfiles(operations).get(0) + ", list of op = " + operations);
-			result = internalExecute(convertOperations(operations));
-			//System.out.println(id + " exe OK");
+	}
+	
+	/**
+	 * execute a single profile transaction where the profile currently is
+	 * @param operations
+	 * @return
+	 */
+	private List<OperationResult> executeProfileTransaction(List<Operation> operations) {
+		Lock lock = getProfileLock(operations.get(0).getData().getCategory()).readLock();
+		lock.lock();
+		try {
+			return executeWrites(operations);
+		} finally {
+			lock.unlock();
 		}
-		else {
-			//multiple key transaction
-			List<Integer> unknownProfiles = getUnknownProfiles(operations);
-			List<Integer> transactionProfiles = getTransactionProfiles(operations);
+	}
+	
+	/**
+	 * execute the operations of a single profile as consecutive transactions of at most maxStoreBatchSize 
+	 * store operations, so a big batch never gives a big store batch. Each chunk is atomic, the whole is not
+	 * @param operations
+	 * @return
+	 */
+	private List<OperationResult> executeChunkedTransaction(List<Operation> operations) {
+		List<OperationResult> result = new ArrayList<OperationResult>(operations.size());
+		List<Integer> operationSizes = getOperationSizes(operations);
+		int start = 0;
+		int chunkSize = 0;
+		for (int i = 0; i < operations.size(); i++) {
+			if ((i != start) && (chunkSize + operationSizes.get(i) > maxStoreBatchSize)) {
+				result.addAll(executeProfileTransaction(operations.subList(start, i)));
+				start = i;
+				chunkSize = 0;
+			}
+			chunkSize += operationSizes.get(i);
+		}
+		if (start < operations.size())
+			result.addAll(executeProfileTransaction(operations.subList(start, operations.size())));
+		
+		return result;
+	}
+	
+	/**
+	 * execute a multiple profile transaction. In the group of its profiles it is a single atomic batch, 
+	 * profiles not in the same group are grouped later by the regrouper and meanwhile executed by a split transaction
+	 * @param operations
+	 * @param profiles
+	 * @return
+	 */
+	private List<OperationResult> executeGroupTransaction(List<Operation> operations, List<Integer> profiles) {
+		List<Lock> locks = lockProfiles(profiles, false);
+		try {
+			Integer group = getCommonGroup(profiles);
+			if (group != null) {
+				groupLastAccess.put(group, System.currentTimeMillis());
+				return executeWrites(operations);
+			}
+		} finally {
+			unlockProfiles(locks);
+		}
+		
+		requestGroup(profiles);
+		locks = lockProfiles(profiles, true);
+		try {
+			//the regrouper may have grouped them in the meantime
+			Integer group = getCommonGroup(profiles);
+			if (group != null) {
+				groupLastAccess.put(group, System.currentTimeMillis());
+				return executeWrites(operations);
+			}
+			return executeSplitTransaction(operations);
+		} finally {
+			unlockProfiles(locks);
+		}
+	}
+	
+	/**
+	 * execute a multiple profile transaction whose profiles are not in the same group, its profiles are write locked. 
+	 * Operations are executed by one batch per major key : other operations can't see the batches already written, 
+	 * and if a batch is aborted the objects written by the previous ones get their previous keys back. 
+	 * Unlike a single batch, it is not atomic if the KVDB stops in the middle
+	 * @param operations
+	 * @return
+	 */
+	private List<OperationResult> executeSplitTransaction(List<Operation> operations) {
+		//indexes of the operations of each major key, and ids of the objects of each profile
+		Map<List<String>, List<Integer>> batches = new LinkedHashMap<List<String>, List<Integer>>();
+		Map<Integer, Set<Integer>> profileIds = new HashMap<Integer, Set<Integer>>();
+		for (int i = 0; i < operations.size(); i++) {
+			int profile = operations.get(i).getData().getCategory();
+			List<String> majorPath = keyBuilder.getProfileParentKey(profileGroups.get(profile), profile).getMajorPath();
+			if (! batches.containsKey(majorPath))
+				batches.put(majorPath, new ArrayList<Integer>());
+			batches.get(majorPath).add(i);
+			if (! profileIds.containsKey(profile))
+				profileIds.put(profile, new LinkedHashSet<Integer>());
+			profileIds.get(profile).add(operations.get(i).getData().getId());
+		}
+		
+		//objects as they were before the transaction, written back if a batch is aborted
+		Map<Integer, ProfileBlock> previousObjects = new HashMap<Integer, ProfileBlock>();
+		for (Entry<Integer, Set<Integer>> entry : profileIds.entrySet())
+			previousObjects.put(entry.getKey(), getObjectsBlock(entry.getKey(), new ArrayList<Integer>(entry.getValue())));
+		
+		OperationResult[] results = new OperationResult[operations.size()];
+		Set<Integer> writtenProfiles = new HashSet<Integer>();
+		for (List<Integer> batch : batches.values()) {
+			List<Operation> batchOperations = new ArrayList<Operation>(batch.size());
+			for (int i : batch)
+				batchOperations.add(operations.get(i));
 			
-			//worst case execution, we need to fetch before executing the multiple key transaction
-			if (unknownProfiles.size() != 0) {
-				//System.out.println("KVDB " + id + " migre " + unknownProfiles + " pour transaction");
-				migrate(unknownProfiles, false);
+			BatchOutcome outcome = new BatchOutcome();
+			List<OperationResult> batchResults = executeWrites(batchOperations, outcome);
+			if (outcome.isAborted) {
+				restoreObjects(writtenProfiles, previousObjects);
+				return getFailedResults(operations.size());
 			}
+			for (int i = 0; i < batch.size(); i++) {
+				results[batch.get(i)] = batchResults.get(i);
+				writtenProfiles.add(batchOperations.get(i).getData().getCategory());
+			}
+		}
+		return new ArrayList<OperationResult>(Arrays.asList(results));
+	}
+	
+	/**
+	 * write back the objects of the profiles as they were before a split transaction
+	 * @param profiles
+	 * @param previousObjects
+	 */
+	private void restoreObjects(Set<Integer> profiles, Map<Integer, ProfileBlock> previousObjects) {
+		for (int profile : profiles) {
+			ProfileBlock objects = previousObjects.get(profile);
+			try {
+				writeBlock(profile, profileGroups.get(profile), objects, true);
+			} catch (RemoteException e) {
+				System.err.println("KVDB " + id + " could not write back the objects of profile " + profile + " : " + e);
+			}
+			for (int object = 0; object < objects.getObjectCount(); object++)
+				objectCache.invalidate(ObjectCache.getKey(profile, Integer.valueOf(objects.getObjectId(object))));
+		}
+	}
+	
+	/**
+	 * group in background the profiles transacted together, and dissolve the groups which are not used any more. 
+	 * Profiles are moved one at a time, a profile which can't be moved now is moved by a later request or check
+	 */
+	private void startRegrouper() {
+		regrouper = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				long nextCheck = System.currentTimeMillis() + groupCheckDelay;
+				while (runRegrouper) {
+					try {
+						List<Integer> request = groupRequests.poll(Math.max(0, nextCheck - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+						if (request != null) {
+							try {
+								groupProfiles(request);
+							} finally {
+								requestedGroups.remove(request);
+							}
+						}
+						
+						if (System.currentTimeMillis() >= nextCheck) {
+							dissolveIdleGroups();
+							nextCheck = System.currentTimeMillis() + groupCheckDelay;
+						}
+					} catch (InterruptedException e) {
+						return;
+					} catch (RuntimeException e) {
+						System.err.println("KVDB " + id + " regrouper failed : " + e);
+					}
+				}
+			}
+		});
+		regrouper.setDaemon(true);
+		regrouper.start();
+	}
 
-			//System.out.println("KVDB " + id + " fait transaction " + getTransactionProfiles(operations));
-			List<Integer> tempProfile = implodeProfiles(transactionProfiles);
-
-			//execute multikey transaction
-			result = internalExecute(convertOperations(operations, tempProfile));
-			
-			explodeProfile(tempProfile);
 
-			//System.out.println("KVDB " + id + " a totalement fini transaction " + getTransactionProfiles(operations));
+	/**
+	 * one more transaction on each profile, for the load balancer
+	 * @param profiles
+	 */
+	private void countAccesses(List<Integer> profiles) {
+		for (int profile : profiles) {
+			try {
+				synchronized (localProfiles.get(profile)) {
+					
+					localProfilesAccessCount.put(profile, localProfilesAccessCount.get(profile) + 1);
+				}
+			} catch (Exception e) {
+				System.out.println("********* KVDB " + id + " tried to access profile " + profile);
+			}
 		}
-		
-		return result;
 	}
 	
+	/**
+	 * entry point of monitors transactions
+	 */
 	@Override
-	public void executeMigrationOperations(List<Operation> operations) {
+	public List<OperationResult> executeOperations(List<Operation> operations) {
 		List<OperationResult> result = new ArrayList<OperationResult>();
+		//System.out.println("KVDB " + id + " solicité pour " + getTransactionProfiles(operations));
+		
+		countAccesses(getTransactionProfiles(operations));
+		
+		//chunk of a scan
+		if ((operations.size() == 1) && (operations.get(0) instanceof ScanOperation)) {
+			result = scan((ScanOperation) operations.get(0));
+		}
 		//get on a single data
-		if ((operations.size() == 1) && (operations.get(0) instanceof ReadOperation)) {
-			result = getData(operations.get(0).getData());
+		else if ((operations.size() == 1) && (operations.get(0) instanceof ReadOperation)) {
+			result = getData((ReadOperation) operations.get(0));
 		}
 		//single key transaction (we should have this key so we don't check)
 		else if (getTransactionProfiles(operations).size() == 1) {
 			//System.out.println(id + " single key transaction with key " + getTransactionProfiles(operations).get(0) + ", list of op = " + operations);
-			result = internalExecute(convertOperations(operations));
+			result = isReadOnly(operations) ? executeReads(getReads(operations)) : executeProfileTransaction(operations);
 			//System.out.println(id + " exe OK");
 		}
 		else {
@@ -285,89 +880,1013 @@ public class KVDBImplementation extends UnicastRemoteObject implements KVDBInter
 			if (unknownProfiles.size() != 0) {
 				//System.out.println("KVDB " + id + " migre " + unknownProfiles + " pour transaction");
 				migrate(unknownProfiles, false);
+				
+				//a profile whose copy failed stays on its owner
+				if (getUnknownProfiles(operations).size() != 0)
+					return getFailedResults(operations.size());
 			}
 
 			//System.out.println("KVDB " + id + " fait transaction " + getTransactionProfiles(operations));
-			List<Integer> tempProfile = implodeProfiles(transactionProfiles);
-
-			//execute multikey transaction
-			result = internalExecute(convertOperations(operations, tempProfile));
-			
-			explodeProfile(tempProfile);
+			//execute multikey transaction in the group of its profiles
+			if (isReadOnly(operations))
+				result = executeReads(getReads(operations));
+			else
+				result = executeGroupTransaction(operations, transactionProfiles);
 
 			//System.out.println("KVDB " + id + " a totalement fini transaction " + getTransactionProfiles(operations));
 		}
+		
+		return result;
 	}
 	
-	
-	private List<oracle.kv.Operation> convertOperations (List<Operation> operations, List<Integer> newPrimaryKey) {
-		List<oracle.kv.Operation> operationList = new ArrayList<oracle.kv.Operation>();
-
-		for (Operation operation : operations) {
-			if (operation instanceof WriteOperation) {
-				operationList.addAll(getAddDataTransaction(operation.getData(), newPrimaryKey));
-			}
-			else {
-				operationList.addAll(getRemoveDataTransaction(operation.getData(), newPrimaryKey));
+	/**
+	 * entry point of monitors asynchronous transactions : the transaction is queued, its results are given
+	 * to replyTo.deliverResults once executed. The delivery is tried maxDeliveryAttempts times, the monitor
+	 * gives up the tickets it never receives
+	 */
+	@Override
+	public void submitOperations(final long ticket, final List<Operation> operations, final MonitorInterface replyTo) {
+		asyncWorkers.execute(new Runnable() {
+			@Override
+			public void run() {
+				List<OperationResult> results;
+				try {
+					results = executeOperations(operations);
+				} catch (RuntimeException e) {
+					System.err.println("KVDB " + id + " failed to execute ticket " + ticket + " : " + e);
+					results = getFailedResults(operations.size());
+				}
+				
+				for (int attempt = 1; ; attempt++) {
+					try {
+						replyTo.deliverResults(ticket, results);
+						return;
+					} catch (RemoteException e) {
+						if (attempt == maxDeliveryAttempts) {
+							System.err.println("KVDB " + id + " could not deliver ticket " + ticket + " : " + e);
+							return;
+						}
+					}
+					
+					try {
+						Thread.sleep(retryBaseDelay << attempt);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return;
+					}
+				}
 			}
+		});
+	}
+	
+	/**
+	 * entry point of non atomic batches : operations are split by profile, each profile is executed as its 
+	 * own transaction and profiles are executed in parallel. Reads are executed one by one.
+	 * Operations on profiles not on this KVDB fail.
+	 */
+	@Override
+	public List<OperationResult> executeIndependentOperations(List<Operation> operations) {
+		//indexes of the operations of each profile, in submission order
+		Map<Integer, List<Integer>> profileOperations = new HashMap<Integer, List<Integer>>();
+		for (int i = 0; i < operations.size(); i++) {
+			int profile = operations.get(i).getData().getCategory();
+			if (! profileOperations.containsKey(profile))
+				profileOperations.put(profile, new ArrayList<Integer>());
+			profileOperations.get(profile).add(i);
 		}
 		
-		return operationList;
+		OperationResult[] results = new OperationResult[operations.size()];
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (final Entry<Integer, List<Integer>> entry : profileOperations.entrySet()) {
+			final int profile = entry.getKey();
+			if (! localProfiles.containsKey(profile)) {
+				forwardOperations(profile, operations, entry.getValue(), results);
+				continue;
+			}
+			
+			synchronized (localProfiles.get(profile)) {
+				localProfilesAccessCount.put(profile, localProfilesAccessCount.get(profile) + 1);
+			}
+			tasks.add(new ProfileTask(operations, entry.getValue(), results));
+		}
+		
+		try {
+			for (Future<Void> future : workers.invokeAll(tasks)) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					// TODO Auto-generated catch block
+					e.printStackTrace();
+				}
+			}
+		} catch (InterruptedException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+		
+		List<OperationResult> result = new ArrayList<OperationResult>(results.length);
+		for (OperationResult operationResult : results) {
+			if (operationResult == null)
+				result.add(new OperationResult(false, null));
+			else
+				result.add(operationResult);
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * operations of a non atomic batch on a profile which left : they are sent to its new KVDB, 
+	 * they fail if the profile was never here
+	 * @param profile
+	 * @param operations
+	 * @param indexes
+	 * @param results
+	 */
+	private void forwardOperations(int profile, List<Operation> operations, List<Integer> indexes, OperationResult[] results) {
+		KVDBInterface newOwner = forwardedProfiles.get(profile);
+		List<OperationResult> forwardedResults = null;
+		if (newOwner != null) {
+			List<Operation> forwardedOperations = new ArrayList<Operation>(indexes.size());
+			for (int i : indexes)
+				forwardedOperations.add(operations.get(i));
+			try {
+				forwardedResults = newOwner.executeIndependentOperations(forwardedOperations);
+			} catch (RemoteException e) {
+				// TODO Auto-generated catch block
+				e.printStackTrace();
+			}
+		}
+		
+		for (int i = 0; i < indexes.size(); i++)
+			results[indexes.get(i)] = (forwardedResults == null) ? new OperationResult(false, null) : forwardedResults.get(i);
 	}
 	
+	/**
+	 * entry point of batched reads : reads are split by profile, the objects of a profile are read 
+	 * by a single pass on the store and profiles are read in parallel. 
+	 * Reads of profiles not on this KVDB fail
+	 */
+	@Override
+	public List<OperationResult> executeReads(List<ReadOperation> reads) {
+		return executeIndependentOperations(new ArrayList<Operation>(reads));
+	}
 	
-	private List<oracle.kv.Operation> convertOperations (List<Operation> operations) {
-		List<oracle.kv.Operation> operationList = new ArrayList<oracle.kv.Operation>();
+	/**
+	 * entry point of snapshot reads, the monitor doesn't lock their profiles : a read is only served if its 
+	 * profile was here during the whole read, otherwise its result is null and the monitor sends it again 
+	 * to the new owner
+	 */
+	@Override
+	public List<OperationResult> executeSnapshotReads(List<ReadOperation> reads) {
+		Map<Integer, List<Integer>> profileReads = new HashMap<Integer, List<Integer>>();
+		for (int i = 0; i < reads.size(); i++) {
+			int profile = reads.get(i).getData().getCategory();
+			if (! profileReads.containsKey(profile))
+				profileReads.put(profile, new ArrayList<Integer>());
+			profileReads.get(profile).add(i);
+		}
+		
+		OperationResult[] results = new OperationResult[reads.size()];
+		for (Entry<Integer, List<Integer>> entry : profileReads.entrySet()) {
+			int profile = entry.getKey();
+			long epoch = getOwnershipEpoch(profile);
+			List<ReadOperation> snapshotReads = new ArrayList<ReadOperation>();
+			for (int i : entry.getValue())
+				snapshotReads.add(reads.get(i));
+			
+			if (! localProfiles.containsKey(profile)) {
+				forwardSnapshotReads(profile, snapshotReads, entry.getValue(), results);
+				continue;
+			}
+			List<OperationResult> readResults = readObjects(profile, snapshotReads);
+			
+			//the profile moved during the read, objects may be missing
+			if ((getOwnershipEpoch(profile) != epoch) || (! localProfiles.containsKey(profile)))
+				continue;
+			for (int i = 0; i < readResults.size(); i++)
+				results[entry.getValue().get(i)] = readResults.get(i);
+		}
+		
+		List<OperationResult> result = new ArrayList<OperationResult>(results.length);
+		for (OperationResult operationResult : results)
+			result.add(operationResult);
+		return result;
+	}
+
+	/**
+	 * reads of a profile which left : they are sent to its new KVDB, the monitor may not know it yet
+	 * @param profile
+	 * @param reads
+	 * @param indexes
+	 * @param results
+	 */
+	private void forwardSnapshotReads(int profile, List<ReadOperation> reads, List<Integer> indexes, OperationResult[] results) {
+		KVDBInterface newOwner = forwardedProfiles.get(profile);
+		if (newOwner == null)
+			return;
+		
+		try {
+			List<OperationResult> readResults = newOwner.executeSnapshotReads(reads);
+			for (int i = 0; i < readResults.size(); i++)
+				results[indexes.get(i)] = readResults.get(i);
+		} catch (RemoteException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * entry point of the batches of a deterministic monitor : the monitor doesn't lock the profiles but starts no
+	 * migration of them during the batch, so the order of the batch is the only concurrency control.
+	 * Transactions sharing a profile are executed one after the other in batch order, the others in parallel.
+	 * A transaction on a profile which is not here is not executed, its result is null
+	 */
+	@Override
+	public List<List<OperationResult>> executeSequencedBatch(final List<List<Operation>> transactions) {
+		//transactions sharing a profile are in the same chain (union find on the transactions indexes)
+		int[] chains = new int[transactions.size()];
+		Map<Integer, Integer> profileTransactions = new HashMap<Integer, Integer>();
+		for (int i = 0; i < transactions.size(); i++) {
+			chains[i] = i;
+			for (int profile : getTransactionProfiles(transactions.get(i))) {
+				Integer previous = profileTransactions.put(profile, i);
+				if (previous != null)
+					chains[findChain(chains, i)] = findChain(chains, previous);
+			}
+		}
+
+		Map<Integer, List<Integer>> chainTransactions = new LinkedHashMap<Integer, List<Integer>>();
+		for (int i = 0; i < transactions.size(); i++) {
+			int chain = findChain(chains, i);
+			if (! chainTransactions.containsKey(chain))
+				chainTransactions.put(chain, new ArrayList<Integer>());
+			chainTransactions.get(chain).add(i);
+		}
+
+		final List<List<OperationResult>> results = new ArrayList<List<OperationResult>>(Collections.<List<OperationResult>>nCopies(transactions.size(), null));
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (final List<Integer> chain : chainTransactions.values()) {
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					for (int i : chain) {
+						List<Operation> operations = transactions.get(i);
+						//a profile which is not here goes back to the monitor, migrating it here would break the order of the batch
+						if (getUnknownProfiles(operations).size() != 0)
+							continue;
+
+						List<OperationResult> transactionResults;
+						try {
+							transactionResults = executeSequencedTransaction(operations);
+						} catch (RuntimeException e) {
+							System.err.println("KVDB " + id + " failed to execute a sequenced transaction : " + e);
+							transactionResults = getFailedResults(operations.size());
+						}
+						synchronized (results) {
+							results.set(i, transactionResults);
+						}
+					}
+					return null;
+				}
+			});
+		}
+
+		try {
+			for (Future<Void> future : workers.invokeAll(tasks)) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					// TODO Auto-generated catch block
+					e.printStackTrace();
+				}
+			}
+		} catch (InterruptedException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
 
+		return results;
+	}
+
+	/**
+	 * execute a transaction of a sequenced batch, its profiles are here and stay here during the batch. 
+	 * The batch order is the only concurrency control of its profiles : writes go to the store in a single batch, 
+	 * without group commit nor increment retries, and nothing is migrated. Reads are done by profile. 
+	 * Profiles not in the same group are executed by a split transaction, and grouped later
+	 * @param operations
+	 * @return
+	 */
+	private List<OperationResult> executeSequencedTransaction(List<Operation> operations) {
+		List<Integer> profiles = getTransactionProfiles(operations);
+		countAccesses(profiles);
+		if ((operations.size() == 1) && (operations.get(0) instanceof ScanOperation))
+			return scan((ScanOperation) operations.get(0));
+		
+		if (isReadOnly(operations)) {
+			OperationResult[] results = new OperationResult[operations.size()];
+			for (int profile : profiles) {
+				List<ReadOperation> reads = new ArrayList<ReadOperation>();
+				List<Integer> readIndexes = new ArrayList<Integer>();
+				for (int i = 0; i < operations.size(); i++) {
+					if (operations.get(i).getData().getCategory() == profile) {
+						reads.add((ReadOperation) operations.get(i));
+						readIndexes.add(i);
+					}
+				}
+				List<OperationResult> readResults = readObjects(profile, reads);
+				for (int i = 0; i < readIndexes.size(); i++)
+					results[readIndexes.get(i)] = readResults.get(i);
+			}
+			return new ArrayList<OperationResult>(Arrays.asList(results));
+		}
+		
+		//the regrouper doesn't move the profiles during the transaction
+		List<Lock> locks = lockProfiles(profiles, false);
+		try {
+			Integer group = getCommonGroup(profiles);
+			if ((profiles.size() == 1) || (group != null)) {
+				if (group != null)
+					groupLastAccess.put(group, System.currentTimeMillis());
+				List<StorageOperation> storageOperations = convertOperations(operations);
+				if (storageOperations == null)
+					return getFailedResults(operations.size());
+				
+				List<OperationResult> result = internalExecute(storageOperations, getOperationSizes(operations));
+				endWrites(operations, result);
+				return result;
+			}
+		} finally {
+			unlockProfiles(locks);
+		}
+		return executeGroupTransaction(operations, profiles);
+	}
+	
+	private static int findChain(int[] chains, int transaction) {
+		while (chains[transaction] != transaction) {
+			chains[transaction] = chains[chains[transaction]];
+			transaction = chains[transaction];
+		}
+		return transaction;
+	}
+
+	/**
+	 * operations of a profile in a non atomic batch : writes and deletes are one transaction (chunked if too big), 
+	 * reads are done together, scans are alone
+	 */
+	private class ProfileTask implements Callable<Void> {
+		private List<Operation> operations;
+		private List<Integer> indexes;
+		private OperationResult[] results;
+		
+		private ProfileTask(List<Operation> operations, List<Integer> indexes, OperationResult[] results) {
+			this.operations = operations;
+			this.indexes = indexes;
+			this.results = results;
+		}
+		
+		@Override
+		public Void call() {
+			List<ReadOperation> reads = new ArrayList<ReadOperation>();
+			List<Integer> readIndexes = new ArrayList<Integer>();
+			List<Operation> writes = new ArrayList<Operation>();
+			List<Integer> writeIndexes = new ArrayList<Integer>();
+			for (int i : indexes) {
+				Operation operation = operations.get(i);
+				if (operation instanceof ScanOperation) {
+					results[i] = scan((ScanOperation) operation).get(0);
+				}
+				else if (operation instanceof ReadOperation) {
+					reads.add((ReadOperation) operation);
+					readIndexes.add(i);
+				}
+				else {
+					writes.add(operation);
+					writeIndexes.add(i);
+				}
+			}
+			
+			if (reads.size() != 0) {
+				List<OperationResult> readResults = readObjects(reads.get(0).getData().getCategory(), reads);
+				for (int i = 0; i < readIndexes.size(); i++)
+					results[readIndexes.get(i)] = readResults.get(i);
+			}
+			
+			if (writes.size() != 0) {
+				List<OperationResult> writeResults = executeChunkedTransaction(writes);
+				for (int i = 0; i < writeIndexes.size(); i++)
+					results[writeIndexes.get(i)] = writeResults.get(i);
+			}
+			
+			return null;
+		}
+	}
+	
+	/**
+	 * objects of a migrated profile, written with the keys and values they had on the source. 
+	 * Each object is written atomically, the block is written by store sized chunks
+	 * @param profile
+	 * @param storageMode layout of the objects, the profile keeps it here
+	 * @param block
+	 * @param replaceObjects the objects may already be here, their keys not in the block are deleted
+	 * @throws RemoteException if an object could not be written, the source must keep the profile
+	 */
+	@Override
+	public void executeMigrationBlock(int profile, StorageMode storageMode, byte[] block, boolean replaceObjects) throws RemoteException {
+		ProfileBlock objects = ProfileBlock.decode(MigrationCodec.decode(block));
+		incomingStorageModes.put(profile, storageMode);
+		
+		Lock lock = getProfileLock(profile).readLock();
+		lock.lock();
+		try {
+			writeBlock(profile, profileGroups.get(profile), objects, replaceObjects);
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * write the objects of the profile below the given group, with the keys and values of the block. 
+	 * Each object is written atomically, the block is written by store sized chunks
+	 * @param profile
+	 * @param group
+	 * @param objects
+	 * @param replaceObjects the objects may already be there, their keys not in the block are deleted
+	 * @throws RemoteException if an object could not be written
+	 */
+	private void writeBlock(int profile, Integer group, ProfileBlock objects, boolean replaceObjects) throws RemoteException {
+		StorageKey parentKey = keyBuilder.getProfileParentKey(group, profile);
+		List<StorageOperation> operations = new ArrayList<StorageOperation>();
+		int nbPuts = 0;
+		for (int object = 0; object < objects.getObjectCount(); object++) {
+			List<StorageOperation> objectOperations = new ArrayList<StorageOperation>();
+			for (int key = 0; key < objects.getKeyCount(object); key++) {
+				List<String> minorPath = new ArrayList<String>(parentKey.getMinorPath());
+				minorPath.add(objects.getObjectId(object));
+				minorPath.addAll(objects.getKeySuffix(object, key));
+				objectOperations.add(StorageOperation.createPut(StorageKey.createKey(parentKey.getMajorPath(), minorPath), objects.getValue(object, key)));
+			}
+			int objectPuts = objectOperations.size();
+			
+			if (replaceObjects) {
+				//keys of the object in both layouts, a key can't be written twice in a batch
+				int dataId = Integer.valueOf(objects.getObjectId(object));
+				List<StorageKey> objectKeys = new ArrayList<StorageKey>(Arrays.asList(keyBuilder.getAttributeKeys(group, profile, dataId)));
+				objectKeys.add(keyBuilder.getRecordKey(group, profile, dataId));
+				for (StorageKey objectKey : objectKeys) {
+					boolean isWritten = false;
+					for (int i = 0; i < objectPuts; i++)
+						isWritten |= objectOperations.get(i).getKey().equals(objectKey);
+					if (! isWritten)
+						objectOperations.add(StorageOperation.createDelete(objectKey));
+				}
+			}
+			
+			if ((operations.size() != 0) && (operations.size() + objectOperations.size() > maxStoreBatchSize)) {
+				executeMigrationChunk(profile, operations, nbPuts);
+				operations.clear();
+				nbPuts = 0;
+			}
+			//puts first, deletes of missing keys don't succeed
+			operations.addAll(nbPuts, objectOperations.subList(0, objectPuts));
+			operations.addAll(objectOperations.subList(objectPuts, objectOperations.size()));
+			nbPuts += objectPuts;
+		}
+		if (operations.size() != 0)
+			executeMigrationChunk(profile, operations, nbPuts);
+	}
+	
+	private void executeMigrationChunk(int profile, List<StorageOperation> operations, int nbPuts) throws RemoteException {
+		List<Integer> operationSizes = new ArrayList<Integer>(Collections.nCopies(operations.size(), 1));
+		List<OperationResult> results = internalExecute(operations, operationSizes);
+		for (int i = 0; i < nbPuts; i++) {
+			if (! results.get(i).isSuccess())
+				throw new RemoteException("KVDB " + id + " failed to write a migrated object of profile " + profile);
+		}
+	}
+	
+	/**
+	 * objects of a migrated profile. migration doesn't need atomicity, they are written by store sized chunks
+	 * @throws RemoteException if an object could not be written, the source must keep the profile
+	 */
+	@Override
+	public void executeMigrationOperations(List<Operation> operations) throws RemoteException {
+		Map<Integer, List<Operation>> profileOperations = new HashMap<Integer, List<Operation>>();
 		for (Operation operation : operations) {
-			if (operation instanceof WriteOperation) {
+			int profile = operation.getData().getCategory();
+			if (! profileOperations.containsKey(profile))
+				profileOperations.put(profile, new ArrayList<Operation>());
+			profileOperations.get(profile).add(operation);
+		}
+		
+		for (List<Operation> chunkedOperations : profileOperations.values()) {
+			List<OperationResult> results = executeChunkedTransaction(chunkedOperations);
+			for (int i = 0; i < results.size(); i++) {
+				//objects deleted during a live copy may not have been copied
+				if ((! results.get(i).isSuccess()) && (! (chunkedOperations.get(i) instanceof DeleteOperation)))
+					throw new RemoteException("KVDB " + id + " failed to write a migrated object of profile " + chunkedOperations.get(0).getData().getCategory());
+			}
+		}
+	}
+	
+	
+	/**
+	 * @param operations
+	 * @return null if an incremented object doesn't exist, or if an operation is a read or a scan : 
+	 * they can't be part of a write batch
+	 */
+	private List<StorageOperation> convertOperations (List<Operation> operations) {
+		List<StorageOperation> operationList = new ArrayList<StorageOperation>(operations.size() * (nbInt + nbString));
+
+		for (Operation operation : operations) {
+			if (operation instanceof IncrementOperation) {
+				StorageOperation increment = getIncrementTransaction((IncrementOperation) operation);
+				if (increment == null)
+					return null;
+				operationList.add(increment);
+			}
+			else if (operation instanceof ConditionalWriteOperation) {
+				operationList.addAll(getConditionalWriteTransaction((ConditionalWriteOperation) operation));
+			}
+			else if (operation instanceof WriteOperation) {
 				operationList.addAll(getAddDataTransaction(operation.getData()));
 			}
-			else {
+			else if (operation instanceof DeleteOperation) {
 				operationList.addAll(getRemoveDataTransaction(operation.getData()));
 			}
+			else {
+				return null;
+			}
 		}
 		
 		return operationList;
 	}
 	
 	
-	private List<OperationResult> internalExecute(List<oracle.kv.Operation> operations) {
-		boolean hasExecuted = false;
-		List<OperationResult> result = new ArrayList<OperationResult>();
-		do {
+	/**
+	 * number of kvstore operations generated by each operation, according to the storage mode of its profile
+	 * @param operations
+	 * @return
+	 */
+	private List<Integer> getOperationSizes(List<Operation> operations) {
+		List<Integer> sizes = new ArrayList<Integer>();
+		for (Operation operation : operations) {
+			if (operation instanceof IncrementOperation)
+				sizes.add(1);
+			else if (operation instanceof ConditionalWriteOperation)
+				sizes.add(getStorageMode((ConditionalWriteOperation) operation) == StorageMode.RECORD ? 1 : nbInt + nbString);
+			else if (getStorageMode(operation.getData()) == StorageMode.RECORD)
+				sizes.add(1);
+			else
+				sizes.add(nbInt + nbString);
+		}
+		
+		return sizes;
+	}
+	
+	private StorageMode getStorageMode(int profile) {
+		StorageMode profileMode = profileStorageModes.get(profile);
+		if (profileMode == null)
+			return storageMode;
+		return profileMode;
+	}
+	
+	/**
+	 * layout of an object : in a profile being converted, the objects up to the last converted one have the new layout. 
+	 * Writers must hold a lock of the profile, readers accept both layouts anyway
+	 * @param data
+	 * @return
+	 */
+	private StorageMode getStorageMode(Data data) {
+		ProfileConversion conversion = profileConversions.get(data.getCategory());
+		if ((conversion != null) && (conversion.lastConvertedId != null) && (Integer.toString(data.getId()).compareTo(conversion.lastConvertedId) <= 0))
+			return conversion.storageMode;
+		return getStorageMode(data.getCategory());
+	}
+	
+	/**
+	 * layout of the object when it was read : it may not be converted yet to the storage mode of its profile
+	 * @param operation
+	 * @return
+	 */
+	private StorageMode getStorageMode(ConditionalWriteOperation operation) {
+		if (operation.getExpectedVersion() == null)
+			return getStorageMode(operation.getData());
+		return (operation.getExpectedVersion().getKeyCount() == 1) ? StorageMode.RECORD : StorageMode.ATTRIBUTES;
+	}
+	
+	
+	private List<OperationResult> internalExecute(List<StorageOperation> operations, List<Integer> operationSizes) {
+		return internalExecute(operations, operationSizes, false);
+	}
+	
+	/**
+	 * execute a store batch. faults are retried according to the retry policy, 
+	 * every operation fails if the batch is aborted or given up
+	 * @param operations
+	 * @param operationSizes
+	 * @param isGroupCommit the batch may be executed with concurrent transactions of the same major key
+	 * @return
+	 */
+	private List<OperationResult> internalExecute(List<StorageOperation> operations, List<Integer> operationSizes, boolean isGroupCommit) {
+		return internalExecute(operations, operationSizes, isGroupCommit, null);
+	}
+	
+	/**
+	 * @param outcome if not null, gets whether the batch was aborted or given up, and the operation which aborted it
+	 */
+	private List<OperationResult> internalExecute(List<StorageOperation> operations, List<Integer> operationSizes, boolean isGroupCommit, BatchOutcome outcome) {
+		int attempt = 1;
+		while (true) {
 		    try {
-		    	////System.out.println(id + " tentative exe");
-				List<oracle.kv.OperationResult> res = store.execute(operations);
-				result.addAll(KVResult2OperationResult(res));
-				hasExecuted = true;
+				List<StorageOperationResult> res = isGroupCommit ? groupCommitter.execute(operations) : store.execute(operations);
+				retryPolicy.onSuccess();
+				return KVResult2OperationResult(res, operationSizes);
 				
-			} catch (DurabilityException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			} catch (OperationExecutionException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			} catch (FaultException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+			} catch (StorageExecutionException e) {
+				//aborted by the store (ex : a condition is not met), retrying would give the same result
+				retryPolicy.onExecutionFailure();
+				if (outcome != null) {
+					outcome.isAborted = true;
+					outcome.failedOperation = getOperationIndex(operationSizes, e.getFailedOperationIndex());
+				}
+				return getFailedResults(operationSizes.size());
+			} catch (StorageFaultException e) {
+				long delay = retryPolicy.onFault(attempt);
+				if (delay < 0) {
+					System.out.println("KVDB " + id + " gives up a batch after " + attempt + " attempts : " + e.getMessage());
+					if (outcome != null)
+						outcome.isAborted = true;
+					return getFailedResults(operationSizes.size());
+				}
+				
+				try {
+					Thread.sleep(delay);
+				} catch (InterruptedException e1) {
+					Thread.currentThread().interrupt();
+					if (outcome != null)
+						outcome.isAborted = true;
+					return getFailedResults(operationSizes.size());
+				}
+				attempt++;
 			}
-		} while (! hasExecuted);
-		
-		return result;
+		}
+	}
+	
+	/**
+	 * how the last store batch of a transaction ended
+	 */
+	private static class BatchOutcome {
+		//aborted by the store or given up, nothing was written
+		private boolean isAborted = false;
+		//operation which aborted the batch, -1 if the store didn't give it
+		private int failedOperation = -1;
 	}
 	
 	/**
+	 * @param operationSizes
+	 * @param storageOperationIndex
+	 * @return index of the operation which generated the store operation, -1 if there isn't
+	 */
+	private static int getOperationIndex(List<Integer> operationSizes, int storageOperationIndex) {
+		if (storageOperationIndex < 0)
+			return -1;
+		int end = 0;
+		for (int i = 0; i < operationSizes.size(); i++) {
+			end += operationSizes.get(i);
+			if (storageOperationIndex < end)
+				return i;
+		}
+		return -1;
+	}
+	
+	private List<OperationResult> getFailedResults(int nbOperations) {
+		List<OperationResult> result = new ArrayList<OperationResult>(nbOperations);
+		for (int i = 0; i < nbOperations; i++)
+			result.add(new OperationResult(false, null));
+		return result;
+	}
+	
+		/**
 	 * Get data object associated with an id and category
 	 * @param data
 	 * @return
 	 */
-	private List<OperationResult> getData (Data data) {
+	private List<OperationResult> getData (ReadOperation operation) {
+		Data data = operation.getData();
+		int[] attributes = null;
+		if (operation instanceof ProjectedReadOperation)
+			attributes = ((ProjectedReadOperation) operation).getAttributes();
+		List <OperationResult> operationResult = new ArrayList<OperationResult>();
+		
+		if ((attributes != null) && (attributes[attributes.length - 1] >= nbInt + nbString)) {
+			operationResult.add(new OperationResult(false, null));
+			return operationResult;
+		}
+		
+		long cacheKey = ObjectCache.getKey(data.getCategory(), data.getId());
+		CachedObject object = objectCache.getObject(cacheKey);
+		if (object != null) {
+			if (attributes == null) {
+				RecordCodec.decode(object.getRecord(), data);
+				operationResult.add(new OperationResult(true, data, object.getVersion()));
+			}
+			else {
+				RecordCodec.decode(object.getRecord(), data, attributes);
+				data.setProjection(attributes);
+				operationResult.add(new OperationResult(true, data));
+			}
+			return operationResult;
+		}
+		
+		long stamp = objectCache.getStamp();
+		Lock lock = getProfileLock(data.getCategory()).readLock();
+		lock.lock();
+		try {
+			if (attributes != null)
+				return readProjectedData(data, attributes);
+			
+			operationResult = readData(data);
+		} finally {
+			lock.unlock();
+		}
+		
+		if (operationResult.get(0).isSuccess())
+			objectCache.put(cacheKey, new CachedObject(RecordCodec.encode(data), operationResult.get(0).getVersion()), stamp);
+		return operationResult;
+	}
+	
+	/**
+	 * read objects of a profile : cached objects are decoded, the others are read from the store. 
+	 * Objects whose ids are dense are read by a single pass over the ids between the smallest and the biggest, 
+	 * the others one by one. Projected reads are done one by one
+	 * @param profile
+	 * @param reads
+	 * @return
+	 */
+	private List<OperationResult> readObjects(int profile, List<ReadOperation> reads) {
+		OperationResult[] results = new OperationResult[reads.size()];
+		//indexes of the reads of each object not cached, the same object can be read twice
+		SortedMap<String, List<Integer>> missingObjects = new TreeMap<String, List<Integer>>();
+		for (int i = 0; i < reads.size(); i++) {
+			ReadOperation read = reads.get(i);
+			if (read instanceof ProjectedReadOperation) {
+				results[i] = getData(read).get(0);
+				continue;
+			}
+			
+			Data data = read.getData();
+			CachedObject object = objectCache.getObject(ObjectCache.getKey(profile, data.getId()));
+			if (object != null) {
+				RecordCodec.decode(object.getRecord(), data);
+				results[i] = new OperationResult(true, data, object.getVersion());
+				continue;
+			}
+			
+			String dataIdString = Integer.toString(data.getId());
+			if (! missingObjects.containsKey(dataIdString))
+				missingObjects.put(dataIdString, new ArrayList<Integer>());
+			missingObjects.get(dataIdString).add(i);
+		}
+		
+		if (missingObjects.size() != 0) {
+			long stamp = objectCache.getStamp();
+			Lock lock = getProfileLock(profile).readLock();
+			lock.lock();
+			try {
+				StorageKey parentKey = keyBuilder.getProfileParentKey(profileGroups.get(profile), profile);
+				SortedMap<String, List<Integer>> sparseObjects = missingObjects;
+				
+				//ids are compared as strings : longer ids can be between dense ids, the pass stops when it reads too many keys
+				if (isDense(missingObjects.keySet())) {
+					int keysPerObject = (getStorageMode(profile) == StorageMode.RECORD) ? 1 : nbInt + nbString;
+					StorageRange range = new StorageRange(missingObjects.firstKey(), true, missingObjects.lastKey(), true);
+					String stopId = readRange(parentKey, range, denseReadOverhead * keysPerObject * missingObjects.size(), 
+							missingObjects, reads, results, stamp);
+					sparseObjects = (stopId == null) ? new TreeMap<String, List<Integer>>() : missingObjects.tailMap(stopId);
+				}
+				
+				for (String id : sparseObjects.keySet())
+					readRange(parentKey, new StorageRange(id, true, id, true), Integer.MAX_VALUE, missingObjects, reads, results, stamp);
+			} finally {
+				lock.unlock();
+			}
+		}
+		
+		List<OperationResult> operationResult = new ArrayList<OperationResult>(results.length);
+		for (OperationResult result : results) {
+			if (result == null)
+				operationResult.add(new OperationResult(false, null));
+			else
+				operationResult.add(result);
+		}
+		return operationResult;
+	}
+	
+	/**
+	 * ids are dense when there are enough of them and they are most of the ids between the smallest and the biggest
+	 * @param ids
+	 * @return
+	 */
+	private boolean isDense(Set<String> ids) {
+		if (ids.size() < minDenseReads)
+			return false;
+		
+		long minId = Long.MAX_VALUE;
+		long maxId = Long.MIN_VALUE;
+		for (String id : ids) {
+			minId = Math.min(minId, Long.parseLong(id));
+			maxId = Math.max(maxId, Long.parseLong(id));
+		}
+		return maxId - minId + 1 <= (long) denseReadOverhead * ids.size();
+	}
+	
+	/**
+	 * decode the asked objects of a range of the profile
+	 * @param parentKey
+	 * @param range
+	 * @param maxKeys the pass stops at the first object after maxKeys keys
+	 * @param missingObjects indexes of the reads of each asked object
+	 * @param reads
+	 * @param results
+	 * @param stamp
+	 * @return id of the first object not read, null if the whole range was read
+	 */
+	private String readRange(StorageKey parentKey, StorageRange range, int maxKeys, SortedMap<String, List<Integer>> missingObjects, 
+			List<ReadOperation> reads, OperationResult[] results, long stamp) {
+		int idIndex = parentKey.getMinorPath().size();
+		Iterator<Entry<StorageKey, StoredValue>> profileObjects = store.multiGetIterator(parentKey, range, scanBatchSize);
+		
+		//keys of the current object, only kept if it was asked
+		String currentId = null;
+		List<StoredValue> values = new ArrayList<StoredValue>();
+		boolean isRecord = false;
+		int nbKeys = 0;
+		while (true) {
+			Entry<StorageKey, StoredValue> profileObject = profileObjects.hasNext() ? profileObjects.next() : null;
+			List<String> minorPath = (profileObject == null) ? null : profileObject.getKey().getMinorPath();
+			if ((minorPath != null) && (minorPath.size() == idIndex))
+				continue;
+			
+			//end of the current object
+			if ((profileObject == null) || (! minorPath.get(idIndex).equals(currentId))) {
+				if ((currentId != null) && missingObjects.containsKey(currentId)) {
+					for (int i : missingObjects.get(currentId))
+						results[i] = decodeObject(reads.get(i).getData(), values, isRecord, stamp);
+				}
+				if (profileObject == null)
+					return null;
+				
+				currentId = minorPath.get(idIndex);
+				if (nbKeys >= maxKeys)
+					return currentId;
+				values.clear();
+				isRecord = false;
+			}
+			
+			nbKeys++;
+			if (missingObjects.containsKey(currentId)) {
+				values.add(profileObject.getValue());
+				isRecord = minorPath.size() == idIndex + 1;
+			}
+		}
+	}
+	
+	/**
+	 * decode an object from the values of its keys then cache it
+	 * @param data
+	 * @param values
+	 * @param isRecord a single key holds the whole object
+	 * @param stamp cache stamp taken before reading the values
+	 * @return
+	 */
+	private OperationResult decodeObject(Data data, List<StoredValue> values, boolean isRecord, long stamp) {
+		if (isRecord && (values.size() == 1)) {
+			RecordCodec.decode(values.get(0).getValue(), data);
+		}
+		else if ((! isRecord) && (values.size() == nbInt + nbString)) {
+			for (int i = 0; i < values.size(); i++)
+				ValueDecoder.addAttribute(data, i, nbInt, values.get(i).getValue());
+		}
+		else {
+			return new OperationResult(false, null);
+		}
+		
+		ObjectVersion version = toObjectVersion(values.toArray(new StoredValue[values.size()]));
+		objectCache.put(ObjectCache.getKey(data.getCategory(), data.getId()), new CachedObject(RecordCodec.encode(data), version), stamp);
+		return new OperationResult(true, data, version);
+	}
+	
+	/**
+	 * read only the given attributes of an object, data becomes a projected data
+	 * @param data
+	 * @param attributes sorted attribute indexes, lower than nbInt + nbString
+	 * @return
+	 */
+	private List<OperationResult> readProjectedData (Data data, int[] attributes) {
 		int dataId = data.getId();
 		int category = data.getCategory();
+		Integer group = profileGroups.get(category);
 		List <OperationResult> operationResult = new ArrayList<OperationResult>();
 		
-		SortedMap<Key,ValueVersion> profileObjects = store.multiGet(Key.createKey("" + category), new KeyRange (new Integer(dataId).toString()), null);
+		if (getStorageMode(data) == StorageMode.RECORD) {
+			StoredValue record = store.get(keyBuilder.getRecordKey(group, category, dataId));
+			if (record != null) {
+				RecordCodec.decode(record.getValue(), data, attributes);
+				data.setProjection(attributes);
+				operationResult.add(new OperationResult(true, data));
+				return operationResult;
+			}
+		}
+		else {
+			StorageKey[] keys = keyBuilder.getAttributeKeys(group, category, dataId);
+			StoredValue[] values = new StoredValue[attributes.length];
+			
+			if (attributes.length == 1) {
+				values[0] = store.get(keys[attributes[0]]);
+			}
+			else {
+				//a single multiGet on the attributes between the first and the last selected ones
+				String first = getAttributeComponent(keys[attributes[0]]);
+				String last = first;
+				for (int attribute : attributes) {
+					String component = getAttributeComponent(keys[attribute]);
+					if (component.compareTo(first) < 0)
+						first = component;
+					if (component.compareTo(last) > 0)
+						last = component;
+				}
+				
+				SortedMap<StorageKey,StoredValue> objectAttributes = store.multiGet(keyBuilder.getRecordKey(group, category, dataId), new StorageRange(first, true, last, true));
+				for (int i = 0; i < attributes.length; i++)
+					values[i] = objectAttributes.get(keys[attributes[i]]);
+			}
+			
+			boolean isComplete = true;
+			for (StoredValue value : values) {
+				if (value == null)
+					isComplete = false;
+			}
+			
+			if (isComplete) {
+				for (int i = 0; i < attributes.length; i++)
+					ValueDecoder.addAttribute(data, attributes[i], nbInt, values[i].getValue());
+				data.setProjection(attributes);
+				operationResult.add(new OperationResult(true, data));
+				return operationResult;
+			}
+		}
+		
+		//object not converted yet to the storage mode of its profile, read it entirely
+		Data object = new Data(nbInt, nbString);
+		object.setId(dataId);
+		object.setCategory(category);
+		if (! readData(object).get(0).isSuccess()) {
+			operationResult.add(new OperationResult(false, null));
+			return operationResult;
+		}
+		
+		for (int attribute : attributes) {
+			if (attribute < nbInt)
+				data.addNumber(object.getNumber(attribute));
+			else
+				data.addString(object.getString(attribute - nbInt));
+		}
+		data.setProjection(attributes);
+		operationResult.add(new OperationResult(true, data));
+		
+		return operationResult;
+	}
+	
+	private static String getAttributeComponent(StorageKey attributeKey) {
+		return attributeKey.getMinorPath().get(attributeKey.getMinorPath().size() - 1);
+	}
+	
+	private List<OperationResult> readData (Data data) {
+		int dataId = data.getId();
+		int category = data.getCategory();
+		Integer group = profileGroups.get(category);
+		String dataIdString = Integer.toString(dataId);
+		List <OperationResult> operationResult = new ArrayList<OperationResult>();
+		
+		if (getStorageMode(data) == StorageMode.RECORD) {
+			StoredValue record = store.get(keyBuilder.getRecordKey(group, category, dataId));
+			if (record != null) {
+				operationResult.add(new OperationResult(true, RecordCodec.decode(record.getValue(), data), toObjectVersion(record)));
+				return operationResult;
+			}
+		}
+		
+		//exact range, a prefix range would also match the ids beginning by dataId
+		StorageKey parentKey = keyBuilder.getProfileParentKey(group, category);
+		SortedMap<StorageKey,StoredValue> profileObjects = store.multiGet(parentKey, new StorageRange(dataIdString, true, dataIdString, true));
+		
+		//object not converted yet to the storage mode of its profile
+		if ((profileObjects.size() == 1) && (profileObjects.firstKey().getMinorPath().size() == parentKey.getMinorPath().size() + 1)) {
+			StoredValue record = profileObjects.get(profileObjects.firstKey());
+			operationResult.add(new OperationResult(true, RecordCodec.decode(record.getValue(), data), toObjectVersion(record)));
+			return operationResult;
+		}
 
 		if (profileObjects.size() != (nbString + nbInt)) {
 			operationResult.add(new OperationResult(false, null));
@@ -375,274 +1894,1093 @@ public class KVDBImplementation extends UnicastRemoteObject implements KVDBInter
 		}
 		
 		int i = 0;
-		for (Entry<Key, ValueVersion> profileObject : profileObjects.entrySet()) {
-			String value = new String (profileObject.getValue().getValue().getValue());
-			if (i < nbInt)
-				data.getListNumber().add(Integer.valueOf(value));
-    		else
-    			data.getListString().add(value);
+		StoredValue[] attributes = new StoredValue[nbInt + nbString];
+		for (Entry<StorageKey, StoredValue> profileObject : profileObjects.entrySet()) {
+			ValueDecoder.addAttribute(data, i, nbInt, profileObject.getValue().getValue());
+			attributes[i] = profileObject.getValue();
     		i++;
 		}
-		
-		operationResult.add(new OperationResult(true, data));
-		
-		return operationResult;
+		
+		operationResult.add(new OperationResult(true, data, toObjectVersion(attributes)));
+		
+		return operationResult;
+	}
+	
+	/**
+	 * version of an object from the values of its keys, in the order of the transaction writing it
+	 * @param values
+	 * @return
+	 */
+	private static ObjectVersion toObjectVersion(StoredValue... values) {
+		byte[][] keyVersions = new byte[values.length][];
+		for (int i = 0; i < values.length; i++)
+			keyVersions[i] = values[i].getVersion().toByteArray();
+		return new ObjectVersion(keyVersions);
+	}
+	
+	
+	/**
+	 * next chunk of a scan. keys are read from the store by batches while the chunk is built,
+	 * so only the chunk is kept in memory
+	 * @param operation
+	 * @return
+	 */
+	private List<OperationResult> scan(ScanOperation operation) {
+		int profile = operation.getProfile();
+		List<OperationResult> operationResult = new ArrayList<OperationResult>();
+		if (! localProfiles.containsKey(profile)) {
+			operationResult.add(new OperationResult(false, null));
+			return operationResult;
+		}
+		
+		int limit = Math.min(operation.getLimit(), maxScanChunk);
+		List<Data> datas = new ArrayList<Data>();
+		String cursor = null;
+		if (operation.getStartId() > operation.getEndId()) {
+			operationResult.add(new ScanResult(datas, cursor));
+			return operationResult;
+		}
+		
+		Lock lock = getProfileLock(profile).readLock();
+		lock.lock();
+		try {
+			StorageKey parentKey = keyBuilder.getProfileParentKey(profileGroups.get(profile), profile);
+			int idIndex = parentKey.getMinorPath().size();
+			Iterator<Entry<StorageKey, StoredValue>> profileObjects = store.multiGetIterator(parentKey, getScanRange(operation), scanBatchSize);
+			
+			String currentId = null;
+			Data data = null;
+			int i = 0;
+			int nbKeys = 0;
+			while (profileObjects.hasNext()) {
+				Entry<StorageKey, StoredValue> profileObject = profileObjects.next();
+				List<String> minorPath = profileObject.getKey().getMinorPath();
+				if (minorPath.size() == idIndex)
+					continue;
+				
+				//beginning of a new object, the previous one is over
+				if (! minorPath.get(idIndex).equals(currentId)) {
+					if ((data != null) && (i == nbInt + nbString)) {
+						datas.add(data);
+						if (datas.size() == limit) {
+							cursor = currentId;
+							break;
+						}
+					}
+					//objects out of the id range are skipped, a chunk ends once maxScanKeys keys were read
+					if ((currentId != null) && (nbKeys >= maxScanKeys)) {
+						cursor = currentId;
+						break;
+					}
+					
+					currentId = minorPath.get(idIndex);
+					data = null;
+					i = 0;
+					int dataId = Integer.valueOf(currentId);
+					if (operation.inRange(dataId)) {
+						data = new Data(nbInt, nbString);
+						data.setId(dataId);
+						data.setCategory(profile);
+					}
+				}
+				
+				nbKeys++;
+				if (data == null)
+					continue;
+				
+				//RECORD object, a single key holds the whole object
+				if (minorPath.size() == idIndex + 1) {
+					RecordCodec.decode(profileObject.getValue().getValue(), data);
+					i = nbInt + nbString;
+				}
+				else {
+					ValueDecoder.addAttribute(data, i, nbInt, profileObject.getValue().getValue());
+					i++;
+				}
+			}
+			
+			if ((cursor == null) && (data != null) && (i == nbInt + nbString))
+				datas.add(data);
+		} finally {
+			lock.unlock();
+		}
+		
+		operationResult.add(new ScanResult(datas, cursor));
+		return operationResult;
+	}
+	
+	
+	/**
+	 * keys of the objects of the id range of the scan after its cursor. Ids are compared as strings : the range goes 
+	 * from the smallest to the biggest id string of the id range, each number of digits being a range of its own
+	 * @param operation
+	 * @return
+	 */
+	private static StorageRange getScanRange(ScanOperation operation) {
+		String start = null;
+		String end = null;
+		long low = operation.getStartId();
+		long high = operation.getEndId();
+		for (long digitsStart = 1; digitsStart <= Math.max(high, 1); digitsStart *= 10) {
+			long bandLow = Math.max(low, (digitsStart == 1) ? 0 : digitsStart);
+			long bandHigh = Math.min(high, digitsStart * 10 - 1);
+			if (bandLow > bandHigh)
+				continue;
+			if ((start == null) || (Long.toString(bandLow).compareTo(start) < 0))
+				start = Long.toString(bandLow);
+			if ((end == null) || (Long.toString(bandHigh).compareTo(end) > 0))
+				end = Long.toString(bandHigh);
+		}
+		//negative ids begin with '-', before the digits
+		if (low < 0)
+			start = null;
+		if (high < 0)
+			end = ".";
+		
+		//objects after the last one of the previous chunk
+		if ((operation.getCursor() != null) && ((start == null) || (operation.getCursor().compareTo(start) >= 0)))
+			return new StorageRange(operation.getCursor(), false, end, true);
+		return new StorageRange(start, true, end, true);
+	}
+	
+	
+	private List<OperationResult> KVResult2OperationResult (List<StorageOperationResult> kvResult, List<Integer> operationSizes) {
+		List <OperationResult> operationResult = new ArrayList<OperationResult>();
+		int i = 0;
+		for (int size : operationSizes) {
+			//new version of the written object
+			ObjectVersion version = null;
+			if (kvResult.get(i).getNewVersion() != null) {
+				byte[][] keyVersions = new byte[size][];
+				for (int j = 0; j < size; j++)
+					keyVersions[j] = kvResult.get(i + j).getNewVersion().toByteArray();
+				version = new ObjectVersion(keyVersions);
+			}
+			
+			operationResult.add(new OperationResult(kvResult.get(i).getSuccess(), null, version));
+			i += size;
+		}
+
+		return operationResult;
+	}
+	
+	/**
+	 * get the transaction matching the operation, keys are in the group of the profile if it has one
+	 * @param data
+	 * @return
+	 */
+	private List<StorageOperation> getAddDataTransaction (Data data) {
+		return getAddDataTransaction(data, getStorageMode(data));
+	}
+	
+	private List<StorageOperation> getAddDataTransaction (Data data, StorageMode mode) {
+		int category = data.getCategory();
+		Integer group = profileGroups.get(category);
+		List<StorageOperation> operationList = new ArrayList<StorageOperation>(nbInt + nbString);
+		
+		if (mode == StorageMode.RECORD) {
+			operationList.add(StorageOperation.createPut(keyBuilder.getRecordKey(group, category, data.getId()), RecordCodec.encode(data)));
+			return operationList;
+		}
+		
+		StorageKey[] keys = keyBuilder.getAttributeKeys(group, category, data.getId());
+		for (int i = 0; i < nbInt; i++)
+			operationList.add(StorageOperation.createPut(keys[i], Integer.toString(data.getNumber(i)).getBytes()));
+		for (int i = 0; i < nbString; i++)
+			operationList.add(StorageOperation.createPut(keys[nbInt + i], data.getStringBytes(i)));
+		
+		return operationList;
+	}
+	
+	/**
+	 * put of the incremented attribute, it aborts the transaction if the attribute changed since it was read.
+	 * The data of the operation gets the new value of the attribute
+	 * @param operation
+	 * @return null if the object doesn't exist
+	 */
+	private StorageOperation getIncrementTransaction (IncrementOperation operation) {
+		Data data = operation.getData();
+		int attribute = operation.getAttribute();
+		int category = data.getCategory();
+		Integer group = profileGroups.get(category);
+		if (attribute >= nbInt)
+			return null;
+		
+		StorageKey recordKey = keyBuilder.getRecordKey(group, category, data.getId());
+		StorageKey attributeKey = keyBuilder.getAttributeKeys(group, category, data.getId())[attribute];
+		//the object may not be converted yet to the storage mode of its profile
+		StoredValue record = null;
+		StoredValue value = null;
+		if (getStorageMode(data) == StorageMode.RECORD) {
+			record = store.get(recordKey);
+			if (record == null)
+				value = store.get(attributeKey);
+		}
+		else {
+			value = store.get(attributeKey);
+			if (value == null)
+				record = store.get(recordKey);
+		}
+		
+		int newValue;
+		StorageOperation put;
+		if (record != null) {
+			Data object = RecordCodec.decode(record.getValue(), new Data(nbInt, nbString));
+			newValue = object.getNumber(attribute) + operation.getDelta();
+			object.setNumber(attribute, newValue);
+			put = StorageOperation.createPutIfVersion(recordKey, RecordCodec.encode(object), record.getVersion());
+		}
+		else if (value != null) {
+			newValue = ValueDecoder.parseInt(value.getValue()) + operation.getDelta();
+			put = StorageOperation.createPutIfVersion(attributeKey, Integer.toString(newValue).getBytes(), value.getVersion());
+		}
+		else {
+			return null;
+		}
+		
+		data.setListNumber(Collections.singletonList(newValue));
+		data.setListString(Collections.<String>emptyList());
+		data.setProjection(new int[] {attribute});
+		return put;
+	}
+	
+	/**
+	 * puts of the object which abort the transaction if one of its keys changed since it was read
+	 * @param operation
+	 * @return
+	 */
+	private List<StorageOperation> getConditionalWriteTransaction (ConditionalWriteOperation operation) {
+		ObjectVersion expectedVersion = operation.getExpectedVersion();
+		List<StorageOperation> operationList = new ArrayList<StorageOperation>(nbInt + nbString);
+		
+		for (StorageOperation put : getAddDataTransaction(operation.getData(), getStorageMode(operation))) {
+			if (expectedVersion == null)
+				operationList.add(StorageOperation.createPutIfAbsent(put.getKey(), put.getValue()));
+			else
+				operationList.add(StorageOperation.createPutIfVersion(put.getKey(), put.getValue(), 
+						new StorageVersion(expectedVersion.getKeyVersion(operationList.size()))));
+		}
+		
+		return operationList;
+	}
+	
+	/**
+	 * get the transaction matching the operation, keys are in the group of the profile if it has one
+	 * @param data
+	 * @return
+	 */
+	private List<StorageOperation> getRemoveDataTransaction (Data data) {
+		int category = data.getCategory();
+		Integer group = profileGroups.get(category);
+		List<StorageOperation> operationList = new ArrayList<StorageOperation>(nbInt + nbString);
+		
+		if (getStorageMode(data) == StorageMode.RECORD) {
+			operationList.add(StorageOperation.createDelete(keyBuilder.getRecordKey(group, category, data.getId())));
+			return operationList;
+		}
+		
+		for (StorageKey key : keyBuilder.getAttributeKeys(group, category, data.getId()))
+			operationList.add(StorageOperation.createDelete(key));
+		
+		return operationList;
+	}
+	
+	
+	/**
+	 * objects of a profile, read from the store by batches so the whole profile is never in memory. 
+	 * Groups may change between two batches : if the profile moved to another group, reading goes on 
+	 * below its new parent key after the last object read
+	 */
+	private class ProfileObjects {
+		private int profile;
+		private Integer group;
+		private Iterator<Entry<StorageKey, StoredValue>> profileKeys;
+		//first key of the next object, read to know the previous one ended
+		private Entry<StorageKey, StoredValue> nextKey;
+		//id of the object in the minor path
+		private int idIndex;
+		private String lastId;
+		
+		private ProfileObjects(int profile) {
+			this.profile = profile;
+		}
+		
+		/**
+		 * @param count
+		 * @return at most count next objects as they are stored, empty at the end of the profile
+		 */
+		private ProfileBlock nextBlock(int count) {
+			ProfileBlock block = new ProfileBlock();
+			Lock lock = getProfileLock(profile).readLock();
+			lock.lock();
+			try {
+				if ((profileKeys == null) || ((group == null) ? (profileGroups.get(profile) != null) : (! group.equals(profileGroups.get(profile))))) {
+					group = profileGroups.get(profile);
+					StorageKey parentKey = keyBuilder.getProfileParentKey(group, profile);
+					StorageRange range = (lastId == null) ? null : new StorageRange(lastId, false, null, false);
+					profileKeys = store.multiGetIterator(parentKey, range, maxStoreBatchSize);
+					nextKey = null;
+					idIndex = parentKey.getMinorPath().size();
+				}
+				
+				while ((nextKey != null) || profileKeys.hasNext()) {
+					Entry<StorageKey, StoredValue> profileObject = (nextKey != null) ? nextKey : profileKeys.next();
+					nextKey = null;
+					List<String> minorPath = profileObject.getKey().getMinorPath();
+					if (minorPath.size() == idIndex)
+						continue;
+					
+					String dataId = minorPath.get(idIndex);
+					if ((block.getObjectCount() == 0) || (! dataId.equals(block.getObjectId(block.getObjectCount() - 1)))) {
+						if (block.getObjectCount() == count) {
+							nextKey = profileObject;
+							break;
+						}
+						block.addObject(dataId);
+					}
+					block.addKey(new ArrayList<String>(minorPath.subList(idIndex + 1, minorPath.size())), profileObject.getValue().getValue());
+				}
+			} finally {
+				lock.unlock();
+			}
+			
+			if (block.getObjectCount() != 0)
+				lastId = block.getObjectId(block.getObjectCount() - 1);
+			return block;
+		}
+		
+		/**
+		 * @param count
+		 * @return at most count next objects, empty at the end of the profile
+		 */
+		private List<Data> next(int count) {
+			ProfileBlock block = nextBlock(count);
+			List<Data> datas = new ArrayList<Data>(block.getObjectCount());
+			for (int object = 0; object < block.getObjectCount(); object++)
+				datas.add(decodeObject(profile, block, object));
+			
+			return datas;
+		}
+	}
+	
+	/**
+	 * RECORD object : a single key holds the whole object
+	 */
+	private static boolean isRecord(ProfileBlock block, int object) {
+		return (block.getKeyCount(object) == 1) && (block.getKeySuffix(object, 0).size() == 0);
+	}
+	
+	/**
+	 * object of a block, whatever its layout
+	 */
+	private Data decodeObject(int profile, ProfileBlock block, int object) {
+		Data data = new Data(nbInt, nbString);
+		if (isRecord(block, object)) {
+			RecordCodec.decode(block.getValue(object, 0), data);
+		}
+		else {
+			for (int i = 0; i < block.getKeyCount(object); i++)
+				ValueDecoder.addAttribute(data, i, nbInt, block.getValue(object, i));
+		}
+		data.setId(Integer.valueOf(block.getObjectId(object)));
+		data.setCategory(profile);
+		return data;
 	}
 	
-	
-	private List<OperationResult> KVResult2OperationResult (List<oracle.kv.OperationResult> kvResult) {
-		List <OperationResult> operationResult = new ArrayList<OperationResult>();
-		for (int i = 0; i < kvResult.size(); i += 10) {
-			operationResult.add(new OperationResult(kvResult.get(i).getSuccess(), null));
+	/**
+	 * conversion of a profile to another layout, object by object in key order
+	 */
+	private static class ProfileConversion {
+		private StorageMode storageMode;
+		//objects up to this id (in key order) have the new layout, null before the first one. Changed under the write lock of the profile
+		private volatile String lastConvertedId = null;
+		
+		private ProfileConversion(StorageMode storageMode) {
+			this.storageMode = storageMode;
 		}
-
-		return operationResult;
 	}
 	
 	/**
-	 * get the transaction matching the operation. if new primary key is set, shift keys
-	 * @param data
-	 * @param newPrimaryKey
-	 * @return
+	 * copy of a profile from here to another KVDB
 	 */
-	private List<oracle.kv.Operation> getAddDataTransaction (Data data) {
-		int dataId = data.getId();
-		int category = data.getCategory();
-		Key key;
-		OperationFactory operationFactory = store.getOperationFactory();
-		List<oracle.kv.Operation> operationList = new ArrayList<oracle.kv.Operation>();
-		
-		for (int i = 0; i < nbInt + nbString; i++) {
-			List<String> att = new ArrayList<String>();
-    		att.add(new Integer(dataId).toString());
-    		att.add(new Integer(i).toString());
-    		key = Key.createKey("" + category, att);
-    		
-    		if (i < nbInt)
-    			operationList.add(operationFactory.createPut(key, Value.createValue(data.getListNumber().get(i).toString().getBytes())));
-    		else
-    			operationList.add(operationFactory.createPut(key, Value.createValue(data.getListString().get(i - nbInt).toString().getBytes())));
+	private class OutgoingMigration {
+		//objects written here since the copy began
+		private Set<Integer> writtenIds = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+		//at most migrationWindow chunks are sent and not applied yet
+		private Semaphore window = new Semaphore(migrationWindow);
+		private AtomicBoolean failed = new AtomicBoolean(false);
+		private volatile boolean isAborted = false;
+		//compression agreed with the target
+		private MigrationCodec codec = MigrationCodec.NONE;
+		private int targetId;
+		private long startTime = System.currentTimeMillis();
+		private AtomicLong objects = new AtomicLong();
+		private AtomicLong rawBytes = new AtomicLong();
+		private AtomicLong sentBytes = new AtomicLong();
+		
+		private byte[] encode(ProfileBlock block) {
+			byte[] rawBlock = block.encode();
+			byte[] payload = codec.encode(rawBlock);
+			objects.addAndGet(block.getObjectCount());
+			rawBytes.addAndGet(rawBlock.length);
+			sentBytes.addAndGet(payload.length);
+			return payload;
 		}
 		
-		return operationList;
+		/**
+		 * stop the copy, returns once its chunks sent are applied
+		 */
+		private void abort() {
+			isAborted = true;
+			window.acquireUninterruptibly(migrationWindow);
+			window.release(migrationWindow);
+		}
 	}
 	
+	
 	/**
-	 * get the transaction matching the operation. if new primary key is set, shift keys
-	 * @param data
-	 * @param newPrimaryKey
-	 * @return
+	 * send the objects of the profile to target by chunks, applied by the target as they arrive
+	 * @param profile
+	 * @param target
+	 * @param migration
+	 * @throws RemoteException if a chunk could not be applied
 	 */
-	private List<oracle.kv.Operation> getRemoveDataTransaction (Data data) {
-		int dataId = data.getId();
-		int category = data.getCategory();
-		Key key;
-		OperationFactory operationFactory = store.getOperationFactory();
-		List<oracle.kv.Operation> operationList = new ArrayList<oracle.kv.Operation>();
-		
-		for (int i = 0; i < nbInt + nbString; i++) {
-			List<String> att = new ArrayList<String>();
-    		att.add(new Integer(dataId).toString());
-    		att.add(new Integer(i).toString());
-    		key = Key.createKey("" + category, att);
-    		operationList.add(operationFactory.createDelete(key));
+	private void streamProfile(int profile, final KVDBInterface target, final OutgoingMigration migration) throws RemoteException {
+		ProfileObjects profileObjects = new ProfileObjects(profile);
+		final int transfusedProfile = profile;
+		final StorageMode profileStorageMode = getStorageMode(profile);
+		//objects are sent by chunks while the next ones are read, keys and values as they are stored
+		for (ProfileBlock block = profileObjects.nextBlock(migrationChunkSize); block.getObjectCount() != 0; block = profileObjects.nextBlock(migrationChunkSize)) {
+			final ProfileBlock chunk = block;
+			
+			migration.window.acquireUninterruptibly();
+			if (migration.isAborted || migration.failed.get()) {
+				migration.window.release();
+				break;
+			}
+			migrationSenders.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						//add them to target (inject), chunks are compressed in parallel
+						target.executeMigrationBlock(transfusedProfile, profileStorageMode, migration.encode(chunk), false);
+					} catch (RemoteException e) {
+						// TODO Auto-generated catch block
+						e.printStackTrace();
+						migration.failed.set(true);
+					} finally {
+						migration.window.release();
+					}
+				}
+			});
 		}
 		
-		return operationList;
+		//every chunk is applied by the target
+		migration.window.acquireUninterruptibly(migrationWindow);
+		migration.window.release(migrationWindow);
+		if (migration.failed.get())
+			throw new RemoteException("KVDB " + id + " failed to transfuse profile " + profile);
 	}
 	
 	/**
-	 * get the transaction matching the operation. if new primary key is set, shift keys
-	 * @param data
-	 * @param newPrimaryKey
-	 * @return
+	 * send again the objects written during the copy, the profile is write locked by its monitor
+	 * @param profile
+	 * @param target
+	 * @param migration
+	 * @throws RemoteException
 	 */
-	private List<oracle.kv.Operation> getAddDataTransaction (Data data, List<Integer> newPrimaryKey) {
-		int dataId = data.getId();
-		int category = data.getCategory();
-		Key key;
-		OperationFactory operationFactory = store.getOperationFactory();
-		List<oracle.kv.Operation> operationList = new ArrayList<oracle.kv.Operation>();
-		
-		for (int i = 0; i < nbInt + nbString; i++) {
-			List<String> att = new ArrayList<String>();
-			att.add(new Integer(category).toString());
-    		att.add(new Integer(dataId).toString());
-    		att.add(new Integer(i).toString());
-    		
-    		List<String> prim = new ArrayList<String>();
-    		for (int c : newPrimaryKey) {
-	    		prim.add(c + "");
-    		}
-    		
-    		key = Key.createKey(prim, att);
-    		
-    		if (i < nbInt)
-    			operationList.add(operationFactory.createPut(key, Value.createValue(data.getListNumber().get(i).toString().getBytes())));
-    		else
-    			operationList.add(operationFactory.createPut(key, Value.createValue(data.getListString().get(i - nbInt).toString().getBytes())));
+	private void sendWrittenObjects(int profile, KVDBInterface target, OutgoingMigration migration) throws RemoteException {
+		List<Integer> writtenIds = new ArrayList<Integer>(migration.writtenIds);
+		for (int start = 0; start < writtenIds.size(); start += migrationChunkSize) {
+			//objects deleted during the copy have no key, they are deleted there too
+			ProfileBlock block = getObjectsBlock(profile, writtenIds.subList(start, Math.min(writtenIds.size(), start + migrationChunkSize)));
+			target.executeMigrationBlock(profile, getStorageMode(profile), migration.encode(block), true);
 		}
-		
-		return operationList;
 	}
 	
 	/**
-	 * get the transaction matching the operation. if new primary key is set, shift keys
-	 * @param data
-	 * @param newPrimaryKey
+	 * objects of the profile in the range of ids as they are stored, must hold a lock of the profile
+	 * @param profile
+	 * @param range
 	 * @return
 	 */
-	private List<oracle.kv.Operation> getRemoveDataTransaction (Data data, List<Integer> newPrimaryKey) {
-		int dataId = data.getId();
-		int category = data.getCategory();
-		Key key;
-		OperationFactory operationFactory = store.getOperationFactory();
-		List<oracle.kv.Operation> operationList = new ArrayList<oracle.kv.Operation>();
-		
-		for (int i = 0; i < nbInt + nbString; i++) {
-			List<String> att = new ArrayList<String>();
-			att.add(new Integer(category).toString());
-    		att.add(new Integer(dataId).toString());
-    		att.add(new Integer(i).toString());
-    		
-    		List<String> prim = new ArrayList<String>();
-    		for (int c : newPrimaryKey) {
-	    		prim.add(c + "");
-    		}
-    		
-    		key = Key.createKey(prim, att);
-    		
-    		operationList.add(operationFactory.createDelete(key));
+	private ProfileBlock getObjectsBlock(int profile, StorageRange range) {
+		ProfileBlock block = new ProfileBlock();
+		StorageKey parentKey = keyBuilder.getProfileParentKey(profileGroups.get(profile), profile);
+		int idIndex = parentKey.getMinorPath().size();
+		for (Entry<StorageKey, StoredValue> objectKey : store.multiGet(parentKey, range).entrySet()) {
+			List<String> minorPath = objectKey.getKey().getMinorPath();
+			String dataId = minorPath.get(idIndex);
+			if ((block.getObjectCount() == 0) || (! dataId.equals(block.getObjectId(block.getObjectCount() - 1))))
+				block.addObject(dataId);
+			block.addKey(new ArrayList<String>(minorPath.subList(idIndex + 1, minorPath.size())), objectKey.getValue().getValue());
 		}
-		
-		return operationList;
+		return block;
 	}
 	
-	
-	private List<Data> getAllDataFromProfile(int profile) {
-		List<Data> datas = new ArrayList<Data>();
-
-		SortedMap<Key,ValueVersion> profileObjects = store.multiGet(Key.createKey("" + profile), null, null);
-
-		int i = 0;
-		Data data = new Data();
-		for (Entry<Key, ValueVersion> profileObject : profileObjects.entrySet()) {
-			String value = new String (profileObject.getValue().getValue().getValue());
-			if (i < nbInt)
-				data.getListNumber().add(Integer.valueOf(value));
-    		else
-    			data.getListString().add(value);
-    		i++;
-    		
-    		if (i == (nbInt + nbString)) {
-				i = 0;
-				data.setId(Integer.valueOf(profileObject.getKey().getMinorPath().get(0)));
-				data.setCategory(Integer.valueOf(profileObject.getKey().getMajorPath().get(0)));
-				datas.add(data);
-				data = new Data();
-    		}
+	/**
+	 * objects of the profile as they are stored, objects which don't exist have no key
+	 * @param profile
+	 * @param ids
+	 * @return
+	 */
+	private ProfileBlock getObjectsBlock(int profile, List<Integer> ids) {
+		ProfileBlock block = new ProfileBlock();
+		Lock lock = getProfileLock(profile).readLock();
+		lock.lock();
+		try {
+			StorageKey parentKey = keyBuilder.getProfileParentKey(profileGroups.get(profile), profile);
+			int idIndex = parentKey.getMinorPath().size();
+			for (int dataId : ids) {
+				String dataIdString = Integer.toString(dataId);
+				block.addObject(dataIdString);
+				StorageRange range = new StorageRange(dataIdString, true, dataIdString, true);
+				for (Entry<StorageKey, StoredValue> objectKey : store.multiGet(parentKey, range).entrySet()) {
+					List<String> minorPath = objectKey.getKey().getMinorPath();
+					block.addKey(new ArrayList<String>(minorPath.subList(idIndex + 1, minorPath.size())), objectKey.getValue().getValue());
+				}
+			}
+		} finally {
+			lock.unlock();
 		}
-		
-		return datas;
+		return block;
 	}
 	
-	
 	/**
-	 * transfuse to target given profiles
+	 * transfuse to target given profiles, the monitor has write locked the profile. Objects are streamed by chunks 
+	 * applied by the target as they arrive, they are deleted from here once every chunk is applied. 
+	 * A live copy of the profile still running is stopped first
 	 * @param localProfiles
 	 * @param target
 	 * @throws RemoteException 
 	 */
 	@Override
 	public void transfuseData(int profile, KVDBInterface target) throws RemoteException {
-		List<Data> unusedData = new ArrayList<Data>();
-		unusedData.addAll(getAllDataFromProfile(profile));
-		//System.out.println("!!!!!!!!!!!!!!!!!!!!!!!!!!unused data size = " + unusedData.size());
+		OutgoingMigration migration = new OutgoingMigration();
+		OutgoingMigration liveMigration = outgoingMigrations.put(profile, migration);
+		if (liveMigration != null)
+			liveMigration.abort();
 		
-		if (unusedData.size() != 0) {
-			//data 2 transaction
-			List<Operation> transfuseOperations = new ArrayList<Operation>();
-			for (Data data : unusedData) {
-				transfuseOperations.add(new WriteOperation(data));
-			}
+		try {
+			//the objects are sent in a single layout
+			if (! endConversion(profile))
+				throw new RemoteException("KVDB " + id + " could not end the conversion of profile " + profile);
+			startCopy(profile, target, migration);
+			streamProfile(profile, target, migration);
+			releaseProfile(profile, target);
+			recordMigration(profile, migration, false);
+		} finally {
+			outgoingMigrations.remove(profile, migration);
+		}
+	}
+	
+	/**
+	 * transfuse the profile to target while it is still used here : the objects are copied without lock, then the 
+	 * monitor write locks the profile for a short catch up of the objects written during the copy. 
+	 * The profile stays write locked : target takes it then notifies the end of the migration. 
+	 * The leftovers of a failed or stopped copy are removed by the next copy to target
+	 * @return false if the profile is not here, already being copied or partly converted, the profile is not locked
+	 */
+	@Override
+	public boolean transfuseLiveData(int profile, KVDBInterface target, boolean isLoadBalancing) throws RemoteException {
+		OutgoingMigration migration = new OutgoingMigration();
+		if ((! localProfiles.containsKey(profile)) || profileConversions.containsKey(profile) || (outgoingMigrations.putIfAbsent(profile, migration) != null))
+			return false;
 		
-			//add them to target (inject)
-			target.executeMigrationOperations(transfuseOperations);
+		MonitorInterface monitor = monitorMapping.get(profile);
+		try {
+			startCopy(profile, target, migration);
+			streamProfile(profile, target, migration);
+			if (migration.isAborted)
+				return false;
 			
-			//remove them from here (delete)
-			List<Operation> deleteOperations = new ArrayList<Operation>();
-			for (Data data : unusedData) {
-				deleteOperations.add(new DeleteOperation(data));
+			KVDBInterface owner = isLoadBalancing ? monitor.notifyLoadBalanceMigration(target, profile) : monitor.notifyStandardMigration(target, profile);
+			try {
+				//a blocking migration took the profile while we were waiting for the lock
+				if (migration.isAborted || (! localProfiles.containsKey(profile))) {
+					endMigration(monitor, owner, profile, isLoadBalancing);
+					return false;
+				}
+				
+				sendWrittenObjects(profile, target, migration);
+			} catch (RemoteException | RuntimeException e) {
+				endMigration(monitor, owner, profile, isLoadBalancing);
+				throw e;
 			}
-			executeOperations(deleteOperations);
+			
+			releaseProfile(profile, target);
+			recordMigration(profile, migration, true);
+			return true;
+		} finally {
+			outgoingMigrations.remove(profile, migration);
+		}
+	}
+	
+	/**
+	 * agree on the compression of the blocks with target, and remove what a previous copy left there
+	 * @param profile
+	 * @param target
+	 * @param migration
+	 * @throws RemoteException
+	 */
+	private void startCopy(int profile, KVDBInterface target, OutgoingMigration migration) throws RemoteException {
+		migration.codec = MigrationCodec.negotiate(migrationCodecs, target.getMigrationCodecs());
+		migration.targetId = target.getKVDBId();
+		target.discardMigration(profile);
+	}
+	
+	private void recordMigration(int profile, OutgoingMigration migration, boolean isLive) {
+		MigrationStatistics statistics = new MigrationStatistics(profile, migration.targetId, migration.codec, isLive, migration.objects.get(), 
+				migration.rawBytes.get(), migration.sentBytes.get(), System.currentTimeMillis() - migration.startTime);
+		synchronized (migrationStatistics) {
+			migrationStatistics.addLast(statistics);
+			if (migrationStatistics.size() > migrationStatisticsSize)
+				migrationStatistics.removeFirst();
 		}
+	}
+	
+	/**
+	 * remove the objects of a copy of the profile which did not end, if the profile is not here
+	 */
+	@Override
+	public void discardMigration(int profile) {
+		if (localProfiles.containsKey(profile))
+			return;
 		
-		//System.out.println(id + " transfused profile " + profile + " to target " + target.getKVDBId() + ", successful");
+		incomingStorageModes.remove(profile);
+		Lock lock = getProfileLock(profile).readLock();
+		lock.lock();
+		try {
+			store.deleteRange(keyBuilder.getProfileParentKey(profileGroups.get(profile), profile), null);
+		} finally {
+			lock.unlock();
+		}
+		objectCache.invalidateProfile(profile);
+	}
+	
+	/**
+	 * the profile is copied to target : it is removed from here, requests still arriving for it go to target
+	 * @param profile
+	 * @param target
+	 */
+	private void releaseProfile(int profile, KVDBInterface target) {
+		//snapshot reads of the profile fail from now, before its objects disappear
 		localProfiles.remove(profile);
+		changeOwnership(profile);
+		forwardedProfiles.put(profile, target);
+		
+		//remove them from here, without building a transaction of the whole profile
+		Lock lock = getProfileLock(profile).writeLock();
+		lock.lock();
+		try {
+			store.deleteRange(keyBuilder.getProfileParentKey(profileGroups.get(profile), profile), null);
+			//System.out.println(id + " transfused profile " + profile + " to target " + target.getKVDBId() + ", successful");
+			leaveGroup(profile);
+		} finally {
+			lock.unlock();
+		}
 		localProfilesAccessCount.remove(profile);
+		profileStorageModes.remove(profile);
+		objectCache.invalidateProfile(profile);
+	}
+	
+	/**
+	 * the profile arrived here
+	 * @param profile
+	 */
+	private void takeProfile(int profile) {
+		//objects keep the layout they had on the source
+		StorageMode incomingStorageMode = incomingStorageModes.remove(profile);
+		localProfiles.put(profile, profile);
+		localProfilesAccessCount.put(profile, 0);
+		profileStorageModes.put(profile, (incomingStorageMode == null) ? storageMode : incomingStorageMode);
+		forwardedProfiles.remove(profile);
+		changeOwnership(profile);
+	}
+	
+	private void endMigration(MonitorInterface monitor, KVDBInterface newSource, int profile, boolean isLoadBalancing) throws RemoteException {
+		if (isLoadBalancing)
+			monitor.notifyEndLoadBalanceMigration(newSource, profile);
+		else
+			monitor.notifyEndStandardMigration(newSource, profile);
+	}
+	
+	
+	/**
+	 * a profile arrived or left, snapshot reads running on it are not valid anymore
+	 * @param profile
+	 */
+	private void changeOwnership(int profile) {
+		synchronized (ownershipEpochs) {
+			ownershipEpochs.put(profile, getOwnershipEpoch(profile) + 1);
+		}
+	}
+	
+	private long getOwnershipEpoch(int profile) {
+		Long epoch = ownershipEpochs.get(profile);
+		return (epoch == null) ? 0 : epoch;
 	}
 	
 	
 	/**
-	 * ask migration from kvdb having profiles v to me
+	 * ask migration from kvdb having profiles v to me. Each profile is first copied while its owner keeps 
+	 * serving it, profiles which can't be copied this way are migrated with their lock held during the whole copy.
+	 * Profiles are copied in parallel, at most migrationParallelism at once, and each monitor is asked once for its profiles
 	 * @param profiles
 	 * @throws RemoteException 
 	 */
-	//TODO make it more efficient
-	private void migrate(List<Integer> profiles, boolean isLoadBalancing) {
-		List<KVDBInterface> targetServers = new ArrayList<KVDBInterface>();
-		
-		//ask migration of the list of profile to me
-		for (Integer profile : profiles) {
+	private void migrate(List<Integer> profiles, final boolean isLoadBalancing) {
+		final Map<Integer, KVDBInterface> owners = new HashMap<Integer, KVDBInterface>();
+		for (Entry<MonitorInterface, List<Integer>> entry : groupByMonitor(profiles).entrySet()) {
 			try {
-				if (isLoadBalancing)
-					targetServers.add(monitorMapping.get(profile).notifyLoadBalanceMigration(this, profile));
-				else
-					targetServers.add(monitorMapping.get(profile).notifyStandardMigration(this, profile));
+				owners.putAll(entry.getKey().getProfileOwners(entry.getValue()));
 			} catch (RemoteException e) {
 				// TODO Auto-generated catch block
 				e.printStackTrace();
 			}
 		}
 		
-		//begin migration of profiles to me
+		List<Callable<Boolean>> copies = new ArrayList<Callable<Boolean>>(profiles.size());
+		for (final Integer profile : profiles) {
+			copies.add(new Callable<Boolean>() {
+				@Override
+				public Boolean call() {
+					return migrateLive(profile, owners.get(profile), isLoadBalancing);
+				}
+			});
+		}
+		boolean[] isMigrated = executeMigrationTasks(copies);
+		
+		List<Integer> lockedProfiles = new ArrayList<Integer>();
 		for (int i = 0; i < profiles.size(); i++) {
-			int profile = profiles.get(i);
-			//System.out.println(id + " migrating " + profile);
-			KVDBInterface kvdb = targetServers.get(i);
+			if (! isMigrated[i])
+				lockedProfiles.add(profiles.get(i));
+		}
+		if (lockedProfiles.size() != 0)
+			migrateLocked(lockedProfiles, isLoadBalancing);
+		//System.out.println("KVDB " + id + " successfully migrated profiles " + profiles);
+	}
+	
+	/**
+	 * @param profile
+	 * @param kvdb owner of the profile
+	 * @param isLoadBalancing
+	 * @return false if the owner of the profile could not copy it live
+	 */
+	private boolean migrateLive(int profile, KVDBInterface kvdb, boolean isLoadBalancing) {
+		try {
+			if ((kvdb == null) || (kvdb.getKVDBId() == this.id) || (! kvdb.transfuseLiveData(profile, this, isLoadBalancing)))
+				return false;
+		} catch (RemoteException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+			discardMigration(profile);
+			return false;
+		}
+		
+		//the owner left the profile write locked for us, it is released now rather than with the other profiles
+		takeProfile(profile);
+		try {
+			endMigration(monitorMapping.get(profile), this, profile, isLoadBalancing);
+		} catch (RemoteException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+		return true;
+	}
+	
+	/**
+	 * migrate the profiles with their lock held by their monitor during the whole copy. 
+	 * A profile whose copy failed stays on its owner, what was copied here is removed
+	 * @param profiles
+	 * @param isLoadBalancing
+	 */
+	private void migrateLocked(List<Integer> profiles, final boolean isLoadBalancing) {
+		Map<MonitorInterface, List<Integer>> monitorProfiles = groupByMonitor(profiles);
+		
+		//ask migration of the profiles to me
+		final Map<Integer, KVDBInterface> owners = new HashMap<Integer, KVDBInterface>();
+		for (Entry<MonitorInterface, List<Integer>> entry : monitorProfiles.entrySet()) {
 			try {
-				if (kvdb.getKVDBId() == this.id) {
-					//System.out.println(id + " already having profile");
+				owners.putAll(entry.getKey().notifyMigrations(this, entry.getValue(), isLoadBalancing));
+			} catch (RemoteException e) {
+				// TODO Auto-generated catch block
+				e.printStackTrace();
+			}
+		}
+		
+		//begin migration of the profiles to me
+		List<Callable<Boolean>> copies = new ArrayList<Callable<Boolean>>(profiles.size());
+		for (final Integer profile : profiles) {
+			copies.add(new Callable<Boolean>() {
+				@Override
+				public Boolean call() {
+					KVDBInterface kvdb = owners.get(profile);
+					if (kvdb == null)
+						return false;
+					try {
+						if (kvdb.getKVDBId() != id) {
+							//System.out.println("targetServer having " + profile + " = " + kvdb.getKVDBId());
+							kvdb.transfuseData(profile, KVDBImplementation.this);
+							takeProfile(profile);
+						}
+						return true;
+					} catch (RemoteException e) {
+						// TODO Auto-generated catch block
+						e.printStackTrace();
+						discardMigration(profile);
+						return false;
+					}
+				}
+			});
+		}
+		boolean[] isMigrated = executeMigrationTasks(copies);
+		Set<Integer> failedProfiles = new HashSet<Integer>();
+		for (int i = 0; i < profiles.size(); i++) {
+			if (! isMigrated[i])
+				failedProfiles.add(profiles.get(i));
+		}
+		
+		//end migrations, a profile not copied stays routed to its owner
+		for (Entry<MonitorInterface, List<Integer>> entry : monitorProfiles.entrySet()) {
+			List<Integer> migratedProfiles = new ArrayList<Integer>();
+			for (Integer profile : entry.getValue()) {
+				if (! owners.containsKey(profile))
 					continue;
+				if (! failedProfiles.contains(profile)) {
+					migratedProfiles.add(profile);
+					continue;
+				}
+				try {
+					endMigration(entry.getKey(), owners.get(profile), profile, isLoadBalancing);
+				} catch (RemoteException e) {
+					// TODO Auto-generated catch block
+					e.printStackTrace();
 				}
-				//System.out.println("targetServer having " + profile + " = " + kvdb.getKVDBId());
-				kvdb.transfuseData(profile, this);
+			}
+			if (migratedProfiles.size() == 0)
+				continue;
+			try {
+				entry.getKey().notifyEndMigrations(this, migratedProfiles, isLoadBalancing);
 			} catch (RemoteException e) {
 				// TODO Auto-generated catch block
 				e.printStackTrace();
 			}
-			
-			localProfiles.put(profile, profile);
-			localProfilesAccessCount.put(profile, 0);
-			
-			//System.out.println("KVDB " + id + " successfully migrated profile " + profile);
 		}
-		
-		//end migration
+	}
+	
+	private Map<MonitorInterface, List<Integer>> groupByMonitor(List<Integer> profiles) {
+		Map<MonitorInterface, List<Integer>> result = new LinkedHashMap<MonitorInterface, List<Integer>>();
 		for (Integer profile : profiles) {
+			MonitorInterface monitor = monitorMapping.get(profile);
+			if (! result.containsKey(monitor))
+				result.put(monitor, new ArrayList<Integer>());
+			result.get(monitor).add(profile);
+		}
+		return result;
+	}
+	
+	/**
+	 * run the migrations, at most migrationParallelism at once. A lone migration runs in the calling thread.
+	 * The pool is not bounded : a migration waiting for a lock never holds a thread another migration needs
+	 * @param tasks
+	 * @return result of each task, false if it failed
+	 */
+	private boolean[] executeMigrationTasks(List<Callable<Boolean>> tasks) {
+		boolean[] results = new boolean[tasks.size()];
+		if (tasks.size() == 1) {
 			try {
-				if (isLoadBalancing)
-					monitorMapping.get(profile).notifyEndLoadBalanceMigration(this, profile);
-				else
-					monitorMapping.get(profile).notifyEndStandardMigration(this, profile);
-			} catch (RemoteException e) {
+				results[0] = tasks.get(0).call();
+			} catch (Exception e) {
+				// TODO Auto-generated catch block
+				e.printStackTrace();
+			}
+			return results;
+		}
+		
+		CompletionService<Boolean> completionService = new ExecutorCompletionService<Boolean>(migrationWorkers);
+		Map<Future<Boolean>, Integer> indexes = new HashMap<Future<Boolean>, Integer>();
+		int submitted = 0;
+		int done = 0;
+		while (done < tasks.size()) {
+			while ((submitted < tasks.size()) && (submitted - done < migrationParallelism)) {
+				indexes.put(completionService.submit(tasks.get(submitted)), submitted);
+				submitted++;
+			}
+			
+			Future<Boolean> future;
+			try {
+				future = completionService.take();
+			} catch (InterruptedException e) {
+				// the migrations hold locks, they must be waited for anyway
+				e.printStackTrace();
+				continue;
+			}
+			done++;
+			try {
+				results[indexes.get(future)] = future.get();
+			} catch (InterruptedException | ExecutionException e) {
 				// TODO Auto-generated catch block
 				e.printStackTrace();
 			}
 		}
+		return results;
+	}
+	
+	
+	/**
+	 * convert every local profile to the given storage layout. New profiles will also use it.
+	 * profiles are converted by chunks, only the chunk being converted is locked : reads accept both layouts, 
+	 * writes use the layout of the object. A profile being copied elsewhere is not converted, 
+	 * a blocking copy of a profile being converted waits for the end of the conversion
+	 */
+	@Override
+	public void convertStorageMode(StorageMode storageMode) {
+		this.storageMode = storageMode;
+		
+		for (int profile : new ArrayList<Integer>(localProfiles.keySet())) {
+			if ((getStorageMode(profile) == storageMode) && (! profileConversions.containsKey(profile)))
+				continue;
+			
+			//abort() of the marker by a blocking copy returns once the window is released
+			OutgoingMigration conversion = new OutgoingMigration();
+			conversion.window.acquireUninterruptibly(migrationWindow);
+			try {
+				if (localProfiles.containsKey(profile) && (outgoingMigrations.putIfAbsent(profile, conversion) == null)) {
+					try {
+						if (endConversion(profile) && (getStorageMode(profile) != storageMode))
+							convertProfile(profile, new ProfileConversion(storageMode));
+					} finally {
+						outgoingMigrations.remove(profile, conversion);
+					}
+				}
+			} finally {
+				conversion.window.release(migrationWindow);
+			}
+		}
+	}
+	
+	/**
+	 * end the conversion of the profile stopped by a store failure, if there is one
+	 * @param profile
+	 * @return false if it failed again
+	 */
+	private boolean endConversion(int profile) {
+		ProfileConversion conversion = profileConversions.get(profile);
+		return (conversion == null) || convertProfile(profile, conversion);
+	}
+	
+	/**
+	 * rewrite the objects of the profile after the last converted one in the layout of the conversion, 
+	 * by chunks of migrationChunkSize objects. If an object can't be rewritten the conversion stops, 
+	 * the objects keep their layout until it is resumed
+	 * @param profile
+	 * @param conversion
+	 * @return false if the conversion stopped
+	 */
+	private boolean convertProfile(int profile, ProfileConversion conversion) {
+		profileConversions.put(profile, conversion);
+		ProfileObjects profileObjects = new ProfileObjects(profile);
+		profileObjects.lastId = conversion.lastConvertedId;
+		for (ProfileBlock block = profileObjects.nextBlock(migrationChunkSize); block.getObjectCount() != 0; block = profileObjects.nextBlock(migrationChunkSize)) {
+			if (! convertBlock(profile, block, conversion)) {
+				System.err.println("KVDB " + id + " could not convert profile " + profile + " after object " + conversion.lastConvertedId);
+				return false;
+			}
+		}
+		
+		Lock lock = getProfileLock(profile).writeLock();
+		lock.lock();
+		try {
+			profileStorageModes.put(profile, conversion.storageMode);
+			profileConversions.remove(profile);
+		} finally {
+			lock.unlock();
+		}
+		return true;
+	}
+	
+	/**
+	 * rewrite the objects of the block, one transaction per object. The profile is write locked during the chunk
+	 * @return false if an object could not be rewritten
+	 */
+	private boolean convertBlock(int profile, ProfileBlock block, ProfileConversion conversion) {
+		String lastId = block.getObjectId(block.getObjectCount() - 1);
+		Lock lock = getProfileLock(profile).writeLock();
+		lock.lock();
+		try {
+			//objects written or created since the block was read are read again
+			ProfileBlock objects = getObjectsBlock(profile, new StorageRange(conversion.lastConvertedId, false, lastId, true));
+			Integer group = profileGroups.get(profile);
+			for (int object = 0; object < objects.getObjectCount(); object++) {
+				//deleted since the block was read, or already in the right layout
+				if ((objects.getKeyCount(object) != 0) && (isRecord(objects, object) != (conversion.storageMode == StorageMode.RECORD))) {
+					Data data = decodeObject(profile, objects, object);
+					List<StorageOperation> operations = new ArrayList<StorageOperation>();
+					StorageKey recordKey = keyBuilder.getRecordKey(group, profile, data.getId());
+					for (int key = 0; key < objects.getKeyCount(object); key++) {
+						List<String> minorPath = new ArrayList<String>(recordKey.getMinorPath());
+						minorPath.addAll(objects.getKeySuffix(object, key));
+						operations.add(StorageOperation.createDelete(StorageKey.createKey(recordKey.getMajorPath(), minorPath)));
+					}
+					operations.addAll(getAddDataTransaction(data, conversion.storageMode));
+					
+					List<Integer> operationSizes = new ArrayList<Integer>();
+					operationSizes.add(operations.size());
+					if (! internalExecute(operations, operationSizes).get(0).isSuccess())
+						return false;
+					//the rewritten keys got new versions
+					objectCache.invalidate(ObjectCache.getKey(profile, data.getId()));
+				}
+				conversion.lastConvertedId = objects.getObjectId(object);
+			}
+			conversion.lastConvertedId = lastId;
+			return true;
+		} finally {
+			lock.unlock();
+		}
 	}
 	
 	
+	@Override
+	public CacheStatistics getCacheStatistics() {
+		return objectCache.getStatistics();
+	}
+	
+	@Override
+	public RetryStatistics getRetryStatistics() {
+		return retryPolicy.getStatistics();
+	}
+	
+	@Override
+	public List<MigrationCodec> getMigrationCodecs() {
+		return new ArrayList<MigrationCodec>(migrationCodecs);
+	}
+	
+	@Override
+	public List<MigrationStatistics> getMigrationStatistics() {
+		synchronized (migrationStatistics) {
+			return new ArrayList<MigrationStatistics>(migrationStatistics);
+		}
+	}
+	
+	
+	/**
+	 * a monitor moves here profiles transacted with local profiles, before a transaction has to.
+	 * they are migrated as a load balancing migration : their lock isn't held by a transaction of ours
+	 * @param profiles
+	 */
+	@Override
+	public void acquireProfiles(List<Integer> profiles) {
+		List<Integer> missingProfiles = new ArrayList<Integer>();
+		for (Integer profile : profiles) {
+			if (! localProfiles.containsKey(profile))
+				missingProfiles.add(profile);
+		}
+		if (missingProfiles.size() != 0)
+			migrate(missingProfiles, true);
+	}
+	
 	@Override
 	public void startLoadBalance() {
 		loadBalancer = new Thread(new Runnable() {
@@ -806,13 +3144,17 @@ public class KVDBImplementation extends UnicastRemoteObject implements KVDBInter
 	public void printDB() {
         //foreach profile
 		for (Integer profile : localProfiles.keySet()) {
-			SortedMap<Key,ValueVersion> profileObjects = store.multiGet(Key.createKey(profile + ""), null, null);
+			StorageKey parentKey = keyBuilder.getProfileParentKey(profileGroups.get(profile), profile);
+			SortedMap<StorageKey,StoredValue> profileObjects = store.multiGet(parentKey, null);
 			
-			for (Entry<Key, ValueVersion> profileObject : profileObjects.entrySet()) {
-				ValueVersion valueVersion = profileObject.getValue();
-				Key key = profileObject.getKey();
+			for (Entry<StorageKey, StoredValue> profileObject : profileObjects.entrySet()) {
+				StoredValue valueVersion = profileObject.getValue();
+				StorageKey key = profileObject.getKey();
 				
-				System.out.println("id = " + id + " clé = " + key + ", valeur = " + new String(valueVersion.getValue().getValue()));
+				if (key.getMinorPath().size() == parentKey.getMinorPath().size() + 1)
+					System.out.println("id = " + id + " clé = " + key + ", valeur = " + RecordCodec.decode(valueVersion.getValue(), new Data()));
+				else
+					System.out.println("id = " + id + " clé = " + key + ", valeur = " + new String(valueVersion.getValue()));
 			}
 		}
     }
@@ -821,9 +3163,15 @@ public class KVDBImplementation extends UnicastRemoteObject implements KVDBInter
 	public void closeDB() {
 		System.out.println(" * * * * *  * * KVDB " + id + " profiles at the end was " + localProfiles);
 		/*for (Integer profile : this.profiles) {
-			store.multiDelete(Key.createKey("" + profile), null, null);
+			store.multiDelete(StorageKey.createKey("" + profile), null, null);
 		}*/
 		runLoadBalancer = false;
+		runRegrouper = false;
+		regrouper.interrupt();
+		workers.shutdown();
+		asyncWorkers.shutdown();
+		migrationSenders.shutdown();
+		migrationWorkers.shutdown();
 		if (loadBalancer != null) {
 			try {
 				loadBalancer.join();
@@ -836,6 +3184,25 @@ public class KVDBImplementation extends UnicastRemoteObject implements KVDBInter
 	}
 	
 
+	/**
+	 * named daemon threads, pools of the KVDB must not keep the JVM alive
+	 */
+	private static class DaemonThreadFactory implements ThreadFactory {
+		private String name;
+		
+		private DaemonThreadFactory(String name) {
+			this.name = name;
+		}
+		
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, name);
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+	
+	
 	@Override
 	public int hashCode() {
 		final int prime = 31;
@@ -8,6 +8,7 @@ import java.util.Map;
 import monitor.MonitorInterface;
 import transaction.Operation;
 import transaction.OperationResult;
+import transaction.ReadOperation;
 
 public interface KVDBInterface extends Remote {
 	
@@ -15,18 +16,62 @@ public interface KVDBInterface extends Remote {
 	//accept user transactions
 	List<OperationResult> executeOperations(List<Operation> operations) throws RemoteException;
 	
+	//asynchronous transaction, results are given back with replyTo.deliverResults(ticket, results)
+	void submitOperations(long ticket, List<Operation> operations, MonitorInterface replyTo) throws RemoteException;
+	
+	//accept non atomic batches, each profile is a transaction, results are in submission order
+	List<OperationResult> executeIndependentOperations(List<Operation> operations) throws RemoteException;
+	
+	//many reads at once, objects of a profile are read together, results are in submission order
+	List<OperationResult> executeReads(List<ReadOperation> reads) throws RemoteException;
+	
+	//reads of profiles not locked by the monitor, the result of a read is null if its profile is not here
+	List<OperationResult> executeSnapshotReads(List<ReadOperation> reads) throws RemoteException;
+	
+	//transactions ordered by a deterministic monitor, applied in that order without per transaction locks.
+	//the results of a transaction are null if one of its profiles is not here
+	List<List<OperationResult>> executeSequencedBatch(List<List<Operation>> transactions) throws RemoteException;
+
 	void executeMigrationOperations(List<Operation> operations) throws RemoteException;
 	
+	//objects of a migrated profile packed in a ProfileBlock, written as they were stored on the source
+	void executeMigrationBlock(int profile, StorageMode storageMode, byte[] block, boolean replaceObjects) throws RemoteException;
+	
 	int getKVDBId() throws RemoteException;
 	
 	void transfuseData(int profile, KVDBInterface target) throws RemoteException;
 	
+	//copy the profile to target while serving it, then write lock it for the end of the copy.
+	//false if the profile could not be copied this way, it is not locked
+	boolean transfuseLiveData(int profile, KVDBInterface target, boolean isLoadBalancing) throws RemoteException;
+	
+	//remove what a copy which did not end wrote here
+	void discardMigration(int profile) throws RemoteException;
+	
 	void startLoadBalance() throws RemoteException;
 	
+	//migrate here, as for load balancing, profiles a monitor places with the ones they are transacted with
+	void acquireProfiles(List<Integer> profiles) throws RemoteException;
+	
 	void closeDB() throws RemoteException;
 	
 	void printDB() throws RemoteException;
 	
+	//rewrite local profiles with the given storage layout
+	void convertStorageMode(StorageMode storageMode) throws RemoteException;
+	
+	//hits, evictions and size of the object cache
+	CacheStatistics getCacheStatistics() throws RemoteException;
+	
+	//store faults, retries and batches given up
+	RetryStatistics getRetryStatistics() throws RemoteException;
+	
+	//compressions of migration blocks this KVDB can decode
+	List<MigrationCodec> getMigrationCodecs() throws RemoteException;
+	
+	//size, compression and duration of the last migrations sent from this KVDB
+	List<MigrationStatistics> getMigrationStatistics() throws RemoteException;
+	
 	/************************/
 	void setLeftKVDB(KVDBInterface kvdbLeft) throws RemoteException;
 	void setRightKVDB(KVDBInterface kvdbRight) throws RemoteException;
@@ -0,0 +1,110 @@
+package db;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import storage.StorageKey;
+
+/**
+ * Builds the keys of objects, major keys of profiles and of groups are cached
+ * and attribute components are built once, so the keys of an object only cost the 
+ * id string and the key objects
+ * 
+ * 	- profile layout : profile / id / attribute, or profile / id for records
+ * 	- group layout : g + group / profile / id / attribute, or g + group / profile / id for records
+ * 
+ * group is null for profiles stored under their own major key
+ * 
+ * @author 2600705
+ *
+ */
+public class KeyBuilder {
+	private static final String GROUP_PREFIX = "g";
+	
+	private final String[] attributeComponents;
+	private final Map<Integer, StorageKey> profileKeys = new ConcurrentHashMap<Integer, StorageKey>();
+	private final Map<Integer, StorageKey> groupKeys = new ConcurrentHashMap<Integer, StorageKey>();
+	
+	
+	public KeyBuilder(int nbAttributes) {
+		attributeComponents = new String[nbAttributes];
+		for (int i = 0; i < nbAttributes; i++)
+			attributeComponents[i] = Integer.toString(i);
+	}
+	
+	
+	public StorageKey getProfileKey(int profile) {
+		StorageKey key = profileKeys.get(profile);
+		if (key == null) {
+			key = StorageKey.createKey(Integer.toString(profile));
+			profileKeys.put(profile, key);
+		}
+		
+		return key;
+	}
+	
+	/**
+	 * major key shared by the profiles of a group
+	 * @param group
+	 * @return
+	 */
+	public StorageKey getGroupKey(int group) {
+		StorageKey key = groupKeys.get(group);
+		if (key == null) {
+			key = StorageKey.createKey(GROUP_PREFIX + group);
+			groupKeys.put(group, key);
+		}
+		
+		return key;
+	}
+	
+	/**
+	 * parent of every object of the profile, objects are at the same depth below it whatever the group
+	 * @param group
+	 * @param profile
+	 * @return
+	 */
+	public StorageKey getProfileParentKey(Integer group, int profile) {
+		if (group == null)
+			return getProfileKey(profile);
+		return getGroupKey(group).createChildKey(getProfileComponent(profile));
+	}
+	
+	
+	public StorageKey getRecordKey(Integer group, int profile, int id) {
+		if (group == null)
+			return getProfileKey(profile).createChildKey(Integer.toString(id));
+		return getGroupKey(group).createChildKey(getProfileComponent(profile), Integer.toString(id));
+	}
+	
+	/**
+	 * keys of every attribute of an object
+	 * @param group
+	 * @param profile
+	 * @param id
+	 * @return
+	 */
+	public StorageKey[] getAttributeKeys(Integer group, int profile, int id) {
+		String idComponent = Integer.toString(id);
+		StorageKey[] keys = new StorageKey[attributeComponents.length];
+		
+		if (group == null) {
+			StorageKey profileKey = getProfileKey(profile);
+			for (int i = 0; i < keys.length; i++)
+				keys[i] = profileKey.createChildKey(idComponent, attributeComponents[i]);
+		}
+		else {
+			StorageKey groupKey = getGroupKey(group);
+			String profileComponent = getProfileComponent(profile);
+			for (int i = 0; i < keys.length; i++)
+				keys[i] = groupKey.createChildKey(profileComponent, idComponent, attributeComponents[i]);
+		}
+		
+		return keys;
+	}
+	
+	
+	private String getProfileComponent(int profile) {
+		return getProfileKey(profile).getMajorPath().get(0);
+	}
+}
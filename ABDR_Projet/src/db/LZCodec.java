@@ -0,0 +1,108 @@
+package db;
+
+import java.util.Arrays;
+
+/**
+ * Fast LZ77 compression of migration blocks : repeated sequences (keys, "test0".."test4" strings, small ints) 
+ * are replaced by a reference to their previous occurrence. No entropy coding, so it costs little CPU
+ *
+ * format : length | (nbLiterals | literal* | matchLength | offset)* | nbLiterals | literal* | 0
+ * 	- lengths and offsets are varints, a match copies matchLength bytes from offset bytes before
+ * 	- matches are found with a hash table of the last position of each 4 bytes sequence
+ *
+ * @author 2600705
+ *
+ */
+public final class LZCodec {
+	private static final int MIN_MATCH = 4;
+	private static final int HASH_BITS = 14;
+	private static final int MAX_OFFSET = 1 << 16;
+
+	private LZCodec() {}
+
+
+	public static byte[] compress(byte[] input) {
+		int[] lastPositions = new int[1 << HASH_BITS];
+		Arrays.fill(lastPositions, -1);
+		//worst case : a sequence of a few literals and a small match costs more than the match
+		byte[] buffer = new byte[16 + input.length + (input.length / MIN_MATCH + 1) * 15];
+		int position = RecordCodec.writeVarInt(buffer, 0, input.length);
+
+		int anchor = 0;
+		int i = 0;
+		while (i + MIN_MATCH <= input.length) {
+			int hash = hash(input, i);
+			int candidate = lastPositions[hash];
+			lastPositions[hash] = i;
+			if ((candidate < 0) || (i - candidate > MAX_OFFSET) || (! isSame(input, candidate, i, MIN_MATCH))) {
+				i++;
+				continue;
+			}
+
+			int length = MIN_MATCH;
+			while ((i + length < input.length) && (input[candidate + length] == input[i + length]))
+				length++;
+
+			position = writeLiterals(buffer, position, input, anchor, i);
+			position = RecordCodec.writeVarInt(buffer, position, length);
+			position = RecordCodec.writeVarInt(buffer, position, i - candidate);
+			i += length;
+			anchor = i;
+		}
+
+		position = writeLiterals(buffer, position, input, anchor, input.length);
+		position = RecordCodec.writeVarInt(buffer, position, 0);
+		return Arrays.copyOf(buffer, position);
+	}
+
+	public static byte[] decompress(byte[] compressed) {
+		int[] position = new int[] {0};
+		byte[] output = new byte[RecordCodec.readVarInt(compressed, position)];
+		int outputPosition = 0;
+
+		while (true) {
+			int nbLiterals = RecordCodec.readVarInt(compressed, position);
+			if ((nbLiterals < 0) || (outputPosition + nbLiterals > output.length) || (position[0] + nbLiterals > compressed.length))
+				throw new IllegalArgumentException("malformed lz block");
+			System.arraycopy(compressed, position[0], output, outputPosition, nbLiterals);
+			position[0] += nbLiterals;
+			outputPosition += nbLiterals;
+
+			int length = RecordCodec.readVarInt(compressed, position);
+			if (length == 0)
+				break;
+			int offset = RecordCodec.readVarInt(compressed, position);
+			if ((length < 0) || (offset <= 0) || (offset > outputPosition) || (outputPosition + length > output.length))
+				throw new IllegalArgumentException("malformed lz block");
+
+			//byte by byte, a match can overlap the bytes it writes
+			for (int j = 0; j < length; j++, outputPosition++)
+				output[outputPosition] = output[outputPosition - offset];
+		}
+
+		if (outputPosition != output.length)
+			throw new IllegalArgumentException("malformed lz block");
+		return output;
+	}
+
+
+	private static int writeLiterals(byte[] buffer, int position, byte[] input, int start, int end) {
+		position = RecordCodec.writeVarInt(buffer, position, end - start);
+		System.arraycopy(input, start, buffer, position, end - start);
+		return position + end - start;
+	}
+
+	private static int hash(byte[] input, int position) {
+		int sequence = (input[position] & 0xFF) | ((input[position + 1] & 0xFF) << 8) 
+				| ((input[position + 2] & 0xFF) << 16) | ((input[position + 3] & 0xFF) << 24);
+		return (sequence * -1640531535) >>> (32 - HASH_BITS);
+	}
+
+	private static boolean isSame(byte[] input, int first, int second, int length) {
+		for (int i = 0; i < length; i++) {
+			if (input[first + i] != input[second + i])
+				return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,51 @@
+package db;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compression of the blocks sent during a migration. The source uses the first codec of its preferences
+ * which the target can decode
+ *
+ * 	- NONE : the block as it is
+ * 	- LZ : compressed by LZCodec
+ *
+ * payload : ordinal of the codec | block encoded by the codec
+ *
+ * @author 2600705
+ *
+ */
+public enum MigrationCodec {
+	NONE,
+	LZ;
+
+
+	public byte[] encode(byte[] block) {
+		byte[] encoded = (this == LZ) ? LZCodec.compress(block) : block;
+		byte[] payload = new byte[encoded.length + 1];
+		payload[0] = (byte) ordinal();
+		System.arraycopy(encoded, 0, payload, 1, encoded.length);
+		return payload;
+	}
+
+	public static byte[] decode(byte[] payload) {
+		if ((payload.length == 0) || (payload[0] < 0) || (payload[0] >= values().length))
+			throw new IllegalArgumentException("unknown migration codec");
+
+		byte[] encoded = Arrays.copyOfRange(payload, 1, payload.length);
+		return (values()[payload[0]] == LZ) ? LZCodec.decompress(encoded) : encoded;
+	}
+
+	/**
+	 * @param preferred codecs of the source, by preference
+	 * @param supported codecs of the target
+	 * @return the first preferred codec supported, NONE if there is none
+	 */
+	public static MigrationCodec negotiate(List<MigrationCodec> preferred, List<MigrationCodec> supported) {
+		for (MigrationCodec codec : preferred) {
+			if (supported.contains(codec))
+				return codec;
+		}
+		return NONE;
+	}
+}
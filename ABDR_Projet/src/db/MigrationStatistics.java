@@ -0,0 +1,86 @@
+package db;
+
+import java.io.Serializable;
+
+/**
+ * What a profile migration sent from its source KVDB
+ * @author 2600705
+ *
+ */
+public class MigrationStatistics implements Serializable {
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 1L;
+	private int profile;
+	private int targetId;
+	private MigrationCodec codec;
+	private boolean isLive;
+	private long objects;
+	private long rawBytes;
+	private long sentBytes;
+	private long duration;
+	
+	public MigrationStatistics(int profile, int targetId, MigrationCodec codec, boolean isLive, long objects, long rawBytes, long sentBytes, long duration) {
+		this.profile = profile;
+		this.targetId = targetId;
+		this.codec = codec;
+		this.isLive = isLive;
+		this.objects = objects;
+		this.rawBytes = rawBytes;
+		this.sentBytes = sentBytes;
+		this.duration = duration;
+	}
+	
+	
+	public int getProfile() {
+		return profile;
+	}
+
+	public int getTargetId() {
+		return targetId;
+	}
+
+	public MigrationCodec getCodec() {
+		return codec;
+	}
+
+	//copied while the profile was still used on the source
+	public boolean isLive() {
+		return isLive;
+	}
+
+	//objects sent, the objects written during a live copy are counted twice
+	public long getObjects() {
+		return objects;
+	}
+
+	//size of the blocks before compression
+	public long getRawBytes() {
+		return rawBytes;
+	}
+
+	public long getSentBytes() {
+		return sentBytes;
+	}
+
+	//ms from the beginning of the copy to the release of the profile
+	public long getDuration() {
+		return duration;
+	}
+
+	public double getCompressionRatio() {
+		return (sentBytes == 0) ? 1 : (double) rawBytes / sentBytes;
+	}
+
+	//raw bytes per second
+	public double getThroughput() {
+		return (duration == 0) ? rawBytes * 1000.0 : rawBytes * 1000.0 / duration;
+	}
+
+	@Override
+	public String toString() {
+		return "MigrationStatistics [profile=" + profile + ", targetId=" + targetId + ", codec=" + codec + ", isLive=" + isLive
+				+ ", objects=" + objects + ", rawBytes=" + rawBytes + ", sentBytes=" + sentBytes + ", duration=" + duration + "]";
+	}
+}
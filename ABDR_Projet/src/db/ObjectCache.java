@@ -0,0 +1,296 @@
+package db;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of the objects of a KVDB, objects are kept encoded as records (RecordCodec) so they
+ * are compact and can't be modified by callers.
+ * 
+ * eviction is W-TinyLFU :
+ * 	- new objects enter a small LRU window (1% of the capacity)
+ * 	- objects leaving the window go to the main space (segmented LRU : probation then protected once 
+ * 		read again) only if they are more frequent than the probation victim
+ * 	- frequencies are estimated by a count-min sketch which is halved periodically, so old popularity fades
+ * 
+ * A read must take a stamp before reading the store and give it back to put : the object is not cached
+ * if it was invalidated by a write since, so a slow read can't cache a value older than a write
+ * 
+ * @author 2600705
+ *
+ */
+public class ObjectCache {
+	private static final int ENTRY_OVERHEAD = 96;
+	private static final int NB_STRIPES = 1024;
+	
+	private final int windowCapacity;
+	private final int protectedCapacity;
+	private final int mainCapacity;
+	//access ordered, eldest entry first
+	private final LinkedHashMap<Long, CachedObject> window = new LinkedHashMap<Long, CachedObject>(16, 0.75f, true);
+	private final LinkedHashMap<Long, CachedObject> probation = new LinkedHashMap<Long, CachedObject>(16, 0.75f, true);
+	private final LinkedHashMap<Long, CachedObject> protectedSpace = new LinkedHashMap<Long, CachedObject>(16, 0.75f, true);
+	private final FrequencySketch sketch;
+	
+	//stamp of the last invalidation of the keys of each stripe
+	private final long[] invalidations = new long[NB_STRIPES];
+	private long stamp = 0;
+	
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+	private long bytes = 0;
+	
+	
+	public ObjectCache(int capacity) {
+		windowCapacity = Math.max(1, capacity / 100);
+		mainCapacity = Math.max(1, capacity - windowCapacity);
+		protectedCapacity = (int) (mainCapacity * 0.8);
+		sketch = new FrequencySketch(capacity);
+	}
+	
+	
+	public static long getKey(int profile, int id) {
+		return ((long) profile << 32) | (id & 0xFFFFFFFFL);
+	}
+	
+	
+	/**
+	 * record of the object, null if not cached
+	 * @param key
+	 * @return
+	 */
+	public byte[] get(long key) {
+		CachedObject object = getObject(key);
+		return (object == null) ? null : object.getRecord();
+	}
+	
+	/**
+	 * record and version of the object, null if not cached
+	 * @param key
+	 * @return
+	 */
+	public synchronized CachedObject getObject(long key) {
+		sketch.increment(key);
+		
+		CachedObject value = window.get(key);
+		if (value == null) {
+			value = protectedSpace.get(key);
+		}
+		if (value == null) {
+			value = probation.remove(key);
+			if (value != null)
+				promote(key, value);
+		}
+		
+		if (value == null)
+			misses++;
+		else
+			hits++;
+		return value;
+	}
+	
+	/**
+	 * stamp to give to put after reading the store
+	 * @return
+	 */
+	public synchronized long getStamp() {
+		return stamp;
+	}
+	
+	/**
+	 * cache the record of an object read from the store, unless it was invalidated since stamp
+	 * @param key
+	 * @param record
+	 * @param readStamp
+	 */
+	public void put(long key, byte[] record, long readStamp) {
+		put(key, new CachedObject(record, null), readStamp);
+	}
+	
+	/**
+	 * cache an object read from the store, unless it was invalidated since stamp
+	 * @param key
+	 * @param value
+	 * @param readStamp
+	 */
+	public synchronized void put(long key, CachedObject value, long readStamp) {
+		if (invalidations[getStripe(key)] > readStamp)
+			return;
+		
+		if (replace(window, key, value) || replace(probation, key, value) || replace(protectedSpace, key, value))
+			return;
+		
+		window.put(key, value);
+		bytes += size(value);
+		if (window.size() > windowCapacity)
+			admit();
+	}
+	
+	public synchronized void invalidate(long key) {
+		invalidations[getStripe(key)] = ++stamp;
+		removeEntry(window, key);
+		removeEntry(probation, key);
+		removeEntry(protectedSpace, key);
+	}
+	
+	/**
+	 * drop every object of a profile (ex : the profile left the KVDB)
+	 * @param profile
+	 */
+	public synchronized void invalidateProfile(int profile) {
+		stamp++;
+		for (int i = 0; i < NB_STRIPES; i++)
+			invalidations[i] = stamp;
+		removeProfile(window, profile);
+		removeProfile(probation, profile);
+		removeProfile(protectedSpace, profile);
+	}
+	
+	public synchronized CacheStatistics getStatistics() {
+		return new CacheStatistics(hits, misses, evictions, window.size() + probation.size() + protectedSpace.size(), bytes);
+	}
+	
+	
+	/**
+	 * the eldest object of the window goes to probation if it is more frequent than the probation victim
+	 */
+	private void admit() {
+		Iterator<Map.Entry<Long, CachedObject>> windowIterator = window.entrySet().iterator();
+		Map.Entry<Long, CachedObject> candidate = windowIterator.next();
+		windowIterator.remove();
+		
+		if (probation.size() + protectedSpace.size() < mainCapacity) {
+			probation.put(candidate.getKey(), candidate.getValue());
+			return;
+		}
+		
+		Iterator<Map.Entry<Long, CachedObject>> probationIterator = probation.entrySet().iterator();
+		if (! probationIterator.hasNext()) {
+			//everything is protected, demote the eldest protected object to compare with it
+			demote();
+			probationIterator = probation.entrySet().iterator();
+		}
+		Map.Entry<Long, CachedObject> victim = probationIterator.next();
+		
+		if (sketch.frequency(candidate.getKey()) > sketch.frequency(victim.getKey())) {
+			probationIterator.remove();
+			bytes -= size(victim.getValue());
+			probation.put(candidate.getKey(), candidate.getValue());
+		}
+		else {
+			bytes -= size(candidate.getValue());
+		}
+		evictions++;
+	}
+	
+	private void promote(long key, CachedObject value) {
+		protectedSpace.put(key, value);
+		if (protectedSpace.size() > protectedCapacity)
+			demote();
+	}
+	
+	private void demote() {
+		Iterator<Map.Entry<Long, CachedObject>> protectedIterator = protectedSpace.entrySet().iterator();
+		Map.Entry<Long, CachedObject> eldest = protectedIterator.next();
+		protectedIterator.remove();
+		probation.put(eldest.getKey(), eldest.getValue());
+	}
+	
+	private boolean replace(LinkedHashMap<Long, CachedObject> space, long key, CachedObject value) {
+		CachedObject oldValue = space.get(key);
+		if (oldValue == null)
+			return false;
+		
+		space.put(key, value);
+		bytes += size(value) - size(oldValue);
+		return true;
+	}
+	
+	private void removeEntry(LinkedHashMap<Long, CachedObject> space, long key) {
+		CachedObject oldValue = space.remove(key);
+		if (oldValue != null)
+			bytes -= size(oldValue);
+	}
+	
+	private void removeProfile(LinkedHashMap<Long, CachedObject> space, int profile) {
+		Iterator<Map.Entry<Long, CachedObject>> iterator = space.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<Long, CachedObject> entry = iterator.next();
+			if ((int) (entry.getKey() >> 32) == profile) {
+				bytes -= size(entry.getValue());
+				iterator.remove();
+			}
+		}
+	}
+	
+	private static int getStripe(long key) {
+		return (int) (mix(key) & (NB_STRIPES - 1));
+	}
+	
+	private static long size(CachedObject value) {
+		return value.getSize() + ENTRY_OVERHEAD;
+	}
+	
+	private static long mix(long key) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return key;
+	}
+	
+	
+	/**
+	 * count-min sketch of 4 rows of 4 bits counters, halved every 10 * capacity increments
+	 */
+	private static class FrequencySketch {
+		private static final int NB_ROWS = 4;
+		private final byte[][] rows;
+		private final int mask;
+		private final int sampleSize;
+		private int nbIncrements = 0;
+		
+		private FrequencySketch(int capacity) {
+			//4 counters per cached object so the estimations of rare objects stay low
+			int width = Integer.highestOneBit(4 * Math.max(16, capacity) - 1) << 1;
+			rows = new byte[NB_ROWS][width];
+			mask = width - 1;
+			sampleSize = 10 * Math.max(16, capacity);
+		}
+		
+		private void increment(long key) {
+			long hash = mix(key);
+			boolean isIncremented = false;
+			for (int i = 0; i < NB_ROWS; i++) {
+				int index = getIndex(hash, i);
+				if (rows[i][index] < 15) {
+					rows[i][index]++;
+					isIncremented = true;
+				}
+			}
+			
+			if (isIncremented && (++nbIncrements == sampleSize)) {
+				for (byte[] row : rows) {
+					for (int j = 0; j < row.length; j++)
+						row[j] >>= 1;
+				}
+				nbIncrements /= 2;
+			}
+		}
+		
+		private int frequency(long key) {
+			long hash = mix(key);
+			int frequency = 15;
+			for (int i = 0; i < NB_ROWS; i++)
+				frequency = Math.min(frequency, rows[i][getIndex(hash, i)]);
+			return frequency;
+		}
+		
+		private int getIndex(long hash, int row) {
+			return (int) (hash >>> (row * 16)) & mask;
+		}
+	}
+}
@@ -0,0 +1,140 @@
+package db;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Objects of a profile as they are stored (keys below the object and value bytes),
+ * so a migration copies them without decoding and encoding them
+ *
+ * format : tag | nbObjects | (id | nbKeys | (nbComponents | component* | value)*)*
+ * 	- counts are varints, id, components and values are varint length | bytes
+ * 	- components are the minor path below the id : none for a RECORD object, the attribute for ATTRIBUTES
+ * 	- an object without keys doesn't exist anymore
+ *
+ * @author 2600705
+ *
+ */
+public final class ProfileBlock {
+	public static final byte BLOCK_TAG = 2;
+
+	private List<String> objectIds = new ArrayList<String>();
+	//index of the first key of each object
+	private List<Integer> objectStarts = new ArrayList<Integer>();
+	private List<List<String>> keySuffixes = new ArrayList<List<String>>();
+	private List<byte[]> values = new ArrayList<byte[]>();
+
+
+	/**
+	 * next keys are below this object
+	 * @param objectId
+	 */
+	public void addObject(String objectId) {
+		objectIds.add(objectId);
+		objectStarts.add(values.size());
+	}
+
+	/**
+	 * @param keySuffix minor path below the id of the last object added
+	 * @param value
+	 */
+	public void addKey(List<String> keySuffix, byte[] value) {
+		keySuffixes.add(keySuffix);
+		values.add(value);
+	}
+
+	public int getObjectCount() {
+		return objectIds.size();
+	}
+
+	public String getObjectId(int object) {
+		return objectIds.get(object);
+	}
+
+	public int getKeyCount(int object) {
+		int end = (object + 1 < objectStarts.size()) ? objectStarts.get(object + 1) : values.size();
+		return end - objectStarts.get(object);
+	}
+
+	public List<String> getKeySuffix(int object, int key) {
+		return keySuffixes.get(objectStarts.get(object) + key);
+	}
+
+	public byte[] getValue(int object, int key) {
+		return values.get(objectStarts.get(object) + key);
+	}
+
+
+	public byte[] encode() {
+		List<byte[]> ids = new ArrayList<byte[]>(objectIds.size());
+		int size = 1 + 5;
+		for (String objectId : objectIds) {
+			ids.add(objectId.getBytes(StandardCharsets.UTF_8));
+			size += 5 + ids.get(ids.size() - 1).length + 5;
+		}
+		List<byte[]> components = new ArrayList<byte[]>();
+		for (int i = 0; i < values.size(); i++) {
+			size += 5 + 5 + values.get(i).length;
+			for (String component : keySuffixes.get(i)) {
+				components.add(component.getBytes(StandardCharsets.UTF_8));
+				size += 5 + components.get(components.size() - 1).length;
+			}
+		}
+
+		byte[] buffer = new byte[size];
+		int position = 0;
+		buffer[position++] = BLOCK_TAG;
+		position = RecordCodec.writeVarInt(buffer, position, objectIds.size());
+		int component = 0;
+		for (int object = 0; object < objectIds.size(); object++) {
+			position = writeBytes(buffer, position, ids.get(object));
+			position = RecordCodec.writeVarInt(buffer, position, getKeyCount(object));
+			for (int key = 0; key < getKeyCount(object); key++) {
+				position = RecordCodec.writeVarInt(buffer, position, getKeySuffix(object, key).size());
+				for (int i = 0; i < getKeySuffix(object, key).size(); i++)
+					position = writeBytes(buffer, position, components.get(component++));
+				position = writeBytes(buffer, position, getValue(object, key));
+			}
+		}
+
+		return Arrays.copyOf(buffer, position);
+	}
+
+	public static ProfileBlock decode(byte[] block) {
+		if ((block.length == 0) || (block[0] != BLOCK_TAG))
+			throw new IllegalArgumentException("not a profile block");
+
+		ProfileBlock result = new ProfileBlock();
+		int[] position = new int[] {1};
+		int nbObjects = RecordCodec.readVarInt(block, position);
+		for (int object = 0; object < nbObjects; object++) {
+			result.addObject(new String(readBytes(block, position), StandardCharsets.UTF_8));
+			int nbKeys = RecordCodec.readVarInt(block, position);
+			for (int key = 0; key < nbKeys; key++) {
+				int nbComponents = RecordCodec.readVarInt(block, position);
+				List<String> keySuffix = new ArrayList<String>(nbComponents);
+				for (int i = 0; i < nbComponents; i++)
+					keySuffix.add(new String(readBytes(block, position), StandardCharsets.UTF_8));
+				result.addKey(keySuffix, readBytes(block, position));
+			}
+		}
+
+		return result;
+	}
+
+
+	private static int writeBytes(byte[] buffer, int position, byte[] bytes) {
+		position = RecordCodec.writeVarInt(buffer, position, bytes.length);
+		System.arraycopy(bytes, 0, buffer, position, bytes.length);
+		return position + bytes.length;
+	}
+
+	private static byte[] readBytes(byte[] buffer, int[] position) {
+		int length = RecordCodec.readVarInt(buffer, position);
+		byte[] bytes = Arrays.copyOfRange(buffer, position[0], position[0] + length);
+		position[0] += length;
+		return bytes;
+	}
+}
@@ -0,0 +1,148 @@
+package db;
+
+import java.util.Arrays;
+
+import transaction.Data;
+
+/**
+ * Binary encoding of a whole Data object into a single value (RECORD storage mode)
+ *
+ * format : tag | nbInt | int* | nbString | (length | utf-8 bytes)*
+ * 	- ints and lengths are varints, ints are zigzag encoded so small negative values stay small
+ * 	- decoded strings are slices of the record, they are only built if they are read
+ *
+ * @author 2600705
+ *
+ */
+public final class RecordCodec {
+	public static final byte RECORD_TAG = 1;
+
+	private RecordCodec() {}
+
+
+	/**
+	 * encode ints and strings of data into a record value
+	 * @param data
+	 * @return
+	 */
+	public static byte[] encode(Data data) {
+		byte[][] strings = new byte[data.getStringCount()][];
+		int size = 1 + 5 + 5;
+
+		size += 5 * data.getNumberCount();
+		for (int i = 0; i < strings.length; i++) {
+			strings[i] = data.getStringBytes(i);
+			size += 5 + strings[i].length;
+		}
+
+		byte[] buffer = new byte[size];
+		int position = 0;
+		buffer[position++] = RECORD_TAG;
+
+		position = writeVarInt(buffer, position, data.getNumberCount());
+		for (int i = 0; i < data.getNumberCount(); i++) {
+			int number = data.getNumber(i);
+			position = writeVarInt(buffer, position, (number << 1) ^ (number >> 31));
+		}
+
+		position = writeVarInt(buffer, position, strings.length);
+		for (byte[] string : strings) {
+			position = writeVarInt(buffer, position, string.length);
+			System.arraycopy(string, 0, buffer, position, string.length);
+			position += string.length;
+		}
+
+		return Arrays.copyOf(buffer, position);
+	}
+
+	/**
+	 * decode a record value into data (id and category are left untouched)
+	 * @param record
+	 * @param data
+	 * @return data
+	 */
+	public static Data decode(byte[] record, Data data) {
+		if ((record.length == 0) || (record[0] != RECORD_TAG))
+			throw new IllegalArgumentException("not a record value");
+
+		int[] position = new int[] {1};
+
+		int nbInt = readVarInt(record, position);
+		for (int i = 0; i < nbInt; i++) {
+			int zigzag = readVarInt(record, position);
+			data.addNumber((zigzag >>> 1) ^ -(zigzag & 1));
+		}
+
+		int nbString = readVarInt(record, position);
+		for (int i = 0; i < nbString; i++) {
+			int length = readVarInt(record, position);
+			data.addString(record, position[0], length);
+			position[0] += length;
+		}
+
+		return data;
+	}
+
+	/**
+	 * decode only the given attributes of a record value into data, other fields are skipped
+	 * @param record
+	 * @param data
+	 * @param attributes sorted attribute indexes (ints first, then strings)
+	 * @return data
+	 */
+	public static Data decode(byte[] record, Data data, int[] attributes) {
+		if ((record.length == 0) || (record[0] != RECORD_TAG))
+			throw new IllegalArgumentException("not a record value");
+
+		int[] position = new int[] {1};
+		int selected = 0;
+
+		int nbInt = readVarInt(record, position);
+		for (int i = 0; i < nbInt; i++) {
+			int zigzag = readVarInt(record, position);
+			if ((selected < attributes.length) && (attributes[selected] == i)) {
+				data.addNumber((zigzag >>> 1) ^ -(zigzag & 1));
+				selected++;
+			}
+		}
+
+		int nbString = readVarInt(record, position);
+		for (int i = 0; (i < nbString) && (selected < attributes.length); i++) {
+			int length = readVarInt(record, position);
+			if (attributes[selected] == nbInt + i) {
+				data.addString(record, position[0], length);
+				selected++;
+			}
+			position[0] += length;
+		}
+
+		return data;
+	}
+
+
+	static int writeVarInt(byte[] buffer, int position, int value) {
+		while ((value & ~0x7F) != 0) {
+			buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buffer[position++] = (byte) value;
+
+		return position;
+	}
+
+	static int readVarInt(byte[] buffer, int[] position) {
+		int value = 0;
+		int shift = 0;
+		byte current;
+
+		do {
+			if (shift > 28)
+				throw new IllegalArgumentException("malformed varint");
+			current = buffer[position[0]++];
+			value |= (current & 0x7F) << shift;
+			shift += 7;
+		} while ((current & 0x80) != 0);
+
+		return value;
+	}
+}
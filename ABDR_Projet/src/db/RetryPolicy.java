@@ -0,0 +1,82 @@
+package db;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Retry of store batches failing with a retryable fault
+ * 
+ * 	- exponential backoff with full jitter : the delay before attempt n is random in [0, min(maxDelay, baseDelay * 2^n)]
+ * 		so callers failing together don't retry together
+ * 	- a batch is retried at most maxAttempts - 1 times
+ * 	- retries of the whole node are limited by a budget : a retry costs one token, a success gives back 
+ * 		successRefund tokens. When the store is down, retries stop quickly instead of adding load to it
+ * 
+ * @author 2600705
+ *
+ */
+public class RetryPolicy {
+	private final int maxAttempts;
+	private final long baseDelay;
+	private final long maxDelay;
+	private final double maxTokens;
+	private final double successRefund;
+	private double tokens;
+	
+	private long faults = 0;
+	private long executionFailures = 0;
+	private long retries = 0;
+	private long attemptsExhausted = 0;
+	private long budgetExhausted = 0;
+	
+	
+	/**
+	 * @param maxAttempts attempts of a batch, first one included
+	 * @param baseDelay delay in ms
+	 * @param maxDelay delay in ms
+	 * @param maxTokens size of the retry budget
+	 * @param successRefund tokens given back by a successful batch
+	 */
+	public RetryPolicy(int maxAttempts, long baseDelay, long maxDelay, double maxTokens, double successRefund) {
+		this.maxAttempts = maxAttempts;
+		this.baseDelay = baseDelay;
+		this.maxDelay = maxDelay;
+		this.maxTokens = maxTokens;
+		this.successRefund = successRefund;
+		tokens = maxTokens;
+	}
+	
+	
+	public synchronized void onSuccess() {
+		tokens = Math.min(maxTokens, tokens + successRefund);
+	}
+	
+	public synchronized void onExecutionFailure() {
+		executionFailures++;
+	}
+	
+	/**
+	 * a batch failed with a retryable fault at attempt (1 for the first attempt)
+	 * @param attempt
+	 * @return delay to wait in ms before retrying, -1 to give up
+	 */
+	public synchronized long onFault(int attempt) {
+		faults++;
+		if (attempt >= maxAttempts) {
+			attemptsExhausted++;
+			return -1;
+		}
+		if (tokens < 1) {
+			budgetExhausted++;
+			return -1;
+		}
+		
+		tokens--;
+		retries++;
+		long delay = Math.min(maxDelay, baseDelay << Math.min(attempt, 30));
+		return ThreadLocalRandom.current().nextLong(delay + 1);
+	}
+	
+	public synchronized RetryStatistics getStatistics() {
+		return new RetryStatistics(faults, executionFailures, retries, attemptsExhausted, budgetExhausted);
+	}
+}
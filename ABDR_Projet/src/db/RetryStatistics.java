@@ -0,0 +1,59 @@
+package db;
+
+import java.io.Serializable;
+
+/**
+ * Snapshot of the store failures seen by a KVDB and of what its retry policy did with them
+ * @author 2600705
+ *
+ */
+public class RetryStatistics implements Serializable {
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 1L;
+	private long faults;
+	private long executionFailures;
+	private long retries;
+	private long attemptsExhausted;
+	private long budgetExhausted;
+	
+	public RetryStatistics(long faults, long executionFailures, long retries, long attemptsExhausted, long budgetExhausted) {
+		this.faults = faults;
+		this.executionFailures = executionFailures;
+		this.retries = retries;
+		this.attemptsExhausted = attemptsExhausted;
+		this.budgetExhausted = budgetExhausted;
+	}
+	
+	
+	//retryable failures of the store (timeouts, durability, unavailable nodes)
+	public long getFaults() {
+		return faults;
+	}
+
+	//batches aborted by one of their operations, never retried
+	public long getExecutionFailures() {
+		return executionFailures;
+	}
+
+	public long getRetries() {
+		return retries;
+	}
+
+	//batches given up after the maximum number of attempts
+	public long getAttemptsExhausted() {
+		return attemptsExhausted;
+	}
+
+	//batches given up because the node had no retry left in its budget
+	public long getBudgetExhausted() {
+		return budgetExhausted;
+	}
+
+	@Override
+	public String toString() {
+		return "RetryStatistics [faults=" + faults + ", executionFailures=" + executionFailures + ", retries=" + retries
+				+ ", attemptsExhausted=" + attemptsExhausted + ", budgetExhausted=" + budgetExhausted + "]";
+	}
+}
@@ -0,0 +1,15 @@
+package db;
+
+/**
+ * Layout used by a KVDB to store the objects of a profile in the KVStore
+ *
+ * 	- ATTRIBUTES : one key per attribute (category / id / attribute), value as a decimal string
+ * 	- RECORD : one key per object (category / id), value encoded by RecordCodec
+ *
+ * @author 2600705
+ *
+ */
+public enum StorageMode {
+	ATTRIBUTES,
+	RECORD
+}
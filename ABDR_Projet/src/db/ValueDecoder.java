@@ -0,0 +1,61 @@
+package db;
+
+import transaction.Data;
+
+/**
+ * Decoding of ATTRIBUTES values directly from the bytes read in the store :
+ * ints are parsed without building a String, strings are given to Data as utf-8 bytes
+ * and only decoded if the caller reads them
+ * 
+ * @author 2600705
+ *
+ */
+public final class ValueDecoder {
+	
+	private ValueDecoder() {}
+	
+	
+	/**
+	 * parse a decimal int written by Integer.toString
+	 * @param value
+	 * @return
+	 */
+	public static int parseInt(byte[] value) {
+		if (value.length == 0)
+			throw new NumberFormatException("empty value");
+		
+		boolean negative = (value[0] == '-');
+		int position = negative ? 1 : 0;
+		if (position == value.length)
+			throw new NumberFormatException("no digit in value");
+		
+		//accumulate negatively to handle Integer.MIN_VALUE
+		int result = 0;
+		for (; position < value.length; position++) {
+			int digit = value[position] - '0';
+			if ((digit < 0) || (digit > 9) || (result < (Integer.MIN_VALUE + digit) / 10))
+				throw new NumberFormatException("not an int : " + new String(value));
+			result = (result * 10) - digit;
+		}
+		
+		if (negative)
+			return result;
+		if (result == Integer.MIN_VALUE)
+			throw new NumberFormatException("not an int : " + new String(value));
+		return -result;
+	}
+	
+	/**
+	 * add the attribute at index to data
+	 * @param data
+	 * @param index
+	 * @param nbInt number of int attributes, the following ones are strings
+	 * @param value
+	 */
+	public static void addAttribute(Data data, int index, int nbInt, byte[] value) {
+		if (index < nbInt)
+			data.addNumber(parseInt(value));
+		else
+			data.addString(value, 0, value.length);
+	}
+}
@@ -0,0 +1,232 @@
+package monitor;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Profiles transacted together ("grappes") : the weight of an edge counts the transactions of its two profiles,
+ * the load of a profile counts its transactions. Weights decay so the graph follows the workload.
+ *
+ * The monitor places the profiles of an edge on the same KVDB before a transaction has to migrate them
+ *
+ * @author 2600705
+ *
+ */
+public class CoAccessGraph {
+	private final int maxPasses = 4;
+	private final double decay;
+	private final double minWeight;
+	//edges are stored in both directions
+	private Map<Integer, Map<Integer, Double>> edges = new HashMap<Integer, Map<Integer, Double>>();
+	private Map<Integer, Double> loads = new HashMap<Integer, Double>();
+
+
+	/**
+	 * @param decay weights are multiplied by it at each call of decay()
+	 * @param minWeight weights below are forgotten
+	 */
+	public CoAccessGraph(double decay, double minWeight) {
+		this.decay = decay;
+		this.minWeight = minWeight;
+	}
+
+	/**
+	 * a transaction used these profiles. Each pair gets 1 / (nbProfiles - 1),
+	 * so a profile gains at most 1 per transaction whatever its size
+	 * @param profiles
+	 */
+	public synchronized void record(Collection<Integer> profiles) {
+		List<Integer> list = new ArrayList<Integer>(profiles);
+		for (Integer profile : list)
+			loads.put(profile, getLoad(profile) + 1);
+
+		double weight = 1.0 / (list.size() - 1);
+		for (int i = 0; i < list.size(); i++) {
+			for (int j = i + 1; j < list.size(); j++) {
+				addWeight(list.get(i), list.get(j), weight);
+				addWeight(list.get(j), list.get(i), weight);
+			}
+		}
+	}
+
+	public synchronized void decay() {
+		for (Iterator<Map<Integer, Double>> profileEdges = edges.values().iterator(); profileEdges.hasNext(); ) {
+			Map<Integer, Double> weights = profileEdges.next();
+			for (Iterator<Map.Entry<Integer, Double>> entries = weights.entrySet().iterator(); entries.hasNext(); ) {
+				Map.Entry<Integer, Double> entry = entries.next();
+				entry.setValue(entry.getValue() * decay);
+				if (entry.getValue() < minWeight)
+					entries.remove();
+			}
+			if (weights.size() == 0)
+				profileEdges.remove();
+		}
+		for (Iterator<Map.Entry<Integer, Double>> entries = loads.entrySet().iterator(); entries.hasNext(); ) {
+			Map.Entry<Integer, Double> entry = entries.next();
+			entry.setValue(entry.getValue() * decay);
+			if (entry.getValue() < minWeight)
+				entries.remove();
+		}
+	}
+
+	public synchronized double getWeight(int profile1, int profile2) {
+		Map<Integer, Double> weights = edges.get(profile1);
+		if ((weights == null) || (! weights.containsKey(profile2)))
+			return 0;
+		return weights.get(profile2);
+	}
+
+	public synchronized double getLoad(int profile) {
+		Double load = loads.get(profile);
+		return (load == null) ? 0 : load;
+	}
+
+
+	/**
+	 * Greedy refinement of the placement : a profile goes to the node it is the most transacted with
+	 * when this saves at least minGain cross node transactions, and the node stays below the average load of the
+	 * nodes times (1 + loadSlack). When the node is full, the profile is exchanged with one of its profiles if the
+	 * exchange saves minGain. Profiles are visited by decreasing weight, until a pass moves nothing
+	 * @param placement node of each profile, profiles not in it are ignored
+	 * @param loadSlack
+	 * @param minGain
+	 * @return new node of the profiles which move
+	 */
+	public synchronized Map<Integer, Integer> computeMoves(Map<Integer, Integer> placement, double loadSlack, double minGain) {
+		final Map<Integer, Integer> nodes = new HashMap<Integer, Integer>(placement);
+		Map<Integer, Double> nodeLoads = new HashMap<Integer, Double>();
+		double totalLoad = 0;
+		for (Map.Entry<Integer, Integer> entry : nodes.entrySet()) {
+			double load = getLoad(entry.getKey());
+			Double nodeLoad = nodeLoads.get(entry.getValue());
+			nodeLoads.put(entry.getValue(), (nodeLoad == null) ? load : nodeLoad + load);
+			totalLoad += load;
+		}
+		double maxLoad = totalLoad / nodeLoads.size() * (1 + loadSlack);
+
+		List<Integer> profiles = new ArrayList<Integer>();
+		final Map<Integer, Double> profileWeights = new HashMap<Integer, Double>();
+		for (Integer profile : nodes.keySet()) {
+			double weight = 0;
+			for (Map.Entry<Integer, Double> edge : getEdges(profile).entrySet()) {
+				if (nodes.containsKey(edge.getKey()))
+					weight += edge.getValue();
+			}
+			if (weight > 0) {
+				profiles.add(profile);
+				profileWeights.put(profile, weight);
+			}
+		}
+		Collections.sort(profiles, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer profile1, Integer profile2) {
+				int result = Double.compare(profileWeights.get(profile2), profileWeights.get(profile1));
+				return (result != 0) ? result : profile1.compareTo(profile2);
+			}
+		});
+
+		for (int pass = 0; pass < maxPasses; pass++) {
+			boolean isMoved = false;
+			for (Integer profile : profiles) {
+				int node = nodes.get(profile);
+				Map<Integer, Double> nodeWeights = getNodeWeights(profile, nodes);
+				double currentWeight = nodeWeights.containsKey(node) ? nodeWeights.get(node) : 0;
+
+				Integer bestNode = null;
+				Integer bestSwap = null;
+				double bestGain = minGain;
+				for (Map.Entry<Integer, Double> entry : nodeWeights.entrySet()) {
+					double gain = entry.getValue() - currentWeight;
+					if ((entry.getKey() == node) || (gain <= 0))
+						continue;
+					if (nodeLoads.get(entry.getKey()) + getLoad(profile) <= maxLoad) {
+						if (gain >= bestGain) {
+							bestNode = entry.getKey();
+							bestSwap = null;
+							bestGain = gain;
+						}
+						continue;
+					}
+
+					//the node is full : exchange the profile with one of the node, as Kernighan-Lin does
+					for (Map.Entry<Integer, Integer> other : nodes.entrySet()) {
+						int swap = other.getKey();
+						if (! other.getValue().equals(entry.getKey()))
+							continue;
+						double loadChange = getLoad(profile) - getLoad(swap);
+						if ((nodeLoads.get(entry.getKey()) + loadChange > maxLoad) || (nodeLoads.get(node) - loadChange > maxLoad))
+							continue;
+						Map<Integer, Double> swapWeights = getNodeWeights(swap, nodes);
+						double swapGain = (swapWeights.containsKey(node) ? swapWeights.get(node) : 0)
+								- (swapWeights.containsKey(entry.getKey()) ? swapWeights.get(entry.getKey()) : 0);
+						double totalGain = gain + swapGain - 2 * getWeight(profile, swap);
+						if (totalGain >= bestGain) {
+							bestNode = entry.getKey();
+							bestSwap = swap;
+							bestGain = totalGain;
+						}
+					}
+				}
+
+				if (bestNode != null) {
+					move(profile, bestNode, nodes, nodeLoads);
+					if (bestSwap != null)
+						move(bestSwap, node, nodes, nodeLoads);
+					isMoved = true;
+				}
+			}
+			if (! isMoved)
+				break;
+		}
+
+		Map<Integer, Integer> moves = new HashMap<Integer, Integer>();
+		for (Map.Entry<Integer, Integer> entry : nodes.entrySet()) {
+			if (! entry.getValue().equals(placement.get(entry.getKey())))
+				moves.put(entry.getKey(), entry.getValue());
+		}
+		return moves;
+	}
+
+
+	private void move(int profile, int node, Map<Integer, Integer> nodes, Map<Integer, Double> nodeLoads) {
+		int previousNode = nodes.put(profile, node);
+		nodeLoads.put(previousNode, nodeLoads.get(previousNode) - getLoad(profile));
+		nodeLoads.put(node, nodeLoads.get(node) + getLoad(profile));
+	}
+
+	/**
+	 * @return weight of the profile with each node
+	 */
+	private Map<Integer, Double> getNodeWeights(int profile, Map<Integer, Integer> nodes) {
+		Map<Integer, Double> nodeWeights = new HashMap<Integer, Double>();
+		for (Map.Entry<Integer, Double> edge : getEdges(profile).entrySet()) {
+			Integer node = nodes.get(edge.getKey());
+			if (node == null)
+				continue;
+			Double weight = nodeWeights.get(node);
+			nodeWeights.put(node, (weight == null) ? edge.getValue() : weight + edge.getValue());
+		}
+		return nodeWeights;
+	}
+
+	private void addWeight(int profile1, int profile2, double weight) {
+		Map<Integer, Double> weights = edges.get(profile1);
+		if (weights == null) {
+			weights = new HashMap<Integer, Double>();
+			edges.put(profile1, weights);
+		}
+		Double current = weights.get(profile2);
+		weights.put(profile2, (current == null) ? weight : current + weight);
+	}
+
+	private Map<Integer, Double> getEdges(int profile) {
+		Map<Integer, Double> weights = edges.get(profile);
+		return (weights == null) ? Collections.<Integer, Double>emptyMap() : weights;
+	}
+}
@@ -19,12 +19,24 @@ import db.KVDBInterface;
 public class Monitor {
 	
 	public static void startMonitor(Map<Integer, KVDBInterface> kvdbs, int profileOffset, String hostName, int port) {
+		startMonitor(kvdbs, profileOffset, hostName, port, false);
+	}
+	
+	public static void startMonitor(Map<Integer, KVDBInterface> kvdbs, int profileOffset, String hostName, int port, boolean isDeterministic) {
+		startMonitor(kvdbs, profileOffset, hostName, port, isDeterministic, false);
+	}
+	
+	/**
+	 * @param isDeterministic transactions are ordered in epochs by the monitor instead of locking their profiles
+	 * @param isPlacing profiles transacted together are moved in background to the same KVDB
+	 */
+	public static void startMonitor(Map<Integer, KVDBInterface> kvdbs, int profileOffset, String hostName, int port, boolean isDeterministic, boolean isPlacing) {
 		try {
 			System.setProperty("java.rmi.server.hostname", hostName);
 			Registry registry = LocateRegistry.createRegistry(port);
 			
 			// create a new service named myMessage
-            registry.rebind("monitor" + profileOffset, new MonitorImplementation(kvdbs, profileOffset));
+            registry.rebind("monitor" + profileOffset, new MonitorImplementation(kvdbs, profileOffset, isDeterministic, isPlacing));
 		}
 		catch (Exception e) {
 			e.printStackTrace();
@@ -5,13 +5,31 @@ import java.rmi.server.UnicastRemoteObject;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import myReadWriteLock.MyReadWriteLock;
 import transaction.Operation;
 import transaction.OperationResult;
+import transaction.ReadOperation;
 import db.KVDBInterface;
 
 public class MonitorImplementation extends UnicastRemoteObject implements MonitorInterface {
@@ -27,13 +45,96 @@ public class MonitorImplementation extends UnicastRemoteObject implements Monito
 	private int nbProfile = 10;
 	private int profileOffset;
 	private int nbMonitors = 1;
+	private int maxSnapshotAttempts = 3;
+	private long snapshotRetryDelay = 200;
+	
+	//changes each time the KVDB of a profile changes in serverMapping
+	private Map<Integer, Long> routingEpochs = new ConcurrentHashMap<Integer, Long>();
+	
+	//asynchronous transactions being executed, with the profiles they locked
+	private Map<Long, List<Integer>> pendingTickets = new ConcurrentHashMap<Long, List<Integer>>();
+	//results of asynchronous transactions, kept until their client polls them
+	private Map<Long, List<OperationResult>> completedTickets = new HashMap<Long, List<OperationResult>>();
+	private AtomicLong nextTicket = new AtomicLong();
+	//a ticket whose results are not delivered in time fails and unlocks its profiles, 
+	//results not polled in time are forgotten
+	private long pendingTicketTimeout = 60000;
+	private long completedTicketExpiry = 60000;
+	private ExecutorService ticketSenders = Executors.newCachedThreadPool(new DaemonThreadFactory("Monitor ticket sender"));
+	private ScheduledExecutorService ticketTimer = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("Monitor ticket timer"));
+	
+	//deterministic mode : transactions are collected in epochs and ordered by the sequencer thread, profiles are not 
+	//locked by epochs : migrations wait for the end of the running epoch and hold their profiles until they end
+	private long epochDuration = 5;
+	private int maxEpochSize = 1000;
+	//an epoch of transactions waiting for held profiles only is tried again after it, or at the next transaction
+	private long deferredRetryDelay = 50;
+	private BlockingQueue<SequencedTransaction> incomingTransactions = new LinkedBlockingQueue<SequencedTransaction>();
+	private long nextSequence = 0;
+	private Thread sequencer;
+	private ExecutorService batchSenders;
+	//executes the transactions needing a migration one by one, in their order
+	private ExecutorService stragglerExecutor;
+	private final Object epochBarrier = new Object();
+	private boolean isEpochRunning = false;
+	//migrations and stragglers holding each profile, the transactions of a held profile wait for a later epoch
+	private Map<Integer, Integer> heldProfiles = new HashMap<Integer, Integer>();
+	private List<SequencedTransaction> deferredTransactions = new ArrayList<SequencedTransaction>();
+	
+	//calls to the KVDBs of a batch spread over several KVDBs
+	private ExecutorService kvdbCallers = Executors.newCachedThreadPool(new DaemonThreadFactory("Monitor KVDB caller"));
+	
+	//profiles of multi profile transactions, placed on the same KVDB in background so transactions don't migrate them. 
+	//Placement is enabled by the constructor, the placer stops when the monitor is closed
+	private volatile long placementDelay = 10000;
+	private double coAccessDecay = 0.5;
+	private double coAccessMinWeight = 0.01;
+	//a KVDB receives profiles while its load stays below the average load times (1 + placementLoadSlack)
+	private double placementLoadSlack = 0.25;
+	//transactions saved between two placements for a profile to move
+	private double placementMinGain = 2;
+	private CoAccessGraph coAccessGraph = new CoAccessGraph(coAccessDecay, coAccessMinWeight);
+	private Thread placer;
+	private volatile boolean runPlacer = false;
 	
 	
 	public MonitorImplementation(Map<Integer, KVDBInterface> kvdbs, int profileOffset) throws RemoteException {
+		this(kvdbs, profileOffset, false);
+	}
+	
+	public MonitorImplementation(Map<Integer, KVDBInterface> kvdbs, int profileOffset, boolean isDeterministic) throws RemoteException {
+		this(kvdbs, profileOffset, isDeterministic, false);
+	}
+	
+	/**
+	 * @param isDeterministic transactions are ordered in epochs instead of locking their profiles
+	 * @param isPlacing profiles transacted together are moved to the same KVDB every placementDelay
+	 */
+	public MonitorImplementation(Map<Integer, KVDBInterface> kvdbs, int profileOffset, boolean isDeterministic, boolean isPlacing) throws RemoteException {
 		this.serverMapping = kvdbs;
 		this.profileOffset = profileOffset;
 		
 		initAll();
+		if (isDeterministic)
+			initSequencer();
+		if (isPlacing)
+			initPlacer();
+	}
+	
+	/**
+	 * @param placementDelay time between two placements of the profiles, if placement is enabled
+	 */
+	public void setPlacementDelay(long placementDelay) {
+		this.placementDelay = placementDelay;
+	}
+	
+	/**
+	 * @param pendingTicketTimeout a ticket whose results are not delivered after it fails
+	 * @param completedTicketExpiry results not polled after it are forgotten
+	 */
+	public void setTicketTimeouts(long pendingTicketTimeout, long completedTicketExpiry) {
+		this.pendingTicketTimeout = pendingTicketTimeout;
+		this.completedTicketExpiry = completedTicketExpiry;
 	}
 	
 	private void initMutexes() {
@@ -47,6 +148,33 @@ public class MonitorImplementation extends UnicastRemoteObject implements Monito
 		initMutexes();
 	}
 	
+	private void initPlacer() {
+		runPlacer = true;
+		placer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while (runPlacer) {
+					try {
+						Thread.sleep(placementDelay);
+					} catch (InterruptedException e) {
+						return;
+					}
+					placeProfiles();
+				}
+			}
+		}, "Monitor placer");
+		placer.setDaemon(true);
+		placer.start();
+	}
+	
+	private void initSequencer() {
+		batchSenders = Executors.newCachedThreadPool(new DaemonThreadFactory("Monitor batch sender"));
+		stragglerExecutor = Executors.newSingleThreadExecutor(new DaemonThreadFactory("Monitor straggler"));
+		sequencer = new Thread(new Sequencer(), "Monitor sequencer");
+		sequencer.setDaemon(true);
+		sequencer.start();
+	}
+	
 	
 	private List<Operation> sortTransaction(List<Operation> operations) {
 		Collections.sort(operations, new Comparator<Operation>() {
@@ -92,11 +220,26 @@ public class MonitorImplementation extends UnicastRemoteObject implements Monito
 	 */
 	@Override
 	public List<OperationResult> executeOperations(List<Operation> operations) {
+		if (sequencer == null)
+			return executeLocked(operations);
+		
+		SequencedTransaction transaction = new SequencedTransaction(sortTransaction(operations));
+		incomingTransactions.add(transaction);
+		return transaction.awaitResults();
+	}
+	
+	/**
+	 * execute a transaction holding the read locks of its profiles, a KVDB may migrate them during the transaction
+	 * @param operations
+	 * @return
+	 */
+	private List<OperationResult> executeLocked(List<Operation> operations) {
 		//sort the transaction
 		operations = sortTransaction(operations);
 		
 		//get the list of needed local profiles for the transaction
 		List<Integer> usedLocalProfiles = findProfile(operations);
+		coAccessGraph.record(usedLocalProfiles);
 		//System.out.println("***********************local profiles of the monitor : " + usedLocalProfiles + " for operations" + operations);
 		
 		//for each profiles in the transaction, read lock
@@ -124,9 +267,669 @@ public class MonitorImplementation extends UnicastRemoteObject implements Monito
 	}
 
 
+	/**
+	 * transaction waiting for its epoch in deterministic mode
+	 */
+	private static class SequencedTransaction {
+		private List<Operation> operations;
+		private long sequence = -1;
+		private List<OperationResult> results;
+		private CountDownLatch done = new CountDownLatch(1);
+		
+		private SequencedTransaction(List<Operation> operations) {
+			this.operations = operations;
+		}
+		
+		private void complete(List<OperationResult> results) {
+			this.results = results;
+			done.countDown();
+		}
+		
+		private List<OperationResult> awaitResults() {
+			try {
+				done.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return null;
+			}
+			return results;
+		}
+	}
+	
+	/**
+	 * an epoch begins with the first transaction received and lasts epochDuration ms or maxEpochSize transactions. 
+	 * Transactions deferred by the previous epoch come first, they are older
+	 */
+	private class Sequencer implements Runnable {
+		@Override
+		public void run() {
+			while (true) {
+				List<SequencedTransaction> epoch = new ArrayList<SequencedTransaction>(deferredTransactions);
+				deferredTransactions.clear();
+				try {
+					if (epoch.size() == 0) {
+						epoch.add(incomingTransactions.take());
+					}
+					else {
+						SequencedTransaction transaction = incomingTransactions.poll(deferredRetryDelay, TimeUnit.MILLISECONDS);
+						if (transaction != null)
+							epoch.add(transaction);
+					}
+					long end = System.currentTimeMillis() + epochDuration;
+					while (epoch.size() < maxEpochSize) {
+						long remaining = end - System.currentTimeMillis();
+						if (remaining <= 0)
+							break;
+						SequencedTransaction transaction = incomingTransactions.poll(remaining, TimeUnit.MILLISECONDS);
+						if (transaction == null)
+							break;
+						epoch.add(transaction);
+					}
+				} catch (InterruptedException e) {
+					return;
+				}
+				
+				executeEpoch(epoch);
+			}
+		}
+	}
+	
+	/**
+	 * Transactions of the epoch get their global order, and each KVDB receives in one batch the transactions whose 
+	 * profiles are all on it. Profiles are not locked : no migration starts during the epoch, and a transaction on a 
+	 * profile held by a migration or a straggler waits for a later epoch, with the transactions after it on its profiles. 
+	 * Transactions needing a migration (profiles on several KVDBs or of another monitor) are stragglers : once the 
+	 * batches are executed, they are executed in their order off the sequencer thread, with the locks of executeLocked
+	 * @param epoch
+	 */
+	private void executeEpoch(List<SequencedTransaction> epoch) {
+		Map<KVDBInterface, List<SequencedTransaction>> batches = new LinkedHashMap<KVDBInterface, List<SequencedTransaction>>();
+		final List<SequencedTransaction> stragglers = new ArrayList<SequencedTransaction>();
+		synchronized (epochBarrier) {
+			isEpochRunning = true;
+			Set<Integer> waitingProfiles = new HashSet<Integer>(heldProfiles.keySet());
+			for (SequencedTransaction transaction : epoch) {
+				List<Integer> profiles = findProfile(transaction.operations);
+				if (transaction.sequence == -1) {
+					transaction.sequence = nextSequence++;
+					coAccessGraph.record(profiles);
+				}
+				
+				if (! Collections.disjoint(profiles, waitingProfiles)) {
+					waitingProfiles.addAll(profiles);
+					deferredTransactions.add(transaction);
+					continue;
+				}
+				KVDBInterface kvdb = findBatchKVDB(transaction.operations);
+				if (kvdb == null) {
+					waitingProfiles.addAll(profiles);
+					holdProfiles(profiles);
+					stragglers.add(transaction);
+					continue;
+				}
+				if (! batches.containsKey(kvdb))
+					batches.put(kvdb, new ArrayList<SequencedTransaction>());
+				batches.get(kvdb).add(transaction);
+			}
+		}
+		
+		List<Callable<Void>> senders = new ArrayList<Callable<Void>>();
+		for (final Map.Entry<KVDBInterface, List<SequencedTransaction>> batch : batches.entrySet()) {
+			senders.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					List<List<Operation>> transactions = new ArrayList<List<Operation>>();
+					for (SequencedTransaction transaction : batch.getValue())
+						transactions.add(transaction.operations);
+					
+					List<List<OperationResult>> results;
+					try {
+						results = batch.getKey().executeSequencedBatch(transactions);
+					} catch (RemoteException e) {
+						System.err.println("Monitor could not send a sequenced batch : " + e);
+						results = Collections.nCopies(transactions.size(), null);
+					}
+					
+					for (int i = 0; i < results.size(); i++) {
+						if (results.get(i) != null) {
+							batch.getValue().get(i).complete(results.get(i));
+							continue;
+						}
+						//a profile was not on the KVDB
+						synchronized (epochBarrier) {
+							holdProfiles(findProfile(transactions.get(i)));
+							stragglers.add(batch.getValue().get(i));
+						}
+					}
+					return null;
+				}
+			});
+		}
+		
+		try {
+			for (Future<Void> future : batchSenders.invokeAll(senders)) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					// TODO Auto-generated catch block
+					e.printStackTrace();
+				}
+			}
+		} catch (InterruptedException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+		
+		synchronized (epochBarrier) {
+			isEpochRunning = false;
+			epochBarrier.notifyAll();
+		}
+		
+		Collections.sort(stragglers, new Comparator<SequencedTransaction>() {
+			public int compare(SequencedTransaction transaction1, SequencedTransaction transaction2) {
+				return Long.compare(transaction1.sequence, transaction2.sequence);
+			}
+		});
+		for (final SequencedTransaction transaction : stragglers) {
+			stragglerExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					List<OperationResult> results = null;
+					try {
+						results = executeLocked(transaction.operations);
+					} finally {
+						releaseProfiles(findProfile(transaction.operations));
+						transaction.complete(results);
+					}
+				}
+			});
+		}
+	}
+	
+	/**
+	 * one more migration or straggler on each profile, the epoch barrier must be held
+	 * @param profiles
+	 */
+	private void holdProfiles(List<Integer> profiles) {
+		for (int profile : profiles) {
+			Integer holders = heldProfiles.get(profile);
+			heldProfiles.put(profile, (holders == null) ? 1 : holders + 1);
+		}
+	}
+	
+	private void releaseProfiles(List<Integer> profiles) {
+		synchronized (epochBarrier) {
+			for (int profile : profiles) {
+				int holders = heldProfiles.get(profile);
+				if (holders == 1)
+					heldProfiles.remove(profile);
+				else
+					heldProfiles.put(profile, holders - 1);
+			}
+		}
+	}
+	
+	/**
+	 * deterministic mode : a migration of the profile waits for the end of the running epoch, 
+	 * then holds the profile until it ends
+	 * @param profile
+	 */
+	private void holdMigratedProfile(int profile) {
+		if (sequencer == null)
+			return;
+		
+		boolean isInterrupted = false;
+		synchronized (epochBarrier) {
+			while (isEpochRunning) {
+				try {
+					epochBarrier.wait();
+				} catch (InterruptedException e) {
+					isInterrupted = true;
+				}
+			}
+			holdProfiles(Collections.singletonList(profile));
+		}
+		if (isInterrupted)
+			Thread.currentThread().interrupt();
+	}
+	
+	private void releaseMigratedProfile(int profile) {
+		if (sequencer != null)
+			releaseProfiles(Collections.singletonList(profile));
+	}
+	
+	/**
+	 * KVDB holding all the profiles of the transaction, null if they are not all on the same KVDB of this monitor
+	 * @param operations
+	 * @return
+	 */
+	private KVDBInterface findBatchKVDB(List<Operation> operations) {
+		KVDBInterface result = null;
+		for (Operation operation : operations) {
+			int profile = operation.getData().getCategory();
+			if ((profile < profileOffset) || (profile >= profileOffset + nbProfile))
+				return null;
+			
+			KVDBInterface kvdb = serverMapping.get(profile);
+			if ((kvdb == null) || ((result != null) && (! result.equals(kvdb))))
+				return null;
+			result = kvdb;
+		}
+		
+		return result;
+	}
+	
+	
+	/**
+	 * Submit a transaction without waiting for it : profiles are locked as for executeOperations, 
+	 * the KVDB executes it in background and delivers its results. Transactions submitted by a client 
+	 * may be executed concurrently, like transactions sent by several threads. 
+	 * The profiles are locked by a sender thread, so a migration never holds the caller
+	 */
+	@Override
+	public long submitOperations(List<Operation> operations) {
+		final List<Operation> sortedOperations = sortTransaction(operations);
+		final List<Integer> usedLocalProfiles = findProfile(sortedOperations);
+		coAccessGraph.record(usedLocalProfiles);
+		final long ticket = nextTicket.incrementAndGet();
+		
+		ticketSenders.execute(new Runnable() {
+			@Override
+			public void run() {
+				for (Integer profile : usedLocalProfiles) {
+					profileMutexes.get(profile).lockRead();
+				}
+				pendingTickets.put(ticket, usedLocalProfiles);
+				
+				//results which never come don't keep the profiles locked
+				ticketTimer.schedule(new Runnable() {
+					@Override
+					public void run() {
+						if (pendingTickets.containsKey(ticket))
+							deliverResults(ticket, getFailedResults(sortedOperations.size()));
+					}
+				}, pendingTicketTimeout, TimeUnit.MILLISECONDS);
+				
+				try {
+					findKVDB(sortedOperations).submitOperations(ticket, sortedOperations, MonitorImplementation.this);
+				} catch (RemoteException e) {
+					System.err.println("Monitor could not submit ticket " + ticket + " : " + e);
+					deliverResults(ticket, getFailedResults(sortedOperations.size()));
+				}
+			}
+		});
+		
+		return ticket;
+	}
+	
+	/**
+	 * end of an asynchronous transaction : its profiles are unlocked and its results wait for the client, 
+	 * at most completedTicketExpiry
+	 */
+	@Override
+	public void deliverResults(final long ticket, List<OperationResult> results) {
+		List<Integer> usedLocalProfiles = pendingTickets.remove(ticket);
+		if (usedLocalProfiles == null)
+			return;
+		
+		for (Integer profile : usedLocalProfiles) {
+			profileMutexes.get(profile).unlockRead();
+		}
+		synchronized (completedTickets) {
+			completedTickets.put(ticket, results);
+			completedTickets.notifyAll();
+		}
+		
+		ticketTimer.schedule(new Runnable() {
+			@Override
+			public void run() {
+				synchronized (completedTickets) {
+					completedTickets.remove(ticket);
+				}
+			}
+		}, completedTicketExpiry, TimeUnit.MILLISECONDS);
+	}
+	
+	private static List<OperationResult> getFailedResults(int nbOperations) {
+		List<OperationResult> results = new ArrayList<OperationResult>(nbOperations);
+		for (int i = 0; i < nbOperations; i++)
+			results.add(new OperationResult(false, null));
+		return results;
+	}
+	
+	/**
+	 * results of the executed transactions among tickets, they are given only once
+	 */
+	@Override
+	public Map<Long, List<OperationResult>> pollResults(List<Long> tickets, long timeoutMillis) {
+		Map<Long, List<OperationResult>> result = new HashMap<Long, List<OperationResult>>();
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		
+		synchronized (completedTickets) {
+			while (true) {
+				for (Long ticket : tickets) {
+					List<OperationResult> results = completedTickets.remove(ticket);
+					if (results != null)
+						result.put(ticket, results);
+				}
+				
+				long remaining = deadline - System.currentTimeMillis();
+				if ((result.size() != 0) || (remaining <= 0))
+					break;
+				try {
+					completedTickets.wait(remaining);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+		}
+		
+		return result;
+	}
+	
+	
+	/**
+	 * Execute a non atomic batch : operations are sent to the KVDB of their profile, every profile
+	 * is executed as its own transaction
+	 */
+	@Override
+	public List<OperationResult> executeIndependentOperations(List<Operation> operations) {
+		return executePerKvdb(operations, false);
+	}
+	
+	/**
+	 * Execute many reads : they are sent to the KVDB of their profile, which reads the objects of a profile together
+	 */
+	@Override
+	public List<OperationResult> executeReads(List<ReadOperation> reads) {
+		return executePerKvdb(new ArrayList<Operation>(reads), true);
+	}
+	
+	/**
+	 * Execute reads without locking their profiles, so they don't wait for migrations. Reads are sent to the 
+	 * KVDB of their profile in the routing table, a read whose profile moved during the read is sent again 
+	 * once its route changed. Reads still not served after maxSnapshotAttempts are done with executeReads
+	 */
+	@Override
+	public List<OperationResult> executeSnapshotReads(final List<ReadOperation> reads) {
+		OperationResult[] results = new OperationResult[reads.size()];
+		List<Integer> pendingReads = new ArrayList<Integer>();
+		for (int i = 0; i < reads.size(); i++)
+			pendingReads.add(i);
+		
+		for (int attempt = 0; (attempt < maxSnapshotAttempts) && (pendingReads.size() != 0); attempt++) {
+			//epoch of the route of each profile when its reads were sent
+			Map<Integer, Long> sentEpochs = new HashMap<Integer, Long>();
+			Map<KVDBInterface, List<Integer>> kvdbReads = new LinkedHashMap<KVDBInterface, List<Integer>>();
+			for (int i : pendingReads) {
+				int profile = reads.get(i).getData().getCategory();
+				if (! sentEpochs.containsKey(profile))
+					sentEpochs.put(profile, getRoutingEpoch(profile));
+				KVDBInterface kvdb = serverMapping.get(profile);
+				if (kvdb == null) {
+					results[i] = new OperationResult(false, null);
+					continue;
+				}
+				if (! kvdbReads.containsKey(kvdb))
+					kvdbReads.put(kvdb, new ArrayList<Integer>());
+				kvdbReads.get(kvdb).add(i);
+			}
+			
+			final List<Integer> movedReads = new ArrayList<Integer>();
+			final OperationResult[] sharedResults = results;
+			List<Callable<Void>> calls = new ArrayList<Callable<Void>>();
+			for (final Map.Entry<KVDBInterface, List<Integer>> entry : kvdbReads.entrySet()) {
+				calls.add(new Callable<Void>() {
+					@Override
+					public Void call() {
+						List<ReadOperation> kvdbBatch = new ArrayList<ReadOperation>();
+						for (int i : entry.getValue())
+							kvdbBatch.add(reads.get(i));
+						
+						try {
+							List<OperationResult> kvdbResults = entry.getKey().executeSnapshotReads(kvdbBatch);
+							synchronized (movedReads) {
+								for (int i = 0; i < kvdbResults.size(); i++) {
+									if (kvdbResults.get(i) == null)
+										movedReads.add(entry.getValue().get(i));
+									else
+										sharedResults[entry.getValue().get(i)] = kvdbResults.get(i);
+								}
+							}
+						} catch (RemoteException e) {
+							// TODO Auto-generated catch block
+							e.printStackTrace();
+							synchronized (movedReads) {
+								movedReads.addAll(entry.getValue());
+							}
+						}
+						return null;
+					}
+				});
+			}
+			callKvdbs(calls);
+			
+			pendingReads = movedReads;
+			if (pendingReads.size() != 0)
+				waitRouteChange(sentEpochs, snapshotRetryDelay);
+		}
+		
+		if (pendingReads.size() != 0) {
+			List<Operation> lockedReads = new ArrayList<Operation>();
+			for (int i : pendingReads)
+				lockedReads.add(reads.get(i));
+			List<OperationResult> lockedResults = executePerKvdb(lockedReads, true);
+			for (int i = 0; i < pendingReads.size(); i++)
+				results[pendingReads.get(i)] = lockedResults.get(i);
+		}
+		
+		List<OperationResult> result = new ArrayList<OperationResult>(results.length);
+		for (OperationResult operationResult : results)
+			result.add(operationResult);
+		return result;
+	}
+	
+	private long getRoutingEpoch(int profile) {
+		Long epoch = routingEpochs.get(profile);
+		return (epoch == null) ? 0 : epoch;
+	}
+	
+	/**
+	 * the profile is now on kvdb
+	 * @param profile
+	 * @param kvdb
+	 */
+	private void updateRoute(int profile, KVDBInterface kvdb) {
+		synchronized (routingEpochs) {
+			serverMapping.put(profile, kvdb);
+			routingEpochs.put(profile, getRoutingEpoch(profile) + 1);
+			routingEpochs.notifyAll();
+		}
+	}
+	
+	/**
+	 * wait until the route of one of the profiles changed since the given epochs, at most timeoutMillis
+	 * @param epochs
+	 * @param timeoutMillis
+	 */
+	private void waitRouteChange(Map<Integer, Long> epochs, long timeoutMillis) {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		synchronized (routingEpochs) {
+			while (true) {
+				for (Map.Entry<Integer, Long> epoch : epochs.entrySet()) {
+					if (getRoutingEpoch(epoch.getKey()) != epoch.getValue())
+						return;
+				}
+				
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0)
+					return;
+				try {
+					routingEpochs.wait(remaining);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * send to each KVDB the operations of its profiles, results are in submission order
+	 * @param operations
+	 * @param isRead only reads, sent with executeReads
+	 * @return
+	 */
+	private List<OperationResult> executePerKvdb(final List<Operation> operations, final boolean isRead) {
+		List<Integer> usedLocalProfiles = findProfile(operations);
+		for (Integer profile : usedLocalProfiles) {
+			profileMutexes.get(profile).lockRead();
+		}
+		
+		//indexes of the operations of each KVDB
+		Map<KVDBInterface, List<Integer>> kvdbOperations = new LinkedHashMap<KVDBInterface, List<Integer>>();
+		OperationResult[] results = new OperationResult[operations.size()];
+		for (int i = 0; i < operations.size(); i++) {
+			KVDBInterface kvdb = serverMapping.get(operations.get(i).getData().getCategory());
+			if (kvdb == null) {
+				results[i] = new OperationResult(false, null);
+				continue;
+			}
+			if (! kvdbOperations.containsKey(kvdb))
+				kvdbOperations.put(kvdb, new ArrayList<Integer>());
+			kvdbOperations.get(kvdb).add(i);
+		}
+		
+		//KVDBs are called in parallel
+		final OperationResult[] sharedResults = results;
+		List<Callable<Void>> calls = new ArrayList<Callable<Void>>();
+		for (final Map.Entry<KVDBInterface, List<Integer>> entry : kvdbOperations.entrySet()) {
+			calls.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					List<OperationResult> kvdbResults;
+					try {
+						if (isRead) {
+							List<ReadOperation> kvdbBatch = new ArrayList<ReadOperation>();
+							for (int i : entry.getValue())
+								kvdbBatch.add((ReadOperation) operations.get(i));
+							kvdbResults = entry.getKey().executeReads(kvdbBatch);
+						}
+						else {
+							List<Operation> kvdbBatch = new ArrayList<Operation>();
+							for (int i : entry.getValue())
+								kvdbBatch.add(operations.get(i));
+							kvdbResults = entry.getKey().executeIndependentOperations(kvdbBatch);
+						}
+						
+						for (int i = 0; i < kvdbResults.size(); i++)
+							sharedResults[entry.getValue().get(i)] = kvdbResults.get(i);
+					} catch (RemoteException e) {
+						// TODO Auto-generated catch block
+						e.printStackTrace();
+						for (int i : entry.getValue())
+							sharedResults[i] = new OperationResult(false, null);
+					}
+					return null;
+				}
+			});
+		}
+		callKvdbs(calls);
+		
+		for (Integer profile : usedLocalProfiles) {
+			profileMutexes.get(profile).unlockRead();
+		}
+		
+		List<OperationResult> result = new ArrayList<OperationResult>(results.length);
+		for (OperationResult operationResult : results)
+			result.add(operationResult);
+		return result;
+	}
+
+	
+	/**
+	 * run the calls to the KVDBs in parallel and wait for all of them. A lone call runs in the calling thread
+	 * @param calls
+	 */
+	private void callKvdbs(List<Callable<Void>> calls) {
+		if (calls.size() == 1) {
+			try {
+				calls.get(0).call();
+			} catch (Exception e) {
+				// TODO Auto-generated catch block
+				e.printStackTrace();
+			}
+			return;
+		}
+		
+		try {
+			for (Future<Void> future : kvdbCallers.invokeAll(calls)) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					// TODO Auto-generated catch block
+					e.printStackTrace();
+				}
+			}
+		} catch (InterruptedException e) {
+			// TODO Auto-generated catch block
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * move the profiles often transacted together to the same KVDB, with respect to the load of the KVDBs, 
+	 * then age the co-access graph. The KVDBs considered are the ones having profiles of this monitor
+	 */
+	private void placeProfiles() {
+		List<KVDBInterface> kvdbs = new ArrayList<KVDBInterface>();
+		Map<Integer, Integer> placement = new HashMap<Integer, Integer>();
+		for (int profile = profileOffset; profile < profileOffset + nbProfile; profile++) {
+			KVDBInterface kvdb = serverMapping.get(profile);
+			if (kvdb == null)
+				continue;
+			int node = kvdbs.indexOf(kvdb);
+			if (node == -1) {
+				node = kvdbs.size();
+				kvdbs.add(kvdb);
+			}
+			placement.put(profile, node);
+		}
+		
+		Map<Integer, Integer> moves = coAccessGraph.computeMoves(placement, placementLoadSlack, placementMinGain);
+		coAccessGraph.decay();
+		
+		Map<Integer, List<Integer>> nodeProfiles = new HashMap<Integer, List<Integer>>();
+		for (Map.Entry<Integer, Integer> move : moves.entrySet()) {
+			if (! nodeProfiles.containsKey(move.getValue()))
+				nodeProfiles.put(move.getValue(), new ArrayList<Integer>());
+			nodeProfiles.get(move.getValue()).add(move.getKey());
+		}
+		for (Map.Entry<Integer, List<Integer>> entry : nodeProfiles.entrySet()) {
+			//System.out.println("monitor " + profileOffset + " places " + entry.getValue() + " on " + kvdbs.get(entry.getKey()));
+			try {
+				kvdbs.get(entry.getKey()).acquireProfiles(entry.getValue());
+			} catch (RemoteException e) {
+				// TODO Auto-generated catch block
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	
+	@Override
+	public Map<Integer, KVDBInterface> getProfileOwners(List<Integer> profiles) {
+		Map<Integer, KVDBInterface> result = new HashMap<Integer, KVDBInterface>();
+		for (Integer profile : profiles)
+			result.put(profile, serverMapping.get(profile));
+		return result;
+	}
+	
 	@Override
 	public KVDBInterface notifyLoadBalanceMigration(KVDBInterface newSource, int profile) {
 		KVDBInterface result;
+		holdMigratedProfile(profile);
 		//System.out.println("trying to writelock " + profile);
 		profileMutexes.get(profile).lockWrite();
 		//System.out.println("writelock " + profile + " successful");
@@ -138,9 +941,10 @@ public class MonitorImplementation extends UnicastRemoteObject implements Monito
 	
 	@Override
 	public void notifyEndLoadBalanceMigration(KVDBInterface newSource, int profile){
-		serverMapping.put(profile, newSource);
+		updateRoute(profile, newSource);
 		//System.out.println("trying to writeunlock " + profile);
 		profileMutexes.get(profile).unlockWrite();
+		releaseMigratedProfile(profile);
 		//System.out.println("writeunlock " + profile + " successful");
 	}
 	
@@ -149,6 +953,7 @@ public class MonitorImplementation extends UnicastRemoteObject implements Monito
 	public KVDBInterface notifyStandardMigration(KVDBInterface newSource, int profile) throws RemoteException {
 		KVDBInterface result;
 		//System.out.println("trying to get standard migration lock de " + profile + ", offest = " + profileOffset);
+		holdMigratedProfile(profile);
 		profileMutexes.get(profile).unlockRead();
 		profileMutexes.get(profile).lockWrite();
 		//System.out.println("standard migration lock OK de " + ", offest = " + profileOffset);
@@ -160,12 +965,74 @@ public class MonitorImplementation extends UnicastRemoteObject implements Monito
 
 	@Override
 	public void notifyEndStandardMigration(KVDBInterface newSource, int profile) throws RemoteException {
+		updateRoute(profile, newSource);
 		//System.out.println("trying to get standard migration unlock de " + profile + ", offest = " + profileOffset);
 		profileMutexes.get(profile).lockReadAfterWrite();
 		profileMutexes.get(profile).unlockWrite();
+		releaseMigratedProfile(profile);
 		//System.out.println("standard migration unlock OK de " + ", offest = " + profileOffset);
 	}
 	
+	@Override
+	public Map<Integer, KVDBInterface> notifyMigrations(KVDBInterface newSource, List<Integer> profiles, boolean isLoadBalancing) throws RemoteException {
+		Map<Integer, KVDBInterface> result = new HashMap<Integer, KVDBInterface>();
+		//same order for every caller, two batches can't wait for each other
+		for (Integer profile : new TreeSet<Integer>(profiles)) {
+			if (isLoadBalancing)
+				result.put(profile, notifyLoadBalanceMigration(newSource, profile));
+			else
+				result.put(profile, notifyStandardMigration(newSource, profile));
+		}
+		return result;
+	}
+	
+	@Override
+	public void notifyEndMigrations(KVDBInterface newSource, List<Integer> profiles, boolean isLoadBalancing) throws RemoteException {
+		for (Integer profile : profiles) {
+			if (isLoadBalancing)
+				notifyEndLoadBalanceMigration(newSource, profile);
+			else
+				notifyEndStandardMigration(newSource, profile);
+		}
+	}
+	
+	
+	
+	/**
+	 * stop the threads of the monitor : the placer, the sequencer and the pools
+	 */
+	public void close() {
+		runPlacer = false;
+		if (placer != null)
+			placer.interrupt();
+		if (sequencer != null) {
+			sequencer.interrupt();
+			batchSenders.shutdown();
+			stragglerExecutor.shutdown();
+		}
+		ticketSenders.shutdown();
+		ticketTimer.shutdownNow();
+		kvdbCallers.shutdown();
+	}
+	
+	
+	/**
+	 * named daemon threads, pools of the monitor must not keep the JVM alive
+	 */
+	private static class DaemonThreadFactory implements ThreadFactory {
+		private String name;
+		
+		private DaemonThreadFactory(String name) {
+			this.name = name;
+		}
+		
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, name);
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
 	
 	
 	@Override
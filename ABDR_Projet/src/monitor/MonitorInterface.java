@@ -3,15 +3,38 @@ package monitor;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
 import java.util.List;
+import java.util.Map;
 
 import db.KVDBInterface;
 import transaction.OperationResult;
+import transaction.ReadOperation;
 import transaction.Operation;
 
 public interface MonitorInterface extends Remote {
 	//client
 	List<OperationResult> executeOperations(List<Operation> operations) throws RemoteException;
 	
+	//client, asynchronous transaction : returns a ticket to poll its results with
+	long submitOperations(List<Operation> operations) throws RemoteException;
+	
+	//client, results of the given tickets which are executed, waits at most timeoutMillis for one of them
+	Map<Long, List<OperationResult>> pollResults(List<Long> tickets, long timeoutMillis) throws RemoteException;
+	
+	//kvdb, results of an asynchronous transaction
+	void deliverResults(long ticket, List<OperationResult> results) throws RemoteException;
+	
+	//client, non atomic batch : each profile is executed as its own transaction
+	List<OperationResult> executeIndependentOperations(List<Operation> operations) throws RemoteException;
+	
+	//client, many reads at once, results are in submission order
+	List<OperationResult> executeReads(List<ReadOperation> reads) throws RemoteException;
+	
+	//client, reads which don't wait for migrations, results are in submission order
+	List<OperationResult> executeSnapshotReads(List<ReadOperation> reads) throws RemoteException;
+	
+	// kvdb, KVDB of each profile in the routing table, the profiles are not locked
+	Map<Integer, KVDBInterface> getProfileOwners(List<Integer> profiles) throws RemoteException;
+	
 	// kvdb notifier les migrations
 	KVDBInterface notifyLoadBalanceMigration (KVDBInterface newSource, int profile) throws RemoteException;
 	
@@ -23,4 +46,10 @@ public interface MonitorInterface extends Remote {
 	
 	// kvdb notifie la reprise du read
 	void notifyEndStandardMigration(KVDBInterface newSource, int profile) throws RemoteException;
+	
+	// kvdb, notify*Migration of several profiles in one call, locked in ascending order. Returns the KVDB of each profile
+	Map<Integer, KVDBInterface> notifyMigrations(KVDBInterface newSource, List<Integer> profiles, boolean isLoadBalancing) throws RemoteException;
+	
+	// kvdb, notifyEnd*Migration of several profiles in one call
+	void notifyEndMigrations(KVDBInterface newSource, List<Integer> profiles, boolean isLoadBalancing) throws RemoteException;
 }
@@ -0,0 +1,249 @@
+package storage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Group commit of concurrent batches sharing a major path : they are executed as one store batch.
+ * 
+ * 	- the first caller of a major path becomes leader, the following ones wait in its queue
+ * 	- while other callers of the major path are committing, the leader waits a short window (or until the batch 
+ * 		is full), then executes the pending batches in arrival order in a single execute. Callers of other major 
+ * 		paths can't join the batch, they don't delay it
+ * 	- results are split back to each caller, then the leadership goes to the first caller still waiting
+ * 
+ * a batch is never merged with a batch writing one of its keys (a store batch can't have the same key twice),
+ * it goes in the following store batch. If a merged store batch fails, its batches are executed alone so
+ * each caller gets its own result or exception
+ * 
+ * @author 2600705
+ *
+ */
+public class GroupCommitter {
+	private final StorageEngine store;
+	private final int maxBatchSize;
+	private final long windowMillis;
+	
+	private final Map<List<String>, CommitQueue> queues = new HashMap<List<String>, CommitQueue>();
+	private final AtomicLong nbStoreBatches = new AtomicLong();
+	private final AtomicLong nbBatches = new AtomicLong();
+	
+	
+	private static class CommitQueue {
+		private LinkedList<Request> pending = new LinkedList<Request>();
+		//callers of the major path which entered the queue and did not return yet
+		private int nbCommitting = 0;
+	}
+	
+	private static class Request {
+		private List<StorageOperation> operations;
+		private List<StorageOperationResult> results;
+		private Exception failure;
+		private boolean isDone = false;
+		private boolean isLeader = false;
+		
+		private Request(List<StorageOperation> operations) {
+			this.operations = operations;
+		}
+	}
+	
+	
+	/**
+	 * @param store
+	 * @param maxBatchSize maximum number of operations of a merged store batch
+	 * @param windowMillis time the leader waits for other batches
+	 */
+	public GroupCommitter(StorageEngine store, int maxBatchSize, long windowMillis) {
+		this.store = store;
+		this.maxBatchSize = maxBatchSize;
+		this.windowMillis = windowMillis;
+	}
+	
+	
+	/**
+	 * execute atomically a batch, possibly in the same store batch as concurrent ones
+	 * @param operations must share the same major path
+	 * @return
+	 * @throws StorageExecutionException
+	 */
+	public List<StorageOperationResult> execute(List<StorageOperation> operations) throws StorageExecutionException {
+		List<String> majorPath = operations.get(0).getKey().getMajorPath();
+		Request request = new Request(operations);
+		CommitQueue queue;
+		
+		synchronized (queues) {
+			queue = queues.get(majorPath);
+			if (queue == null) {
+				queue = new CommitQueue();
+				queues.put(majorPath, queue);
+				request.isLeader = true;
+			}
+			queue.nbCommitting++;
+			queue.pending.add(request);
+			queues.notifyAll();
+		}
+		
+		try {
+			//the batch is in the queue, it will be committed whatever happens, wait for it
+			boolean isInterrupted = false;
+			synchronized (request) {
+				while ((! request.isDone) && (! request.isLeader)) {
+					try {
+						request.wait();
+					} catch (InterruptedException e) {
+						isInterrupted = true;
+					}
+				}
+			}
+			if (isInterrupted)
+				Thread.currentThread().interrupt();
+			
+			if (! request.isDone)
+				lead(majorPath, queue);
+		} finally {
+			synchronized (queues) {
+				queue.nbCommitting--;
+				queues.notifyAll();
+			}
+		}
+		
+		if (request.failure instanceof StorageExecutionException)
+			throw (StorageExecutionException) request.failure;
+		if (request.failure != null)
+			throw (RuntimeException) request.failure;
+		return request.results;
+	}
+	
+	//number of store batches executed
+	public long getStoreBatchCount() {
+		return nbStoreBatches.get();
+	}
+	
+	//number of batches given to execute
+	public long getBatchCount() {
+		return nbBatches.get();
+	}
+	
+	
+	/**
+	 * execute the first pending batches of the queue, then give the leadership to the next waiting caller
+	 * @param majorPath
+	 * @param queue
+	 */
+	private void lead(List<String> majorPath, CommitQueue queue) {
+		List<Request> batch = new ArrayList<Request>();
+		
+		synchronized (queues) {
+			//other callers of the major path are committing, give them a chance to join the batch
+			long deadline = System.currentTimeMillis() + windowMillis;
+			while ((queue.nbCommitting > queue.pending.size()) && (countOperations(queue.pending) < maxBatchSize)) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0)
+					break;
+				try {
+					queues.wait(remaining);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+			
+			Set<StorageKey> batchKeys = new HashSet<StorageKey>();
+			int batchSize = 0;
+			while (! queue.pending.isEmpty()) {
+				Request next = queue.pending.getFirst();
+				if ((batch.size() != 0) && ((batchSize + next.operations.size() > maxBatchSize) || (! isDisjoint(next.operations, batchKeys))))
+					break;
+				
+				for (StorageOperation operation : next.operations)
+					batchKeys.add(operation.getKey());
+				batchSize += next.operations.size();
+				batch.add(queue.pending.removeFirst());
+			}
+		}
+		
+		commit(batch);
+		
+		Request nextLeader = null;
+		synchronized (queues) {
+			if (queue.pending.isEmpty())
+				queues.remove(majorPath);
+			else
+				nextLeader = queue.pending.getFirst();
+		}
+		
+		for (Request request : batch) {
+			synchronized (request) {
+				request.isDone = true;
+				request.notifyAll();
+			}
+		}
+		if (nextLeader != null) {
+			synchronized (nextLeader) {
+				nextLeader.isLeader = true;
+				nextLeader.notifyAll();
+			}
+		}
+	}
+	
+	private void commit(List<Request> batch) {
+		nbBatches.addAndGet(batch.size());
+		if (batch.size() == 1) {
+			commitAlone(batch.get(0));
+			return;
+		}
+		
+		List<StorageOperation> operations = new ArrayList<StorageOperation>();
+		for (Request request : batch)
+			operations.addAll(request.operations);
+		
+		List<StorageOperationResult> results;
+		try {
+			nbStoreBatches.incrementAndGet();
+			results = store.execute(operations);
+		} catch (Exception e) {
+			//find out which batches fail
+			for (Request request : batch)
+				commitAlone(request);
+			return;
+		}
+		
+		int position = 0;
+		for (Request request : batch) {
+			request.results = new ArrayList<StorageOperationResult>(results.subList(position, position + request.operations.size()));
+			position += request.operations.size();
+		}
+	}
+	
+	private void commitAlone(Request request) {
+		try {
+			nbStoreBatches.incrementAndGet();
+			request.results = store.execute(request.operations);
+		} catch (StorageExecutionException e) {
+			request.failure = e;
+		} catch (RuntimeException e) {
+			request.failure = e;
+		}
+	}
+	
+	private static boolean isDisjoint(List<StorageOperation> operations, Set<StorageKey> keys) {
+		for (StorageOperation operation : operations) {
+			if (keys.contains(operation.getKey()))
+				return false;
+		}
+		return true;
+	}
+	
+	private static int countOperations(List<Request> requests) {
+		int nbOperations = 0;
+		for (Request request : requests)
+			nbOperations += request.operations.size();
+		return nbOperations;
+	}
+}
@@ -0,0 +1,216 @@
+package storage;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import oracle.kv.Direction;
+import oracle.kv.FaultException;
+import oracle.kv.KVStore;
+import oracle.kv.KVStoreConfig;
+import oracle.kv.KVStoreFactory;
+import oracle.kv.Key;
+import oracle.kv.KeyRange;
+import oracle.kv.KeyValueVersion;
+import oracle.kv.OperationExecutionException;
+import oracle.kv.OperationFactory;
+import oracle.kv.ReturnValueVersion;
+import oracle.kv.Value;
+import oracle.kv.ValueVersion;
+import oracle.kv.Version;
+
+/**
+ * Storage engine backed by an Oracle NoSQL KVStore
+ * @author 2600705
+ *
+ */
+public class KVStoreEngine implements StorageEngine {
+	private KVStore store;
+	
+	public KVStoreEngine(String storeName, String hostName, String hostPort) {
+		store = KVStoreFactory.getStore(new KVStoreConfig(storeName, hostName + ":" + hostPort));
+	}
+	
+	public KVStoreEngine(KVStore store) {
+		this.store = store;
+	}
+	
+	
+	@Override
+	public StoredValue get(StorageKey key) {
+		try {
+			return toStoredValue(store.get(toKey(key)));
+		} catch (FaultException e) {
+			throw new StorageFaultException("get " + key + " failed", e);
+		}
+	}
+
+	@Override
+	public SortedMap<StorageKey, StoredValue> multiGet(StorageKey parentKey, StorageRange range) {
+		SortedMap<StorageKey, StoredValue> result = new TreeMap<StorageKey, StoredValue>();
+		try {
+			for (Entry<Key, ValueVersion> entry : store.multiGet(toKey(parentKey), toKeyRange(range), null).entrySet()) {
+				result.put(toStorageKey(entry.getKey()), toStoredValue(entry.getValue()));
+			}
+		} catch (FaultException e) {
+			throw new StorageFaultException("multiGet " + parentKey + " failed", e);
+		}
+		
+		return result;
+	}
+
+	@Override
+	public SortedSet<StorageKey> multiGetKeys(StorageKey parentKey, StorageRange range) {
+		SortedSet<StorageKey> result = new TreeSet<StorageKey>();
+		try {
+			for (Key key : store.multiGetKeys(toKey(parentKey), toKeyRange(range), null)) {
+				result.add(toStorageKey(key));
+			}
+		} catch (FaultException e) {
+			throw new StorageFaultException("multiGetKeys " + parentKey + " failed", e);
+		}
+		
+		return result;
+	}
+
+	@Override
+	public Iterator<Entry<StorageKey, StoredValue>> multiGetIterator(final StorageKey parentKey, StorageRange range, int batchSize) {
+		final Iterator<KeyValueVersion> iterator;
+		try {
+			iterator = store.multiGetIterator(Direction.FORWARD, batchSize, toKey(parentKey), toKeyRange(range), null);
+		} catch (FaultException e) {
+			throw new StorageFaultException("multiGetIterator " + parentKey + " failed", e);
+		}
+		
+		return new Iterator<Entry<StorageKey, StoredValue>>() {
+			@Override
+			public boolean hasNext() {
+				try {
+					return iterator.hasNext();
+				} catch (FaultException e) {
+					throw new StorageFaultException("multiGetIterator " + parentKey + " failed", e);
+				}
+			}
+
+			@Override
+			public Entry<StorageKey, StoredValue> next() {
+				try {
+					KeyValueVersion keyValue = iterator.next();
+					return new SimpleImmutableEntry<StorageKey, StoredValue>(toStorageKey(keyValue.getKey()), 
+							new StoredValue(keyValue.getValue().getValue(), toStorageVersion(keyValue.getVersion())));
+				} catch (FaultException e) {
+					throw new StorageFaultException("multiGetIterator " + parentKey + " failed", e);
+				}
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	@Override
+	public List<StorageOperationResult> execute(List<StorageOperation> operations) throws StorageExecutionException {
+		OperationFactory operationFactory = store.getOperationFactory();
+		List<oracle.kv.Operation> kvOperations = new ArrayList<oracle.kv.Operation>(operations.size());
+		
+		for (StorageOperation operation : operations) {
+			switch (operation.getType()) {
+			case PUT:
+				kvOperations.add(operationFactory.createPut(toKey(operation.getKey()), Value.createValue(operation.getValue())));
+				break;
+			case PUT_IF_VERSION:
+				kvOperations.add(operationFactory.createPutIfVersion(toKey(operation.getKey()), Value.createValue(operation.getValue()), 
+						Version.fromByteArray(operation.getMatchVersion().toByteArray()), ReturnValueVersion.Choice.NONE, true));
+				break;
+			case PUT_IF_ABSENT:
+				kvOperations.add(operationFactory.createPutIfAbsent(toKey(operation.getKey()), Value.createValue(operation.getValue()), 
+						ReturnValueVersion.Choice.NONE, true));
+				break;
+			case DELETE:
+				kvOperations.add(operationFactory.createDelete(toKey(operation.getKey())));
+				break;
+			}
+		}
+		
+		try {
+			List<StorageOperationResult> result = new ArrayList<StorageOperationResult>(operations.size());
+			for (oracle.kv.OperationResult kvResult : store.execute(kvOperations)) {
+				result.add(new StorageOperationResult(kvResult.getSuccess(), toStorageVersion(kvResult.getNewVersion())));
+			}
+			return result;
+		} catch (OperationExecutionException e) {
+			throw new StorageExecutionException("batch aborted", e.getFailedOperationIndex(), e);
+		} catch (FaultException e) {
+			throw new StorageFaultException("execute failed", e);
+		}
+	}
+
+	@Override
+	public StorageVersion put(StorageKey key, byte[] value) {
+		try {
+			return toStorageVersion(store.put(toKey(key), Value.createValue(value)));
+		} catch (FaultException e) {
+			throw new StorageFaultException("put " + key + " failed", e);
+		}
+	}
+
+	@Override
+	public boolean delete(StorageKey key) {
+		try {
+			return store.delete(toKey(key));
+		} catch (FaultException e) {
+			throw new StorageFaultException("delete " + key + " failed", e);
+		}
+	}
+
+	@Override
+	public int deleteRange(StorageKey parentKey, StorageRange range) {
+		try {
+			return store.multiDelete(toKey(parentKey), toKeyRange(range), null);
+		} catch (FaultException e) {
+			throw new StorageFaultException("deleteRange " + parentKey + " failed", e);
+		}
+	}
+
+	@Override
+	public void close() {
+		store.close();
+	}
+	
+	
+	private static Key toKey(StorageKey key) {
+		return Key.createKey(key.getMajorPath(), key.getMinorPath());
+	}
+	
+	private static StorageKey toStorageKey(Key key) {
+		return StorageKey.createKey(key.getMajorPath(), key.getMinorPath());
+	}
+	
+	private static KeyRange toKeyRange(StorageRange range) {
+		if (range == null)
+			return null;
+		if (range.isPrefix())
+			return new KeyRange(range.getPrefix());
+		return new KeyRange(range.getStart(), range.isStartInclusive(), range.getEnd(), range.isEndInclusive());
+	}
+	
+	private static StoredValue toStoredValue(ValueVersion valueVersion) {
+		if (valueVersion == null)
+			return null;
+		return new StoredValue(valueVersion.getValue().getValue(), toStorageVersion(valueVersion.getVersion()));
+	}
+	
+	private static StorageVersion toStorageVersion(Version version) {
+		if (version == null)
+			return null;
+		return new StorageVersion(version.toByteArray());
+	}
+}
@@ -0,0 +1,196 @@
+package storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log written through memory mapped regions of a file.
+ * record : magic | payload length | crc32 of payload | payload
+ * 
+ * the file is extended by whole regions, the end of the log is the first invalid record. 
+ * A region is unmapped as soon as the log moves to the next one, the file is cut after the last record on close
+ * @author 2600705
+ *
+ */
+class MappedLog {
+	private static final int MAGIC = 0x4B56444C;
+	private static final int HEADER_SIZE = 12;
+	private static final long REGION_SIZE = 64L * 1024 * 1024;
+	
+	interface RecordHandler {
+		void handle(ByteBuffer payload) throws IOException;
+	}
+	
+	private RandomAccessFile randomAccessFile;
+	private FileChannel channel;
+	private MappedByteBuffer region;
+	private long regionStart;
+	private long end = 0;
+	private boolean sync;
+	
+	
+	MappedLog(File file, boolean sync) throws IOException {
+		this.sync = sync;
+		randomAccessFile = new RandomAccessFile(file, "rw");
+		channel = randomAccessFile.getChannel();
+	}
+	
+	
+	/**
+	 * read every valid record from the beginning of the file, appends will follow the last one
+	 * @param handler can be null
+	 * @throws IOException
+	 */
+	void replay(RecordHandler handler) throws IOException {
+		end = readRecords(0, channel.size(), handler);
+		unmapRegion();
+	}
+	
+	/**
+	 * appends will follow the first end bytes of the file, which are known to hold valid records
+	 */
+	void resume(long end) {
+		this.end = end;
+		unmapRegion();
+	}
+	
+	/**
+	 * append to target the records between from and the end of this log
+	 * @return end of the copied records
+	 * @throws IOException
+	 */
+	long copyTo(final MappedLog target, long from) throws IOException {
+		return readRecords(from, end, new RecordHandler() {
+			@Override
+			public void handle(ByteBuffer payload) throws IOException {
+				target.append(payload.array());
+			}
+		});
+	}
+	
+	/**
+	 * @return end of the last valid record
+	 */
+	private long readRecords(long from, long size, RecordHandler handler) throws IOException {
+		long position = from;
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		CRC32 crc = new CRC32();
+		
+		while (position + HEADER_SIZE <= size) {
+			header.clear();
+			readFully(header, position);
+			header.flip();
+			int magic = header.getInt();
+			int length = header.getInt();
+			int checksum = header.getInt();
+			
+			if ((magic != MAGIC) || (length < 0) || (position + HEADER_SIZE + length > size))
+				break;
+			
+			ByteBuffer payload = ByteBuffer.allocate(length);
+			readFully(payload, position + HEADER_SIZE);
+			crc.reset();
+			crc.update(payload.array(), 0, length);
+			if ((int) crc.getValue() != checksum)
+				break;
+			
+			payload.flip();
+			if (handler != null)
+				handler.handle(payload);
+			position += HEADER_SIZE + length;
+		}
+		
+		return position;
+	}
+	
+	private void readFully(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position);
+			if (read < 0)
+				throw new IOException("unexpected end of log");
+			position += read;
+		}
+	}
+	
+	
+	void append(byte[] payload) throws IOException {
+		int size = HEADER_SIZE + payload.length;
+		if ((region == null) || (end + size > regionStart + region.capacity())) {
+			if ((region != null) && (! sync))
+				region.force();
+			unmapRegion();
+			regionStart = end;
+			region = channel.map(FileChannel.MapMode.READ_WRITE, regionStart, Math.max(REGION_SIZE, size));
+		}
+		
+		CRC32 crc = new CRC32();
+		crc.update(payload, 0, payload.length);
+		
+		region.position((int) (end - regionStart));
+		region.putInt(MAGIC);
+		region.putInt(payload.length);
+		region.putInt((int) crc.getValue());
+		region.put(payload);
+		if (sync)
+			region.force();
+		
+		end += size;
+	}
+	
+	long size() {
+		return end;
+	}
+	
+	/**
+	 * the zeros of the last region are cut, the mapping and the file are released
+	 */
+	void close() throws IOException {
+		try {
+			if (region != null) {
+				region.force();
+				unmapRegion();
+				channel.truncate(end);
+			}
+		} finally {
+			channel.close();
+			randomAccessFile.close();
+		}
+	}
+	
+	private void unmapRegion() {
+		if (region != null)
+			unmap(region);
+		region = null;
+	}
+	
+	/**
+	 * release the mapping now instead of when the buffer is collected, the buffer must not be used anymore
+	 */
+	private static void unmap(MappedByteBuffer buffer) {
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			try {
+				//java 9 and later
+				Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+				Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+				theUnsafe.setAccessible(true);
+				invokeCleaner.invoke(theUnsafe.get(null), buffer);
+			} catch (NoSuchMethodException e) {
+				//java 7 and 8
+				Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+				cleanerMethod.setAccessible(true);
+				Object cleaner = cleanerMethod.invoke(buffer);
+				cleaner.getClass().getMethod("clean").invoke(cleaner);
+			}
+		} catch (Exception e) {
+			//the mapping is released when the buffer is collected
+		}
+	}
+}
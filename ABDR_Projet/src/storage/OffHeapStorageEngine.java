@@ -0,0 +1,783 @@
+package storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Embedded storage engine, no external store needed.
+ * 
+ * 	- values are kept outside of the java heap in direct memory segments, only the key index is on heap
+ * 	- every batch is appended to a memory mapped log before being applied, the log is replayed 
+ * 		at startup and rewritten (checkpoint) when it holds too many dead entries
+ * 	- compaction and checkpoint run on a background thread : live data is copied chunk by chunk under the read lock, 
+ * 		writers are only blocked while a chunk is copied and while the copies are swapped in
+ * 	- without log file, the engine is memory only (cache tier, tests)
+ * 
+ * batches are atomic and isolated : one writer at a time, readers never see a half applied batch
+ * 
+ * @author 2600705
+ *
+ */
+public class OffHeapStorageEngine implements StorageEngine {
+	private static final int SEGMENT_SIZE = 8 * 1024 * 1024;
+	private static final long MIN_CHECKPOINT_SIZE = 64L * 1024 * 1024;
+	private static final int CHECKPOINT_BATCH_SIZE = 4 * 1024 * 1024;
+	//estimated log overhead of an entry besides its value
+	private static final int ENTRY_OVERHEAD = 48;
+	private static final byte PUT = 1;
+	private static final byte DELETE = 2;
+	
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	private final TreeMap<StorageKey, Slot> index = new TreeMap<StorageKey, Slot>();
+	private final List<Segment> segments = new ArrayList<Segment>();
+	private Segment currentSegment;
+	private long liveBytes = 0;
+	private long allocatedBytes = 0;
+	private long nextVersion = 1;
+	
+	private File logFile;
+	private MappedLog log;
+	private boolean sync;
+	
+	//thread of the running compaction or checkpoint
+	private Thread maintainer;
+	private volatile boolean isClosing = false;
+	//segment the compaction copies values to, it is not released while empty
+	private Segment compactionSegment;
+	
+	
+	private static class Segment {
+		private ByteBuffer buffer;
+		private int used = 0;
+		private int live = 0;
+		
+		private Segment(int capacity) {
+			buffer = ByteBuffer.allocateDirect(capacity);
+		}
+	}
+	
+	private static class Slot {
+		private Segment segment;
+		private int offset;
+		private int length;
+		private long version;
+	}
+	
+	
+	/**
+	 * memory only engine
+	 */
+	public OffHeapStorageEngine() {
+	}
+	
+	public OffHeapStorageEngine(File logFile) {
+		this(logFile, false);
+	}
+	
+	/**
+	 * @param logFile log to replay and append to
+	 * @param sync force the log to disk after every batch
+	 */
+	public OffHeapStorageEngine(File logFile, boolean sync) {
+		this.logFile = logFile;
+		this.sync = sync;
+		
+		try {
+			log = new MappedLog(logFile, sync);
+			log.replay(new MappedLog.RecordHandler() {
+				@Override
+				public void handle(ByteBuffer payload) {
+					replayBatch(payload);
+				}
+			});
+		} catch (IOException e) {
+			throw new StorageFaultException("cannot open log " + logFile, e);
+		}
+	}
+	
+	
+	@Override
+	public StoredValue get(StorageKey key) {
+		lock.readLock().lock();
+		try {
+			Slot slot = index.get(key);
+			if (slot == null)
+				return null;
+			return read(slot);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public SortedMap<StorageKey, StoredValue> multiGet(StorageKey parentKey, StorageRange range) {
+		SortedMap<StorageKey, StoredValue> result = new TreeMap<StorageKey, StoredValue>();
+		lock.readLock().lock();
+		try {
+			for (Entry<StorageKey, Slot> entry : descendants(parentKey, range)) {
+				result.put(entry.getKey(), read(entry.getValue()));
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		
+		return result;
+	}
+
+	@Override
+	public SortedSet<StorageKey> multiGetKeys(StorageKey parentKey, StorageRange range) {
+		SortedSet<StorageKey> result = new TreeSet<StorageKey>();
+		lock.readLock().lock();
+		try {
+			for (Entry<StorageKey, Slot> entry : descendants(parentKey, range)) {
+				result.add(entry.getKey());
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		
+		return result;
+	}
+
+	/**
+	 * the read lock is only held while a batch is read, a batch begins after the last key of
+	 * the previous one so writes between batches are seen or not, like with a KVStore iterator
+	 */
+	@Override
+	public Iterator<Entry<StorageKey, StoredValue>> multiGetIterator(final StorageKey parentKey, final StorageRange range, final int batchSize) {
+		return new Iterator<Entry<StorageKey, StoredValue>>() {
+			private Iterator<Entry<StorageKey, StoredValue>> batch = Collections.emptyIterator();
+			private StorageKey lastKey = null;
+			private boolean isLastBatch = false;
+			
+			@Override
+			public boolean hasNext() {
+				if ((! batch.hasNext()) && (! isLastBatch))
+					fetch();
+				return batch.hasNext();
+			}
+
+			@Override
+			public Entry<StorageKey, StoredValue> next() {
+				if (! hasNext())
+					throw new NoSuchElementException();
+				return batch.next();
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+			
+			private void fetch() {
+				List<Entry<StorageKey, StoredValue>> entries = new ArrayList<Entry<StorageKey, StoredValue>>(batchSize);
+				lock.readLock().lock();
+				try {
+					for (Entry<StorageKey, Slot> entry : descendants(parentKey, range, lastKey, batchSize)) {
+						entries.add(new SimpleImmutableEntry<StorageKey, StoredValue>(entry.getKey(), read(entry.getValue())));
+					}
+				} finally {
+					lock.readLock().unlock();
+				}
+				
+				isLastBatch = (entries.size() < batchSize);
+				if (entries.size() != 0)
+					lastKey = entries.get(entries.size() - 1).getKey();
+				batch = entries.iterator();
+			}
+		};
+	}
+
+	@Override
+	public List<StorageOperationResult> execute(List<StorageOperation> operations) throws StorageExecutionException {
+		lock.writeLock().lock();
+		try {
+			return internalExecute(operations);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	@Override
+	public StorageVersion put(StorageKey key, byte[] value) {
+		lock.writeLock().lock();
+		try {
+			return executeUnconditional(Collections.singletonList(StorageOperation.createPut(key, value))).get(0).getNewVersion();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public boolean delete(StorageKey key) {
+		lock.writeLock().lock();
+		try {
+			return executeUnconditional(Collections.singletonList(StorageOperation.createDelete(key))).get(0).getSuccess();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public int deleteRange(StorageKey parentKey, StorageRange range) {
+		lock.writeLock().lock();
+		try {
+			List<StorageOperation> operations = new ArrayList<StorageOperation>();
+			for (Entry<StorageKey, Slot> entry : descendants(parentKey, range)) {
+				operations.add(StorageOperation.createDelete(entry.getKey()));
+			}
+			if (operations.size() != 0)
+				executeUnconditional(operations);
+			
+			return operations.size();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void close() {
+		isClosing = true;
+		Thread runningMaintainer;
+		lock.writeLock().lock();
+		try {
+			runningMaintainer = maintainer;
+		} finally {
+			lock.writeLock().unlock();
+		}
+		if (runningMaintainer != null) {
+			try {
+				runningMaintainer.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		
+		lock.writeLock().lock();
+		try {
+			if (log != null)
+				log.close();
+			log = null;
+			index.clear();
+			segments.clear();
+			currentSegment = null;
+		} catch (IOException e) {
+			throw new StorageFaultException("cannot close log " + logFile, e);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	
+	/**
+	 * batch without conditional puts, it can't be aborted. must hold the write lock
+	 */
+	private List<StorageOperationResult> executeUnconditional(List<StorageOperation> operations) {
+		try {
+			return internalExecute(operations);
+		} catch (StorageExecutionException e) {
+			throw new IllegalStateException("unconditional batch aborted", e);
+		}
+	}
+	
+	/**
+	 * must hold the write lock
+	 */
+	private List<StorageOperationResult> internalExecute(List<StorageOperation> operations) throws StorageExecutionException {
+		List<StorageOperationResult> result = new ArrayList<StorageOperationResult>(operations.size());
+		//keys written by previous operations of the batch, version after it (null if deleted)
+		Map<StorageKey, Long> staged = new HashMap<StorageKey, Long>();
+		long[] versions = new long[operations.size()];
+		long version = nextVersion;
+		
+		for (int i = 0; i < operations.size(); i++) {
+			StorageOperation operation = operations.get(i);
+			Long currentVersion;
+			if (staged.containsKey(operation.getKey())) {
+				currentVersion = staged.get(operation.getKey());
+			}
+			else {
+				Slot slot = index.get(operation.getKey());
+				currentVersion = (slot == null) ? null : slot.version;
+			}
+			
+			//nothing is logged nor applied yet, the batch can be aborted
+			if ((operation.getType() == StorageOperation.Type.PUT_IF_ABSENT) && (currentVersion != null))
+				throw new StorageExecutionException("key " + operation.getKey() + " exists", i, null);
+			if ((operation.getType() == StorageOperation.Type.PUT_IF_VERSION) 
+					&& ((currentVersion == null) || (! toStorageVersion(currentVersion).equals(operation.getMatchVersion()))))
+				throw new StorageExecutionException("key " + operation.getKey() + " has another version", i, null);
+			
+			if (operation.isPut()) {
+				versions[i] = version++;
+				result.add(new StorageOperationResult(true, toStorageVersion(versions[i])));
+				staged.put(operation.getKey(), versions[i]);
+			}
+			else {
+				result.add(new StorageOperationResult(currentVersion != null, null));
+				staged.put(operation.getKey(), null);
+			}
+		}
+		
+		if (log != null) {
+			try {
+				log.append(encodeBatch(operations, versions));
+			} catch (IOException e) {
+				throw new StorageFaultException("cannot append to log " + logFile, e);
+			}
+		}
+		
+		for (int i = 0; i < operations.size(); i++) {
+			StorageOperation operation = operations.get(i);
+			if (operation.isPut())
+				apply(operation.getKey(), operation.getValue(), versions[i]);
+			else
+				remove(operation.getKey());
+		}
+		nextVersion = version;
+		
+		startMaintenanceIfNeeded();
+		
+		return result;
+	}
+	
+	private void apply(StorageKey key, byte[] value, long version) {
+		Slot slot = allocate(value.length);
+		ByteBuffer buffer = slot.segment.buffer.duplicate();
+		buffer.position(slot.offset);
+		buffer.put(value);
+		slot.version = version;
+		
+		Slot oldSlot = index.put(key, slot);
+		if (oldSlot != null)
+			free(oldSlot);
+	}
+	
+	private void remove(StorageKey key) {
+		Slot oldSlot = index.remove(key);
+		if (oldSlot != null)
+			free(oldSlot);
+	}
+	
+	private StoredValue read(Slot slot) {
+		byte[] value = new byte[slot.length];
+		ByteBuffer buffer = slot.segment.buffer.duplicate();
+		buffer.position(slot.offset);
+		buffer.get(value);
+		
+		return new StoredValue(value, toStorageVersion(slot.version));
+	}
+	
+	/**
+	 * parent key and its descendants, in key order
+	 */
+	private List<Entry<StorageKey, Slot>> descendants(StorageKey parentKey, StorageRange range) {
+		return descendants(parentKey, range, null, 0);
+	}
+	
+	/**
+	 * parent key and its descendants after afterKey (null = from the beginning), at most limit entries (0 = no limit)
+	 */
+	private List<Entry<StorageKey, Slot>> descendants(StorageKey parentKey, StorageRange range, StorageKey afterKey, int limit) {
+		List<Entry<StorageKey, Slot>> result = new ArrayList<Entry<StorageKey, Slot>>();
+		int depth = parentKey.getMinorPath().size();
+		StorageKey fromKey = parentKey;
+		
+		//children are contiguous, jump to the beginning of the range
+		if ((range != null) && (range.getStart() != null)) {
+			List<String> minorPath = new ArrayList<String>(parentKey.getMinorPath());
+			minorPath.add(range.getStart());
+			fromKey = StorageKey.createKey(parentKey.getMajorPath(), minorPath);
+		}
+		
+		SortedMap<StorageKey, Slot> tail = index.tailMap(fromKey, true);
+		if ((afterKey != null) && (afterKey.compareTo(fromKey) >= 0))
+			tail = index.tailMap(afterKey, false);
+		
+		for (Entry<StorageKey, Slot> entry : tail.entrySet()) {
+			if ((limit > 0) && (result.size() == limit))
+				break;
+			StorageKey key = entry.getKey();
+			if (! parentKey.isParentOf(key))
+				break;
+			
+			if (range != null) {
+				if (key.getMinorPath().size() == depth)
+					continue;
+				String component = key.getMinorPath().get(depth);
+				if (range.isAfter(component))
+					break;
+				if (! range.inRange(component))
+					continue;
+			}
+			result.add(entry);
+		}
+		
+		return result;
+	}
+	
+	
+	private Slot allocate(int length) {
+		if ((currentSegment == null) || (currentSegment.buffer.capacity() - currentSegment.used < length)) {
+			if ((currentSegment != null) && (currentSegment.live == 0))
+				releaseSegment(currentSegment);
+			currentSegment = new Segment(Math.max(SEGMENT_SIZE, length));
+			segments.add(currentSegment);
+			allocatedBytes += currentSegment.buffer.capacity();
+		}
+		
+		Slot slot = new Slot();
+		slot.segment = currentSegment;
+		slot.offset = currentSegment.used;
+		slot.length = length;
+		currentSegment.used += length;
+		currentSegment.live += length;
+		liveBytes += length;
+		
+		return slot;
+	}
+	
+	private void free(Slot slot) {
+		slot.segment.live -= slot.length;
+		liveBytes -= slot.length;
+		if ((slot.segment.live == 0) && (slot.segment != currentSegment) && (slot.segment != compactionSegment))
+			releaseSegment(slot.segment);
+	}
+	
+	private void releaseSegment(Segment segment) {
+		segments.remove(segment);
+		allocatedBytes -= segment.buffer.capacity();
+	}
+	
+	/**
+	 * start a compaction or a checkpoint in background, unless one is running. must hold the write lock
+	 */
+	private void startMaintenanceIfNeeded() {
+		if (isClosing || ((maintainer != null) && maintainer.isAlive()) || ((! isCompactionNeeded()) && (! isCheckpointNeeded())))
+			return;
+		
+		maintainer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				compact();
+				try {
+					checkpoint();
+				} catch (IOException e) {
+					System.err.println("checkpoint of " + logFile + " failed : " + e);
+				}
+			}
+		}, "OffHeapStorageEngine maintenance");
+		maintainer.setDaemon(true);
+		maintainer.start();
+	}
+	
+	/**
+	 * more than half of the off heap memory is dead
+	 */
+	private boolean isCompactionNeeded() {
+		return allocatedBytes > (2 * liveBytes) + (2L * SEGMENT_SIZE);
+	}
+	
+	/**
+	 * the log is much bigger than the data
+	 */
+	private boolean isCheckpointNeeded() {
+		if (log == null)
+			return false;
+		long liveLogSize = liveBytes + ((long) index.size() * ENTRY_OVERHEAD);
+		return log.size() > Math.max(MIN_CHECKPOINT_SIZE, 4 * liveLogSize);
+	}
+	
+	/**
+	 * copy the live values of the segments at least half dead into new segments. Values are copied chunk by chunk 
+	 * under the read lock, then their slots are swapped to the copies under the write lock if they were not 
+	 * written meanwhile
+	 */
+	private void compact() {
+		Set<Segment> sparseSegments = new HashSet<Segment>();
+		lock.readLock().lock();
+		try {
+			if (! isCompactionNeeded())
+				return;
+			for (Segment segment : segments) {
+				if ((segment != currentSegment) && (2 * segment.live <= segment.buffer.capacity()))
+					sparseSegments.add(segment);
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		
+		StorageKey lastKey = null;
+		boolean isLastChunk = false;
+		while ((! isLastChunk) && (! isClosing)) {
+			List<StorageKey> keys = new ArrayList<StorageKey>();
+			List<Slot> slots = new ArrayList<Slot>();
+			List<Slot> copies = new ArrayList<Slot>();
+			int chunkSize = 0;
+			
+			lock.readLock().lock();
+			try {
+				SortedMap<StorageKey, Slot> tail = (lastKey == null) ? index : index.tailMap(lastKey, false);
+				isLastChunk = true;
+				for (Entry<StorageKey, Slot> entry : tail.entrySet()) {
+					if (chunkSize >= CHECKPOINT_BATCH_SIZE) {
+						isLastChunk = false;
+						break;
+					}
+					lastKey = entry.getKey();
+					chunkSize += ENTRY_OVERHEAD;
+					if (! sparseSegments.contains(entry.getValue().segment))
+						continue;
+					
+					keys.add(entry.getKey());
+					slots.add(entry.getValue());
+					copies.add(copy(entry.getValue()));
+					chunkSize += entry.getValue().length;
+				}
+			} finally {
+				lock.readLock().unlock();
+			}
+			
+			lock.writeLock().lock();
+			try {
+				for (int i = 0; i < keys.size(); i++) {
+					//a value written since its copy stays in its new slot, the copy is dead
+					if (index.get(keys.get(i)) == slots.get(i))
+						move(slots.get(i), copies.get(i));
+				}
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+		
+		lock.writeLock().lock();
+		try {
+			if ((compactionSegment != null) && (compactionSegment.live == 0) && segments.contains(compactionSegment))
+				releaseSegment(compactionSegment);
+			compactionSegment = null;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * copy of the value of a slot in the compaction segment, the copy is not live yet. must hold the read lock
+	 */
+	private Slot copy(Slot slot) {
+		if ((compactionSegment == null) || (compactionSegment.buffer.capacity() - compactionSegment.used < slot.length))
+			compactionSegment = new Segment(Math.max(SEGMENT_SIZE, slot.length));
+		
+		Slot copy = new Slot();
+		copy.segment = compactionSegment;
+		copy.offset = compactionSegment.used;
+		copy.length = slot.length;
+		compactionSegment.used += slot.length;
+		
+		ByteBuffer source = slot.segment.buffer.duplicate();
+		source.position(slot.offset);
+		source.limit(slot.offset + slot.length);
+		ByteBuffer destination = copy.segment.buffer.duplicate();
+		destination.position(copy.offset);
+		destination.put(source);
+		
+		return copy;
+	}
+	
+	/**
+	 * point a slot to its copy, must hold the write lock
+	 */
+	private void move(Slot slot, Slot copy) {
+		if (! segments.contains(copy.segment)) {
+			segments.add(copy.segment);
+			allocatedBytes += copy.segment.buffer.capacity();
+		}
+		Segment oldSegment = slot.segment;
+		slot.segment = copy.segment;
+		slot.offset = copy.offset;
+		copy.segment.live += slot.length;
+		
+		oldSegment.live -= slot.length;
+		if ((oldSegment.live == 0) && (oldSegment != currentSegment) && (oldSegment != compactionSegment))
+			releaseSegment(oldSegment);
+	}
+	
+	
+	/**
+	 * rewrite the log with live entries only. Entries are written chunk by chunk under the read lock, the batches
+	 * committed meanwhile are copied after them from the log, the last ones under the write lock with the swap of the logs
+	 * @throws IOException 
+	 */
+	private void checkpoint() throws IOException {
+		long copiedEnd;
+		lock.readLock().lock();
+		try {
+			if (isClosing || (! isCheckpointNeeded()))
+				return;
+			//batches after it are not in the entries read
+			copiedEnd = log.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+		
+		File checkpointFile = new File(logFile.getPath() + ".checkpoint");
+		Files.deleteIfExists(checkpointFile.toPath());
+		MappedLog checkpoint = new MappedLog(checkpointFile, false);
+		boolean isSwapped = false;
+		try {
+			checkpoint.replay(null);
+			
+			StorageKey lastKey = null;
+			boolean isLastChunk = false;
+			while (! isLastChunk) {
+				if (isClosing)
+					return;
+				List<StorageOperation> operations = new ArrayList<StorageOperation>();
+				List<Long> versions = new ArrayList<Long>();
+				int batchSize = 0;
+				
+				lock.readLock().lock();
+				try {
+					SortedMap<StorageKey, Slot> tail = (lastKey == null) ? index : index.tailMap(lastKey, false);
+					isLastChunk = true;
+					for (Entry<StorageKey, Slot> entry : tail.entrySet()) {
+						if (batchSize >= CHECKPOINT_BATCH_SIZE) {
+							isLastChunk = false;
+							break;
+						}
+						lastKey = entry.getKey();
+						operations.add(StorageOperation.createPut(entry.getKey(), read(entry.getValue()).getValue()));
+						versions.add(entry.getValue().version);
+						batchSize += entry.getValue().length + ENTRY_OVERHEAD;
+					}
+				} finally {
+					lock.readLock().unlock();
+				}
+				
+				//an entry written after copiedEnd is written again by the copied batches
+				if (operations.size() != 0)
+					checkpoint.append(encodeBatch(operations, toArray(versions)));
+			}
+			
+			lock.readLock().lock();
+			try {
+				copiedEnd = log.copyTo(checkpoint, copiedEnd);
+			} finally {
+				lock.readLock().unlock();
+			}
+			
+			lock.writeLock().lock();
+			try {
+				if (isClosing)
+					return;
+				log.copyTo(checkpoint, copiedEnd);
+				long checkpointSize = checkpoint.size();
+				long logSize = log.size();
+				checkpoint.close();
+				log.close();
+				try {
+					Files.move(checkpointFile.toPath(), logFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+					isSwapped = true;
+				} finally {
+					//the old log is reopened if the move failed
+					log = new MappedLog(logFile, sync);
+					log.resume(isSwapped ? checkpointSize : logSize);
+				}
+			} finally {
+				lock.writeLock().unlock();
+			}
+		} finally {
+			if (! isSwapped) {
+				checkpoint.close();
+				Files.deleteIfExists(checkpointFile.toPath());
+			}
+		}
+	}
+	
+	private static long[] toArray(List<Long> list) {
+		long[] array = new long[list.size()];
+		for (int i = 0; i < array.length; i++)
+			array[i] = list.get(i);
+		return array;
+	}
+	
+	
+	/**
+	 * batch : count | (PUT | version | key | value) or (DELETE | key)
+	 */
+	private static byte[] encodeBatch(List<StorageOperation> operations, long[] versions) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream output = new DataOutputStream(bytes);
+		
+		output.writeInt(operations.size());
+		for (int i = 0; i < operations.size(); i++) {
+			StorageOperation operation = operations.get(i);
+			byte[] key = operation.getKey().toByteArray();
+			
+			if (operation.isPut()) {
+				output.writeByte(PUT);
+				output.writeLong(versions[i]);
+				output.writeInt(key.length);
+				output.write(key);
+				output.writeInt(operation.getValue().length);
+				output.write(operation.getValue());
+			}
+			else {
+				output.writeByte(DELETE);
+				output.writeInt(key.length);
+				output.write(key);
+			}
+		}
+		output.flush();
+		
+		return bytes.toByteArray();
+	}
+	
+	private void replayBatch(ByteBuffer payload) {
+		int count = payload.getInt();
+		for (int i = 0; i < count; i++) {
+			byte type = payload.get();
+			long version = 0;
+			if (type == PUT)
+				version = payload.getLong();
+			
+			byte[] key = new byte[payload.getInt()];
+			payload.get(key);
+			
+			if (type == PUT) {
+				byte[] value = new byte[payload.getInt()];
+				payload.get(value);
+				apply(StorageKey.fromByteArray(key), value, version);
+				nextVersion = Math.max(nextVersion, version + 1);
+			}
+			else {
+				remove(StorageKey.fromByteArray(key));
+			}
+		}
+	}
+	
+	
+	private static StorageVersion toStorageVersion(long version) {
+		return new StorageVersion(ByteBuffer.allocate(8).putLong(version).array());
+	}
+}
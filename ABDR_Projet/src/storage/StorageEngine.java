@@ -0,0 +1,44 @@
+package storage;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.SortedMap;
+import java.util.SortedSet;
+
+/**
+ * Storage used by a KVDB to keep its profiles.
+ * 
+ * parentKey of multi-key methods must have a complete major path, they return the parent
+ * and its descendants (same major path). range applies to the first component after the 
+ * path of parentKey, it can be null.
+ * 
+ * Can throw StorageFaultException on every call
+ * 
+ * @author 2600705
+ *
+ */
+public interface StorageEngine {
+	
+	//null if key doesn't exist
+	StoredValue get(StorageKey key);
+	
+	SortedMap<StorageKey, StoredValue> multiGet(StorageKey parentKey, StorageRange range);
+	
+	SortedSet<StorageKey> multiGetKeys(StorageKey parentKey, StorageRange range);
+	
+	//same entries as multiGet in key order, read batchSize keys at a time so they are never all in memory
+	Iterator<Entry<StorageKey, StoredValue>> multiGetIterator(StorageKey parentKey, StorageRange range, int batchSize);
+	
+	//atomic batch, all operations must share the same major path
+	List<StorageOperationResult> execute(List<StorageOperation> operations) throws StorageExecutionException;
+	
+	StorageVersion put(StorageKey key, byte[] value);
+	
+	boolean delete(StorageKey key);
+	
+	//delete the parent and its descendants in range, return the number of deleted keys
+	int deleteRange(StorageKey parentKey, StorageRange range);
+	
+	void close();
+}
@@ -0,0 +1,23 @@
+package storage;
+
+/**
+ * An operation of a batch failed and aborted the whole batch, nothing was written
+ * @author 2600705
+ *
+ */
+public class StorageExecutionException extends Exception {
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 1L;
+	private int failedOperationIndex;
+	
+	public StorageExecutionException(String message, int failedOperationIndex, Throwable cause) {
+		super(message, cause);
+		this.failedOperationIndex = failedOperationIndex;
+	}
+
+	public int getFailedOperationIndex() {
+		return failedOperationIndex;
+	}
+}
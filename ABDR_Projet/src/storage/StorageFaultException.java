@@ -0,0 +1,17 @@
+package storage;
+
+/**
+ * Transient failure of the storage (network, durability, timeout...), the request may be retried
+ * @author 2600705
+ *
+ */
+public class StorageFaultException extends RuntimeException {
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 1L;
+	
+	public StorageFaultException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
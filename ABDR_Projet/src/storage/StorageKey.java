@@ -0,0 +1,203 @@
+package storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Key of a storage engine : a major path (what is stored together) and a minor path.
+ * Keys are ordered component by component, major path first, a parent key comes before its children.
+ * @author 2600705
+ *
+ */
+public class StorageKey implements Comparable<StorageKey>, Serializable {
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 1L;
+	private static final List<String> EMPTY_PATH = Collections.emptyList();
+	
+	private final List<String> majorPath;
+	private final List<String> minorPath;
+	
+	
+	private StorageKey(List<String> majorPath, List<String> minorPath) {
+		this.majorPath = majorPath;
+		this.minorPath = minorPath;
+	}
+	
+	public static StorageKey createKey(String majorComponent) {
+		return new StorageKey(Collections.singletonList(majorComponent), EMPTY_PATH);
+	}
+	
+	public static StorageKey createKey(String majorComponent, String minorComponent) {
+		return new StorageKey(Collections.singletonList(majorComponent), Collections.singletonList(minorComponent));
+	}
+	
+	public static StorageKey createKey(String majorComponent, List<String> minorPath) {
+		return new StorageKey(Collections.singletonList(majorComponent), copy(minorPath));
+	}
+	
+	public static StorageKey createKey(List<String> majorPath) {
+		return new StorageKey(copy(majorPath), EMPTY_PATH);
+	}
+	
+	public static StorageKey createKey(List<String> majorPath, List<String> minorPath) {
+		return new StorageKey(copy(majorPath), copy(minorPath));
+	}
+	
+	/**
+	 * key with the same major path and minor components appended, the paths of this key are shared
+	 * @param component
+	 * @return
+	 */
+	public StorageKey createChildKey(String component) {
+		return new StorageKey(majorPath, append(minorPath, new String[] {component}));
+	}
+	
+	public StorageKey createChildKey(String component1, String component2) {
+		return new StorageKey(majorPath, append(minorPath, new String[] {component1, component2}));
+	}
+	
+	public StorageKey createChildKey(String component1, String component2, String component3) {
+		return new StorageKey(majorPath, append(minorPath, new String[] {component1, component2, component3}));
+	}
+	
+	private static List<String> append(List<String> path, String[] components) {
+		if (path.size() == 0)
+			return Collections.unmodifiableList(Arrays.asList(components));
+		
+		String[] newPath = new String[path.size() + components.length];
+		for (int i = 0; i < path.size(); i++)
+			newPath[i] = path.get(i);
+		System.arraycopy(components, 0, newPath, path.size(), components.length);
+		return Collections.unmodifiableList(Arrays.asList(newPath));
+	}
+	
+	private static List<String> copy(List<String> path) {
+		if ((path == null) || (path.size() == 0))
+			return EMPTY_PATH;
+		return Collections.unmodifiableList(new ArrayList<String>(path));
+	}
+	
+	
+	public List<String> getMajorPath() {
+		return majorPath;
+	}
+	
+	public List<String> getMinorPath() {
+		return minorPath;
+	}
+	
+	public List<String> getFullPath() {
+		List<String> fullPath = new ArrayList<String>(majorPath.size() + minorPath.size());
+		fullPath.addAll(majorPath);
+		fullPath.addAll(minorPath);
+		return fullPath;
+	}
+	
+	/**
+	 * true if key has the same major path and its minor path begins with the minor path of this key
+	 * @param key
+	 * @return
+	 */
+	public boolean isParentOf(StorageKey key) {
+		if ((! majorPath.equals(key.majorPath)) || (key.minorPath.size() < minorPath.size()))
+			return false;
+		return key.minorPath.subList(0, minorPath.size()).equals(minorPath);
+	}
+	
+	
+	public byte[] toByteArray() {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream output = new DataOutputStream(bytes);
+		try {
+			output.writeShort(majorPath.size());
+			for (String component : majorPath)
+				output.writeUTF(component);
+			output.writeShort(minorPath.size());
+			for (String component : minorPath)
+				output.writeUTF(component);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		
+		return bytes.toByteArray();
+	}
+	
+	public static StorageKey fromByteArray(byte[] bytes) {
+		DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes));
+		try {
+			List<String> majorPath = new ArrayList<String>();
+			for (int i = input.readShort(); i > 0; i--)
+				majorPath.add(input.readUTF());
+			List<String> minorPath = new ArrayList<String>();
+			for (int i = input.readShort(); i > 0; i--)
+				minorPath.add(input.readUTF());
+			
+			return new StorageKey(Collections.unmodifiableList(majorPath), minorPath.size() == 0 ? EMPTY_PATH : Collections.unmodifiableList(minorPath));
+		} catch (IOException e) {
+			throw new IllegalArgumentException("malformed key", e);
+		}
+	}
+	
+	
+	@Override
+	public int compareTo(StorageKey other) {
+		int result = comparePath(majorPath, other.majorPath);
+		if (result != 0)
+			return result;
+		return comparePath(minorPath, other.minorPath);
+	}
+	
+	private static int comparePath(List<String> path1, List<String> path2) {
+		int size = Math.min(path1.size(), path2.size());
+		for (int i = 0; i < size; i++) {
+			int result = path1.get(i).compareTo(path2.get(i));
+			if (result != 0)
+				return result;
+		}
+		
+		return path1.size() - path2.size();
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + majorPath.hashCode();
+		result = prime * result + minorPath.hashCode();
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		StorageKey other = (StorageKey) obj;
+		return majorPath.equals(other.majorPath) && minorPath.equals(other.minorPath);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		for (String component : majorPath)
+			builder.append('/').append(component);
+		if (minorPath.size() != 0)
+			builder.append("/-");
+		for (String component : minorPath)
+			builder.append('/').append(component);
+		return builder.toString();
+	}
+}
@@ -0,0 +1,74 @@
+package storage;
+
+/**
+ * Single write of an atomic batch executed by StorageEngine.execute
+ * 
+ * conditional puts (PUT_IF_VERSION, PUT_IF_ABSENT) abort the whole batch when their condition 
+ * is not met, StorageEngine.execute then throws a StorageExecutionException with their index
+ * @author 2600705
+ *
+ */
+public class StorageOperation {
+	public enum Type {
+		PUT,
+		PUT_IF_VERSION,
+		PUT_IF_ABSENT,
+		DELETE
+	}
+	
+	private Type type;
+	private StorageKey key;
+	private byte[] value;
+	private StorageVersion matchVersion;
+	
+	private StorageOperation(Type type, StorageKey key, byte[] value, StorageVersion matchVersion) {
+		this.type = type;
+		this.key = key;
+		this.value = value;
+		this.matchVersion = matchVersion;
+	}
+	
+	public static StorageOperation createPut(StorageKey key, byte[] value) {
+		return new StorageOperation(Type.PUT, key, value, null);
+	}
+	
+	//put only if the current version of the key is matchVersion
+	public static StorageOperation createPutIfVersion(StorageKey key, byte[] value, StorageVersion matchVersion) {
+		return new StorageOperation(Type.PUT_IF_VERSION, key, value, matchVersion);
+	}
+	
+	//put only if the key doesn't exist
+	public static StorageOperation createPutIfAbsent(StorageKey key, byte[] value) {
+		return new StorageOperation(Type.PUT_IF_ABSENT, key, value, null);
+	}
+	
+	public static StorageOperation createDelete(StorageKey key) {
+		return new StorageOperation(Type.DELETE, key, null, null);
+	}
+	
+	
+	public Type getType() {
+		return type;
+	}
+
+	public StorageKey getKey() {
+		return key;
+	}
+
+	public byte[] getValue() {
+		return value;
+	}
+
+	public StorageVersion getMatchVersion() {
+		return matchVersion;
+	}
+	
+	public boolean isPut() {
+		return type != Type.DELETE;
+	}
+
+	@Override
+	public String toString() {
+		return "StorageOperation [type=" + type + ", key=" + key + "]";
+	}
+}
@@ -0,0 +1,26 @@
+package storage;
+
+/**
+ * Result of one operation of a batch
+ * 	- put : success + new version of the key
+ * 	- delete : success if the key existed
+ * @author 2600705
+ *
+ */
+public class StorageOperationResult {
+	private boolean success;
+	private StorageVersion newVersion;
+	
+	public StorageOperationResult(boolean success, StorageVersion newVersion) {
+		this.success = success;
+		this.newVersion = newVersion;
+	}
+
+	public boolean getSuccess() {
+		return success;
+	}
+
+	public StorageVersion getNewVersion() {
+		return newVersion;
+	}
+}
@@ -0,0 +1,95 @@
+package storage;
+
+import java.io.Serializable;
+
+/**
+ * Range over the component following the path of a parent key.
+ * Either a prefix, or bounds (null bound = unbounded)
+ * @author 2600705
+ *
+ */
+public class StorageRange implements Serializable {
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 1L;
+	private String prefix;
+	private String start;
+	private boolean startInclusive;
+	private String end;
+	private boolean endInclusive;
+	
+	public StorageRange(String prefix) {
+		this.prefix = prefix;
+		this.start = prefix;
+		this.startInclusive = true;
+	}
+	
+	public StorageRange(String start, boolean startInclusive, String end, boolean endInclusive) {
+		this.start = start;
+		this.startInclusive = startInclusive;
+		this.end = end;
+		this.endInclusive = endInclusive;
+	}
+	
+	
+	public String getPrefix() {
+		return prefix;
+	}
+
+	public String getStart() {
+		return start;
+	}
+
+	public boolean isStartInclusive() {
+		return startInclusive;
+	}
+
+	public String getEnd() {
+		return end;
+	}
+
+	public boolean isEndInclusive() {
+		return endInclusive;
+	}
+
+	public boolean isPrefix() {
+		return prefix != null;
+	}
+	
+	
+	public boolean inRange(String component) {
+		if (prefix != null)
+			return component.startsWith(prefix);
+		
+		if (start != null) {
+			int result = component.compareTo(start);
+			if ((result < 0) || ((result == 0) && (! startInclusive)))
+				return false;
+		}
+		
+		return ! isAfter(component);
+	}
+	
+	/**
+	 * true if component and every component greater than it are out of the range
+	 * @param component
+	 * @return
+	 */
+	public boolean isAfter(String component) {
+		if (prefix != null)
+			return (component.compareTo(prefix) > 0) && (! component.startsWith(prefix));
+		
+		if (end == null)
+			return false;
+		int result = component.compareTo(end);
+		return (result > 0) || ((result == 0) && (! endInclusive));
+	}
+
+	@Override
+	public String toString() {
+		if (prefix != null)
+			return "StorageRange [prefix=" + prefix + "]";
+		return "StorageRange [" + (startInclusive ? "[" : "]") + start + ", " + end + (endInclusive ? "]" : "[") + "]";
+	}
+}
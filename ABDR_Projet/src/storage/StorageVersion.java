@@ -0,0 +1,47 @@
+package storage;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Opaque version of a stored value, changes on every write of the key
+ * @author 2600705
+ *
+ */
+public class StorageVersion implements Serializable {
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 1L;
+	private byte[] bytes;
+	
+	public StorageVersion(byte[] bytes) {
+		this.bytes = bytes;
+	}
+	
+	public byte[] toByteArray() {
+		return bytes;
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(bytes);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		StorageVersion other = (StorageVersion) obj;
+		return Arrays.equals(bytes, other.bytes);
+	}
+
+	@Override
+	public String toString() {
+		return "StorageVersion " + Arrays.toString(bytes);
+	}
+}
@@ -0,0 +1,24 @@
+package storage;
+
+/**
+ * value + version of a key read from a storage engine
+ * @author 2600705
+ *
+ */
+public class StoredValue {
+	private byte[] value;
+	private StorageVersion version;
+	
+	public StoredValue(byte[] value, StorageVersion version) {
+		this.value = value;
+		this.version = version;
+	}
+
+	public byte[] getValue() {
+		return value;
+	}
+
+	public StorageVersion getVersion() {
+		return version;
+	}
+}
@@ -0,0 +1,108 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static test.TestKVDBTransactions.data;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import db.KVDBImplementation;
+import db.KVDBInterface;
+import db.StorageMode;
+import monitor.MonitorImplementation;
+import monitor.MonitorInterface;
+import storage.OffHeapStorageEngine;
+import transaction.Operation;
+import transaction.OperationResult;
+import transaction.WriteOperation;
+
+public class TestAsyncSubmission {
+	private KVDBImplementation kvdb;
+	private MonitorImplementation monitor;
+	//asynchronous transactions sent to the KVDB are lost while it is set
+	private volatile boolean isLosingTickets = false;
+
+	@Before
+	public void setUp() throws RemoteException {
+		kvdb = new KVDBImplementation(0, new OffHeapStorageEngine(), StorageMode.RECORD);
+		KVDBInterface kvdbView = (KVDBInterface) Proxy.newProxyInstance(KVDBInterface.class.getClassLoader(), new Class<?>[] {KVDBInterface.class}, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] arguments) throws Throwable {
+				if (isLosingTickets && method.getName().equals("submitOperations"))
+					return null;
+				try {
+					return method.invoke(kvdb, arguments);
+				} catch (InvocationTargetException e) {
+					throw e.getCause();
+				}
+			}
+		});
+
+		Map<Integer, KVDBInterface> kvdbs = new HashMap<Integer, KVDBInterface>();
+		Map<Integer, MonitorInterface> monitors = new HashMap<Integer, MonitorInterface>();
+		monitor = new MonitorImplementation(kvdbs, 0, false, false);
+		for (int profile = 0; profile < 5; profile++) {
+			kvdbs.put(profile, kvdbView);
+			monitors.put(profile, monitor);
+		}
+		kvdb.setMonitors(monitors);
+		kvdb.setSelf(kvdb);
+	}
+
+	@After
+	public void tearDown() throws RemoteException {
+		kvdb.closeDB();
+		monitor.close();
+	}
+
+	private long submitWrite(int profile, int id) throws RemoteException {
+		return monitor.submitOperations(new ArrayList<Operation>(Arrays.asList((Operation) new WriteOperation(data(profile, id, id)))));
+	}
+
+	@Test
+	public void testSubmitDoesntWaitForMigrations() throws RemoteException {
+		//a migration holds profile 2
+		monitor.notifyLoadBalanceMigration(kvdb, 2);
+		long begin = System.currentTimeMillis();
+		long ticket = submitWrite(2, 20);
+		assertTrue(System.currentTimeMillis() - begin < 100);
+		assertTrue(monitor.pollResults(Arrays.asList(ticket), 200).isEmpty());
+
+		monitor.notifyEndLoadBalanceMigration(kvdb, 2);
+		Map<Long, List<OperationResult>> results = monitor.pollResults(Arrays.asList(ticket), 5000);
+		assertTrue(results.get(ticket).get(0).isSuccess());
+	}
+
+	@Test
+	public void testLostTicketsReleaseTheirProfiles() throws Exception {
+		monitor.setTicketTimeouts(200, 200);
+		isLosingTickets = true;
+		long ticket = submitWrite(2, 20);
+		Map<Long, List<OperationResult>> results = monitor.pollResults(Arrays.asList(ticket), 5000);
+		assertFalse(results.get(ticket).get(0).isSuccess());
+
+		//a migration can take the profile
+		monitor.notifyLoadBalanceMigration(kvdb, 2);
+		monitor.notifyEndLoadBalanceMigration(kvdb, 2);
+
+		//results never polled are forgotten
+		isLosingTickets = false;
+		ticket = submitWrite(3, 20);
+		Thread.sleep(1000);
+		assertEquals(0, monitor.pollResults(Arrays.asList(ticket), 0).size());
+	}
+}
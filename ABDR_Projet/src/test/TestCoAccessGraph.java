@@ -0,0 +1,87 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import monitor.CoAccessGraph;
+
+public class TestCoAccessGraph {
+
+	@Test
+	public void testRecordAndDecay() {
+		CoAccessGraph graph = new CoAccessGraph(0.5, 0.1);
+		graph.record(Arrays.asList(1, 2));
+		graph.record(Arrays.asList(1, 2, 3));
+		graph.record(Arrays.asList(4));
+
+		assertEquals(1.5, graph.getWeight(1, 2), 0.0001);
+		assertEquals(1.5, graph.getWeight(2, 1), 0.0001);
+		assertEquals(0.5, graph.getWeight(1, 3), 0.0001);
+		assertEquals(0, graph.getWeight(1, 4), 0.0001);
+		assertEquals(2, graph.getLoad(1), 0.0001);
+		assertEquals(1, graph.getLoad(4), 0.0001);
+
+		graph.decay();
+		assertEquals(0.75, graph.getWeight(1, 2), 0.0001);
+		graph.decay();
+		graph.decay();
+		//0.0625 is forgotten
+		assertEquals(0, graph.getWeight(1, 3), 0.0001);
+		assertEquals(0.1875, graph.getWeight(1, 2), 0.0001);
+	}
+
+	@Test
+	public void testPairsAreColocated() {
+		CoAccessGraph graph = new CoAccessGraph(0.5, 0.01);
+		for (int i = 0; i < 10; i++) {
+			graph.record(Arrays.asList(0, 5));
+			graph.record(Arrays.asList(1, 6));
+		}
+		Map<Integer, Integer> placement = new HashMap<Integer, Integer>();
+		for (int profile = 0; profile < 10; profile++)
+			placement.put(profile, profile / 5);
+
+		//both nodes are full : a profile of a pair is exchanged with a profile of the other pair
+		Map<Integer, Integer> moves = graph.computeMoves(placement, 0.25, 1);
+		assertEquals(2, moves.size());
+		for (int profile = 0; profile < 2; profile++) {
+			int node0 = moves.containsKey(profile) ? moves.get(profile) : placement.get(profile);
+			int node5 = moves.containsKey(profile + 5) ? moves.get(profile + 5) : placement.get(profile + 5);
+			assertEquals(node0, node5);
+		}
+
+		//too few transactions to be worth a migration
+		assertEquals(0, graph.computeMoves(placement, 0.25, 30).size());
+	}
+
+	@Test
+	public void testLoadLimit() {
+		CoAccessGraph graph = new CoAccessGraph(0.5, 0.01);
+		//profile 0 is transacted with 2 and 3, 1 is busy alone
+		for (int i = 0; i < 10; i++) {
+			graph.record(Arrays.asList(0, 2));
+			graph.record(Arrays.asList(0, 3));
+			graph.record(Arrays.asList(1));
+		}
+		Map<Integer, Integer> placement = new HashMap<Integer, Integer>();
+		placement.put(0, 0);
+		placement.put(1, 1);
+		placement.put(2, 1);
+		placement.put(3, 1);
+
+		//loads : node 0 = 20, node 1 = 30, at most 31.25 per node. 0 can't join 2 and 3,
+		//only one of them fits with 0
+		Map<Integer, Integer> moves = graph.computeMoves(placement, 0.25, 1);
+		assertEquals(1, moves.size());
+		assertEquals(Integer.valueOf(0), moves.get(2));
+
+		//without slack nothing fits
+		assertTrue(graph.computeMoves(placement, 0, 1).isEmpty());
+	}
+}
@@ -0,0 +1,102 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import transaction.Data;
+
+public class TestData {
+
+	@Test
+	public void testListViews() {
+		Data data = new Data();
+		for (int i = 0; i < 12; i++) {
+			data.getListNumber().add(700 + i);
+			data.getListString().add("s" + i);
+		}
+
+		assertEquals(12, data.getNumberCount());
+		assertEquals(12, data.getStringCount());
+		assertEquals(711, data.getNumber(11));
+		assertEquals("s11", data.getString(11));
+
+		data.getListNumber().set(0, 42);
+		data.setString(1, "t1");
+		assertEquals(42, data.getNumber(0));
+		assertEquals("t1", data.getListString().get(1));
+
+		data.getListNumber().remove(0);
+		assertEquals(11, data.getListNumber().size());
+		assertEquals(701, 0 + data.getListNumber().get(0));
+	}
+
+	@Test
+	public void testSetList() {
+		List<Integer> listNumber = new ArrayList<Integer>();
+		List<String> listString = new ArrayList<String>();
+		for (int j = 0; j < 5; j++) {
+			listNumber.add(j);
+			listString.add("test" + j);
+		}
+
+		Data data = new Data();
+		data.setListNumber(listNumber);
+		data.setListString(listString);
+		data.addNumber(5);
+
+		//the lists are copied, a change after the set is not seen
+		listNumber.set(0, 42);
+		listString.add("test5");
+
+		assertEquals(6, data.getNumberCount());
+		assertEquals(5, listNumber.size());
+		assertEquals("[0, 1, 2, 3, 4, 5]", data.getListNumber().toString());
+		assertEquals("[test0, test1, test2, test3, test4]", data.getListString().toString());
+	}
+
+	@Test
+	public void testSerialization() throws IOException, ClassNotFoundException {
+		Data data = new Data();
+		data.setCategory(4);
+		data.setId(42);
+		data.addNumber(700);
+		data.addString("s1");
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream output = new ObjectOutputStream(bytes);
+		output.writeObject(data);
+		output.close();
+		Data result = (Data) new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+
+		assertEquals(42, result.getId());
+		assertEquals(700, 0 + result.getListNumber().get(0));
+		assertEquals("s1", result.getListString().get(0));
+		result.getListNumber().add(701);
+		assertEquals(2, result.getNumberCount());
+	}
+
+	@Test
+	public void testStringBytes() {
+		byte[] record = "xxs1catégorie".getBytes(Charset.forName("UTF-8"));
+		Data data = new Data();
+		data.addString(record, 2, 2);
+		data.addString(record, 4, record.length - 4);
+		data.addString("s3");
+
+		assertEquals("s1", data.getString(0));
+		assertEquals("catégorie", data.getListString().get(1));
+		assertEquals(2, data.getStringBytes(0).length);
+		assertEquals("s3", new String(data.getStringBytes(2)));
+		assertEquals("[s1, catégorie, s3]", data.getListString().toString());
+	}
+}
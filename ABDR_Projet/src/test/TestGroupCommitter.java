@@ -0,0 +1,137 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import storage.GroupCommitter;
+import storage.OffHeapStorageEngine;
+import storage.StorageEngine;
+import storage.StorageExecutionException;
+import storage.StorageKey;
+import storage.StorageOperation;
+import storage.StorageOperationResult;
+
+public class TestGroupCommitter {
+
+	private static List<StorageOperation> write(int id, String value) {
+		return write("4", id, value);
+	}
+
+	private static List<StorageOperation> write(String majorKey, int id, String value) {
+		List<StorageOperation> operations = new ArrayList<StorageOperation>();
+		for (int attribute = 0; attribute < 10; attribute++) {
+			List<String> minorPath = new ArrayList<String>();
+			minorPath.add(id + "");
+			minorPath.add(attribute + "");
+			operations.add(StorageOperation.createPut(StorageKey.createKey(majorKey, minorPath), value.getBytes()));
+		}
+		return operations;
+	}
+
+	@Test
+	public void testConcurrentWrites() throws InterruptedException {
+		StorageEngine engine = new OffHeapStorageEngine();
+		final GroupCommitter committer = new GroupCommitter(engine, 500, 50);
+		final int nbThreads = 16;
+		final int nbWrites = 50;
+		final CountDownLatch start = new CountDownLatch(1);
+		final List<Throwable> failures = new ArrayList<Throwable>();
+
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < nbThreads; t++) {
+			final int thread = t;
+			threads.add(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for (int i = 0; i < nbWrites; i++) {
+							//every thread also writes the object 0, these writes can't share a store batch
+							int id = (i % 5 == 0) ? 0 : thread * nbWrites + i;
+							List<StorageOperationResult> results = committer.execute(write(id, thread + "-" + i));
+							assertEquals(10, results.size());
+							assertTrue(results.get(9).getSuccess());
+						}
+					} catch (Throwable e) {
+						synchronized (failures) {
+							failures.add(e);
+						}
+					}
+				}
+			}));
+		}
+		for (Thread thread : threads)
+			thread.start();
+		start.countDown();
+		for (Thread thread : threads)
+			thread.join();
+
+		assertEquals(0, failures.size());
+		assertEquals(nbThreads * nbWrites, committer.getBatchCount());
+		assertTrue(committer.getStoreBatchCount() < committer.getBatchCount());
+		//written objects, the 10 attributes of object 0 come from the same write
+		assertEquals(10 + 10 * nbThreads * nbWrites * 4 / 5, engine.multiGet(StorageKey.createKey("4"), null).size());
+		String value = new String(engine.get(write(0, "").get(0).getKey()).getValue());
+		assertEquals(value, new String(engine.get(write(0, "").get(9).getKey()).getValue()));
+		engine.close();
+	}
+
+	@Test
+	public void testAloneWithoutWindow() throws StorageExecutionException {
+		StorageEngine engine = new OffHeapStorageEngine();
+		GroupCommitter committer = new GroupCommitter(engine, 500, 10000);
+
+		long begin = System.currentTimeMillis();
+		committer.execute(write(1, "a"));
+		committer.execute(write(1, "b"));
+		assertTrue(System.currentTimeMillis() - begin < 5000);
+		assertEquals(2, committer.getStoreBatchCount());
+		assertEquals("b", new String(engine.get(write(1, "").get(0).getKey()).getValue()));
+		engine.close();
+	}
+
+	@Test
+	public void testOtherMajorPathsDontWait() throws InterruptedException {
+		StorageEngine engine = new OffHeapStorageEngine();
+		final GroupCommitter committer = new GroupCommitter(engine, 500, 10000);
+		final CountDownLatch start = new CountDownLatch(1);
+		final List<Throwable> failures = new ArrayList<Throwable>();
+
+		//each thread writes its own profile, a batch can't be joined by the other thread
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 2; t++) {
+			final String majorKey = (5 + t) + "";
+			threads.add(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for (int i = 0; i < 20; i++)
+							committer.execute(write(majorKey, i, "a"));
+					} catch (Throwable e) {
+						synchronized (failures) {
+							failures.add(e);
+						}
+					}
+				}
+			}));
+		}
+		long begin = System.currentTimeMillis();
+		for (Thread thread : threads)
+			thread.start();
+		start.countDown();
+		for (Thread thread : threads)
+			thread.join();
+
+		assertEquals(0, failures.size());
+		assertTrue(System.currentTimeMillis() - begin < 5000);
+		assertEquals(40, committer.getStoreBatchCount());
+		engine.close();
+	}
+}
@@ -0,0 +1,322 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import db.KVDBImplementation;
+import db.KVDBInterface;
+import db.StorageMode;
+import monitor.MonitorImplementation;
+import monitor.MonitorInterface;
+import storage.OffHeapStorageEngine;
+import storage.StorageKey;
+import storage.StorageRange;
+import storage.StoredValue;
+import transaction.ConditionalWriteOperation;
+import transaction.Data;
+import transaction.DeleteOperation;
+import transaction.IncrementOperation;
+import transaction.ObjectVersion;
+import transaction.Operation;
+import transaction.OperationResult;
+import transaction.ReadOperation;
+import transaction.ScanOperation;
+import transaction.ScanResult;
+import transaction.WriteOperation;
+
+public class TestKVDBTransactions {
+	private CountingStorageEngine store;
+	private KVDBImplementation kvdb;
+	private MonitorImplementation monitor;
+
+	/**
+	 * store counting the keys read by its iterators
+	 */
+	private static class CountingStorageEngine extends OffHeapStorageEngine {
+		private AtomicInteger nbReadKeys = new AtomicInteger();
+
+		@Override
+		public Iterator<Entry<StorageKey, StoredValue>> multiGetIterator(StorageKey parentKey, StorageRange range, int batchSize) {
+			final Iterator<Entry<StorageKey, StoredValue>> iterator = super.multiGetIterator(parentKey, range, batchSize);
+			return new Iterator<Entry<StorageKey, StoredValue>>() {
+				@Override
+				public boolean hasNext() {
+					return iterator.hasNext();
+				}
+
+				@Override
+				public Entry<StorageKey, StoredValue> next() {
+					nbReadKeys.incrementAndGet();
+					return iterator.next();
+				}
+
+				@Override
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+	}
+
+	static Data data(int profile, int id, int value) {
+		Data data = new Data();
+		data.setCategory(profile);
+		data.setId(id);
+		for (int i = 0; i < 5; i++) {
+			data.getListNumber().add(value + i);
+			data.getListString().add("s" + (value + i));
+		}
+		return data;
+	}
+
+	static Data key(int profile, int id) {
+		Data data = new Data();
+		data.setCategory(profile);
+		data.setId(id);
+		return data;
+	}
+
+	static List<OperationResult> execute(KVDBImplementation kvdb, Operation... operations) throws RemoteException {
+		List<Operation> transaction = new ArrayList<Operation>();
+		for (Operation operation : operations)
+			transaction.add(operation);
+		return kvdb.executeOperations(transaction);
+	}
+
+	@Before
+	public void setUp() throws RemoteException {
+		store = new CountingStorageEngine();
+		kvdb = new KVDBImplementation(0, store, StorageMode.RECORD);
+		Map<Integer, KVDBInterface> kvdbs = new HashMap<Integer, KVDBInterface>();
+		Map<Integer, MonitorInterface> monitors = new HashMap<Integer, MonitorInterface>();
+		monitor = new MonitorImplementation(kvdbs, 0, false, false);
+		for (int profile = 0; profile < 5; profile++) {
+			kvdbs.put(profile, kvdb);
+			monitors.put(profile, monitor);
+		}
+		kvdb.setMonitors(monitors);
+		kvdb.setSelf(kvdb);
+	}
+
+	@After
+	public void tearDown() throws RemoteException {
+		kvdb.closeDB();
+		monitor.close();
+	}
+
+	@Test
+	public void testConflictWithIncrementIsNotRetried() throws RemoteException {
+		ObjectVersion version = execute(kvdb, new ReadOperation(key(2, 11))).get(0).getVersion();
+		assertTrue(execute(kvdb, new WriteOperation(data(2, 11, 100))).get(0).isSuccess());
+
+		//the conditional write fails whatever the number of attempts
+		long begin = System.currentTimeMillis();
+		List<OperationResult> results = execute(kvdb, new IncrementOperation(key(2, 1), 0, 1), new ConditionalWriteOperation(data(2, 11, 200), version));
+		assertFalse(results.get(0).isSuccess());
+		assertFalse(results.get(1).isSuccess());
+		assertTrue(System.currentTimeMillis() - begin < 100);
+
+		assertEquals(100, execute(kvdb, new ReadOperation(key(2, 11))).get(0).getData().getNumber(0));
+	}
+
+	@Test
+	public void testCachedVersionAfterRegroup() throws Exception {
+		//cached before profiles 1 and 2 are grouped
+		ObjectVersion version = execute(kvdb, new ReadOperation(key(1, 1))).get(0).getVersion();
+		assertEquals(version, execute(kvdb, new ReadOperation(key(1, 1))).get(0).getVersion());
+
+		assertTrue(execute(kvdb, new WriteOperation(data(1, 2, 10)), new WriteOperation(data(2, 2, 20))).get(0).isSuccess());
+		//the regrouper moves them in background below the major key of their group
+		for (int i = 0; (i < 100) && (store.multiGetKeys(StorageKey.createKey("1"), null).size() != 0); i++)
+			Thread.sleep(50);
+		assertEquals(0, store.multiGetKeys(StorageKey.createKey("1"), null).size());
+		assertEquals(20, execute(kvdb, new ReadOperation(key(2, 2))).get(0).getData().getNumber(0));
+
+		version = execute(kvdb, new ReadOperation(key(1, 1))).get(0).getVersion();
+		assertTrue(execute(kvdb, new ConditionalWriteOperation(data(1, 1, 30), version)).get(0).isSuccess());
+	}
+
+	@Test
+	public void testAbortedSplitTransactionIsUndone() throws RemoteException {
+		int value = execute(kvdb, new ReadOperation(key(1, 1))).get(0).getData().getNumber(0);
+
+		//1 and 3 are not grouped yet : the writes of 1 are undone when the increment of a missing object of 3 aborts
+		List<OperationResult> results = execute(kvdb, new WriteOperation(data(1, 1, value + 10)), new WriteOperation(data(1, 7, 7)), 
+				new IncrementOperation(key(3, 99), 0, 1));
+		for (OperationResult result : results)
+			assertFalse(result.isSuccess());
+		assertEquals(value, execute(kvdb, new ReadOperation(key(1, 1))).get(0).getData().getNumber(0));
+		assertFalse(execute(kvdb, new ReadOperation(key(1, 7))).get(0).isSuccess());
+
+		results = execute(kvdb, new WriteOperation(data(1, 7, 7)), new IncrementOperation(key(3, 1), 0, 1));
+		assertTrue(results.get(0).isSuccess() && results.get(1).isSuccess());
+		assertEquals(7, execute(kvdb, new ReadOperation(key(1, 7))).get(0).getData().getNumber(0));
+	}
+
+	@Test
+	public void testCachedVersionAfterConversion() throws RemoteException {
+		ObjectVersion version = execute(kvdb, new ReadOperation(key(3, 1))).get(0).getVersion();
+		assertEquals(version, execute(kvdb, new ReadOperation(key(3, 1))).get(0).getVersion());
+
+		kvdb.convertStorageMode(StorageMode.ATTRIBUTES);
+
+		version = execute(kvdb, new ReadOperation(key(3, 1))).get(0).getVersion();
+		assertTrue(execute(kvdb, new ConditionalWriteOperation(data(3, 1, 30), version)).get(0).isSuccess());
+		assertEquals(30, execute(kvdb, new ReadOperation(key(3, 1))).get(0).getData().getNumber(0));
+	}
+
+	@Test
+	public void testConversionWithConcurrentWrites() throws Exception {
+		List<Operation> objects = new ArrayList<Operation>();
+		for (int id = 10; id < 2000; id++)
+			objects.add(new WriteOperation(data(2, id, id)));
+		kvdb.executeIndependentOperations(objects);
+
+		//last value written of each object, null once deleted
+		final Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+		final boolean[] isStopped = {false};
+		final List<Throwable> failures = new ArrayList<Throwable>();
+		Thread writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				Random random = new Random(1);
+				try {
+					for (int value = 0; ! isStopped[0]; value++) {
+						int id = 10 + random.nextInt(1990);
+						boolean isDelete = random.nextInt(4) == 0;
+						Operation operation = isDelete ? new DeleteOperation(key(2, id)) : new WriteOperation(data(2, id, value));
+						List<OperationResult> results = execute(kvdb, operation);
+						assertTrue(isDelete || results.get(0).isSuccess());
+						synchronized (expected) {
+							expected.put(id, isDelete ? null : value);
+						}
+					}
+				} catch (Throwable e) {
+					synchronized (failures) {
+						failures.add(e);
+					}
+				}
+			}
+		});
+		writer.start();
+		Thread.sleep(20);
+
+		//the profile is converted by chunks while it is written
+		kvdb.convertStorageMode(StorageMode.ATTRIBUTES);
+		isStopped[0] = true;
+		writer.join();
+		assertEquals(0, failures.size());
+
+		//no record key is left
+		for (StorageKey key : store.multiGetKeys(StorageKey.createKey("2"), null))
+			assertTrue(key.toString(), key.getMinorPath().size() != 1);
+		List<ReadOperation> reads = new ArrayList<ReadOperation>();
+		for (int id = 10; id < 2000; id++)
+			reads.add(new ReadOperation(key(2, id)));
+		List<OperationResult> results = kvdb.executeReads(reads);
+		for (int id = 10; id < 2000; id++) {
+			Integer value = expected.containsKey(id) ? expected.get(id) : Integer.valueOf(id);
+			if (value == null)
+				assertFalse("object " + id + " was deleted", results.get(id - 10).isSuccess());
+			else
+				assertEquals(value.intValue(), results.get(id - 10).getData().getNumber(0));
+		}
+	}
+
+	@Test
+	public void testReadsAreNotDeletes() throws RemoteException {
+		List<OperationResult> results = execute(kvdb, new ReadOperation(key(2, 1)), new ReadOperation(key(2, 0)));
+		assertTrue(results.get(0).isSuccess() && results.get(1).isSuccess());
+		assertEquals(1, results.get(0).getData().getId());
+		assertEquals(0, results.get(1).getData().getId());
+
+		//a read can't be part of a write transaction
+		results = execute(kvdb, new ReadOperation(key(2, 1)), new WriteOperation(data(2, 3, 3)));
+		assertFalse(results.get(0).isSuccess() || results.get(1).isSuccess());
+
+		assertTrue(execute(kvdb, new ReadOperation(key(2, 1))).get(0).isSuccess());
+		assertTrue(execute(kvdb, new ReadOperation(key(2, 0))).get(0).isSuccess());
+	}
+
+	private List<ReadOperation> reads(int profile, int firstId, int nbIds, int step) {
+		List<ReadOperation> reads = new ArrayList<ReadOperation>();
+		for (int i = 0; i < nbIds; i++)
+			reads.add(new ReadOperation(key(profile, firstId + i * step)));
+		return reads;
+	}
+
+	@Test
+	public void testSparseReadsDontWalkTheProfile() throws RemoteException {
+		List<Operation> objects = new ArrayList<Operation>();
+		for (int id = 10; id < 5000; id++)
+			objects.add(new WriteOperation(data(2, id, id)));
+		kvdb.executeIndependentOperations(objects);
+
+		//ids 1000 apart
+		store.nbReadKeys.set(0);
+		List<OperationResult> results = kvdb.executeReads(reads(2, 10, 5, 1000));
+		for (int i = 0; i < 5; i++)
+			assertEquals(10 + i * 1000, results.get(i).getData().getNumber(0));
+		assertEquals(5, store.nbReadKeys.get());
+
+		//dense ids, read by one pass
+		store.nbReadKeys.set(0);
+		results = kvdb.executeReads(reads(2, 3000, 50, 1));
+		for (int i = 0; i < 50; i++)
+			assertEquals(3000 + i, results.get(i).getData().getNumber(0));
+		//"301" to "304" are between "3000" and "3049"
+		assertEquals(54, store.nbReadKeys.get());
+
+		//"100" to "999" are between "10" and "99" : the pass stops and the other ids are read one by one
+		store.nbReadKeys.set(0);
+		results = kvdb.executeReads(reads(2, 10, 90, 1));
+		for (int i = 0; i < 90; i++)
+			assertEquals(10 + i, results.get(i).getData().getNumber(0));
+		assertTrue(store.nbReadKeys.get() <= 3 * 90);
+	}
+
+	@Test
+	public void testScanReadsItsRange() throws RemoteException {
+		List<Operation> objects = new ArrayList<Operation>();
+		for (int id = 10; id < 50000; id++)
+			objects.add(new WriteOperation(data(2, id, id)));
+		kvdb.executeIndependentOperations(objects);
+
+		store.nbReadKeys.set(0);
+		ScanResult result = (ScanResult) execute(kvdb, new ScanOperation(2, 3000, 3009, 100)).get(0);
+		assertEquals(10, result.getDatas().size());
+		assertFalse(result.hasMore());
+		//"30000" to "30089" are between "3000" and "3009"
+		assertEquals(100, store.nbReadKeys.get());
+
+		//ids beginning with 1, 2 and 3 are between "1" and "4" : chunks are cut after 20000 keys
+		List<Integer> ids = new ArrayList<Integer>();
+		int nbChunks = 0;
+		for (ScanOperation scan = new ScanOperation(2, 1, 4, 100); scan != null; scan = scan.next(result)) {
+			store.nbReadKeys.set(0);
+			result = (ScanResult) execute(kvdb, scan).get(0);
+			assertTrue(store.nbReadKeys.get() <= 20001);
+			for (Data data : result.getDatas())
+				ids.add(data.getId());
+			nbChunks++;
+		}
+		assertEquals(Arrays.asList(1), ids);
+		assertEquals(2, nbChunks);
+	}
+}
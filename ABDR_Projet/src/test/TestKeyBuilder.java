@@ -0,0 +1,51 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import storage.StorageKey;
+import db.KeyBuilder;
+
+public class TestKeyBuilder {
+
+	@Test
+	public void testProfileKeys() {
+		KeyBuilder keyBuilder = new KeyBuilder(10);
+		assertSame(keyBuilder.getProfileKey(4), keyBuilder.getProfileKey(4));
+		assertEquals(StorageKey.createKey("4", "42"), keyBuilder.getRecordKey(null, 4, 42));
+
+		StorageKey[] keys = keyBuilder.getAttributeKeys(null, 4, 42);
+		assertEquals(10, keys.length);
+		for (int i = 0; i < keys.length; i++) {
+			List<String> minorPath = new ArrayList<String>();
+			minorPath.add("42");
+			minorPath.add(i + "");
+			assertEquals(StorageKey.createKey("4", minorPath), keys[i]);
+			assertEquals(0, keyBuilder.getProfileKey(4).compareTo(StorageKey.createKey(keys[i].getMajorPath())));
+		}
+	}
+
+	@Test
+	public void testGroupKeys() {
+		KeyBuilder keyBuilder = new KeyBuilder(10);
+		assertSame(keyBuilder.getGroupKey(3), keyBuilder.getGroupKey(3));
+
+		StorageKey[] keys = keyBuilder.getAttributeKeys(3, 7, 1);
+		assertEquals(Arrays.asList("g3"), keys[9].getMajorPath());
+		assertEquals(Arrays.asList("7", "1", "9"), keys[9].getMinorPath());
+		assertEquals(Arrays.asList("7", "1"), keyBuilder.getRecordKey(3, 7, 1).getMinorPath());
+
+		//objects are at the same depth below the parent key of their profile
+		StorageKey parentKey = keyBuilder.getProfileParentKey(3, 7);
+		assertTrue(parentKey.isParentOf(keys[9]));
+		assertEquals(parentKey.getMinorPath().size() + 2, keys[9].getMinorPath().size());
+		assertEquals(keyBuilder.getProfileKey(7), keyBuilder.getProfileParentKey(null, 7));
+	}
+}
@@ -0,0 +1,62 @@
+package test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import db.LZCodec;
+import db.MigrationCodec;
+
+public class TestLZCodec {
+
+	@Test
+	public void testCompressDecompress() {
+		StringBuilder repetitive = new StringBuilder();
+		for (int i = 0; i < 1000; i++)
+			repetitive.append("test" + (i % 5) + i % 7);
+		byte[] input = repetitive.toString().getBytes();
+		byte[] compressed = LZCodec.compress(input);
+		assertTrue(compressed.length * 4 < input.length);
+		assertArrayEquals(input, LZCodec.decompress(compressed));
+
+		//overlapping match and incompressible bytes
+		byte[] run = new byte[1000];
+		Arrays.fill(run, (byte) 7);
+		assertArrayEquals(run, LZCodec.decompress(LZCodec.compress(run)));
+		byte[] random = new byte[10000];
+		new Random(42).nextBytes(random);
+		assertArrayEquals(random, LZCodec.decompress(LZCodec.compress(random)));
+		for (int length = 0; length < 10; length++)
+			assertArrayEquals(Arrays.copyOf(run, length), LZCodec.decompress(LZCodec.compress(Arrays.copyOf(run, length))));
+	}
+
+	@Test
+	public void testMalformed() {
+		byte[] compressed = LZCodec.compress("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa".getBytes());
+		try {
+			LZCodec.decompress(Arrays.copyOf(compressed, compressed.length - 2));
+			fail();
+		} catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+		}
+	}
+
+	@Test
+	public void testNegotiation() {
+		List<MigrationCodec> preferred = Arrays.asList(MigrationCodec.LZ, MigrationCodec.NONE);
+		assertEquals(MigrationCodec.LZ, MigrationCodec.negotiate(preferred, Arrays.asList(MigrationCodec.NONE, MigrationCodec.LZ)));
+		assertEquals(MigrationCodec.NONE, MigrationCodec.negotiate(preferred, Arrays.asList(MigrationCodec.NONE)));
+		assertEquals(MigrationCodec.NONE, MigrationCodec.negotiate(preferred, new ArrayList<MigrationCodec>()));
+
+		byte[] block = "test0test0test0test0".getBytes();
+		for (MigrationCodec codec : MigrationCodec.values())
+			assertArrayEquals(block, MigrationCodec.decode(codec.encode(block)));
+	}
+}
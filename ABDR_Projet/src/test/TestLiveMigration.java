@@ -0,0 +1,211 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static test.TestKVDBTransactions.data;
+import static test.TestKVDBTransactions.execute;
+import static test.TestKVDBTransactions.key;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Test;
+
+import db.KVDBImplementation;
+import db.KVDBInterface;
+import db.MigrationStatistics;
+import db.StorageMode;
+import monitor.MonitorImplementation;
+import monitor.MonitorInterface;
+import storage.OffHeapStorageEngine;
+import storage.StorageExecutionException;
+import storage.StorageKey;
+import storage.StorageOperation;
+import storage.StorageOperationResult;
+import transaction.DeleteOperation;
+import transaction.Operation;
+import transaction.OperationResult;
+import transaction.ReadOperation;
+import transaction.WriteOperation;
+
+public class TestLiveMigration {
+	private static final int nbObjects = 5000;
+	private static final int firstId = 10000;
+
+	private OffHeapStorageEngine sourceStore = new OffHeapStorageEngine();
+	private FailingStorageEngine targetStore = new FailingStorageEngine();
+	private KVDBImplementation target;
+	private KVDBImplementation source;
+	private MonitorImplementation monitor;
+
+	/**
+	 * store whose batches writing profile 9 fail once failAfter of them are written
+	 */
+	private static class FailingStorageEngine extends OffHeapStorageEngine {
+		private volatile int failAfter = Integer.MAX_VALUE;
+		private int nbBatches = 0;
+
+		@Override
+		public synchronized List<StorageOperationResult> execute(List<StorageOperation> operations) throws StorageExecutionException {
+			if (operations.get(0).getKey().getMajorPath().get(0).equals("9") && (nbBatches++ >= failAfter))
+				throw new StorageExecutionException("failing store", 0, null);
+			return super.execute(operations);
+		}
+	}
+
+	/**
+	 * target owns profiles 0 to 4, source 5 to 9, profile 9 has nbObjects more objects
+	 */
+	private void startCluster() throws RemoteException {
+		target = new KVDBImplementation(0, targetStore, StorageMode.RECORD);
+		source = new KVDBImplementation(5, sourceStore, StorageMode.RECORD);
+		Map<Integer, KVDBInterface> kvdbs = new HashMap<Integer, KVDBInterface>();
+		for (int profile = 0; profile < 10; profile++)
+			kvdbs.put(profile, (profile < 5) ? target : source);
+		monitor = new MonitorImplementation(kvdbs, 0, false, false);
+		Map<Integer, MonitorInterface> monitors = new HashMap<Integer, MonitorInterface>();
+		for (int profile = 0; profile < 10; profile++)
+			monitors.put(profile, monitor);
+		for (KVDBImplementation kvdb : Arrays.asList(target, source)) {
+			kvdb.setMonitors(monitors);
+			kvdb.setSelf(kvdb);
+		}
+		target.setLeftKVDB(source);
+		target.setRightKVDB(source);
+		source.setLeftKVDB(target);
+		source.setRightKVDB(target);
+
+		List<Operation> objects = new ArrayList<Operation>();
+		for (int id = firstId; id < firstId + nbObjects; id++)
+			objects.add(new WriteOperation(data(9, id, id)));
+		source.executeIndependentOperations(objects);
+	}
+
+	@After
+	public void tearDown() throws RemoteException {
+		target.closeDB();
+		source.closeDB();
+		monitor.close();
+	}
+
+	private List<ReadOperation> readProfile9() {
+		List<ReadOperation> reads = new ArrayList<ReadOperation>();
+		for (int id = firstId; id < firstId + nbObjects; id++)
+			reads.add(new ReadOperation(key(9, id)));
+		return reads;
+	}
+
+	private static int countKeys(OffHeapStorageEngine store, int profile) {
+		return store.multiGetKeys(StorageKey.createKey(Integer.toString(profile)), null).size();
+	}
+
+
+	@Test
+	public void testCopyWithWritesAndDeletes() throws Exception {
+		startCluster();
+
+		//last value written of each object, null once deleted
+		final Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+		final boolean[] isStopped = {false};
+		final List<Throwable> failures = new ArrayList<Throwable>();
+		Thread writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				Random random = new Random(1);
+				try {
+					for (int value = 0; ! isStopped[0]; value++) {
+						int id = firstId + random.nextInt(nbObjects);
+						boolean isDelete = random.nextInt(4) == 0;
+						Operation operation = isDelete ? new DeleteOperation(key(9, id)) : new WriteOperation(data(9, id, value));
+						List<OperationResult> results = monitor.executeOperations(new ArrayList<Operation>(Arrays.asList(operation)));
+						assertTrue(isDelete || results.get(0).isSuccess());
+						synchronized (expected) {
+							expected.put(id, isDelete ? null : value);
+						}
+					}
+				} catch (Throwable e) {
+					synchronized (failures) {
+						failures.add(e);
+					}
+				}
+			}
+		});
+		writer.start();
+		Thread.sleep(20);
+
+		//9 goes to the KVDB of 3 while it is written
+		List<OperationResult> results = monitor.executeOperations(new ArrayList<Operation>(Arrays.asList(
+				new WriteOperation(data(3, 1, 1)), new WriteOperation(data(9, 1, 1)))));
+		Thread.sleep(20);
+		isStopped[0] = true;
+		writer.join();
+
+		assertEquals(0, failures.size());
+		assertTrue(results.get(0).isSuccess() && results.get(1).isSuccess());
+		assertSame(target, monitor.getProfileOwners(Arrays.asList(9)).get(9));
+		MigrationStatistics statistics = source.getMigrationStatistics().get(0);
+		assertTrue(statistics.isLive());
+		assertEquals(9, statistics.getProfile());
+
+		List<ReadOperation> reads = readProfile9();
+		List<OperationResult> objects = target.executeReads(reads);
+		for (int i = 0; i < reads.size(); i++) {
+			int id = firstId + i;
+			Integer value;
+			synchronized (expected) {
+				value = expected.containsKey(id) ? expected.get(id) : Integer.valueOf(id);
+			}
+			if (value == null)
+				assertFalse("object " + id + " was deleted", objects.get(i).isSuccess());
+			else
+				assertEquals(value.intValue(), objects.get(i).getData().getNumber(0));
+		}
+		assertEquals(0, countKeys(sourceStore, 9));
+
+		//requests still sent to the old owner are forwarded
+		List<ReadOperation> snapshotReads = new ArrayList<ReadOperation>(Arrays.asList(new ReadOperation(key(9, 1))));
+		assertTrue(source.executeSnapshotReads(snapshotReads).get(0).isSuccess());
+		List<Operation> writes = new ArrayList<Operation>(Arrays.asList((Operation) new WriteOperation(data(9, 2, 2))));
+		assertTrue(source.executeIndependentOperations(writes).get(0).isSuccess());
+		assertTrue(execute(target, new ReadOperation(key(9, 2))).get(0).isSuccess());
+	}
+
+	@Test
+	public void testFailingTarget() throws Exception {
+		startCluster();
+		//a few chunks are written, the following ones fail
+		targetStore.failAfter = 5;
+
+		List<OperationResult> results = monitor.executeOperations(new ArrayList<Operation>(Arrays.asList(
+				new WriteOperation(data(3, 1, 1)), new WriteOperation(data(9, 1, 1)))));
+		assertFalse(results.get(1).isSuccess());
+
+		//the profile stays on its owner, the partial copies are removed
+		assertSame(source, monitor.getProfileOwners(Arrays.asList(9)).get(9));
+		assertEquals(0, countKeys(targetStore, 9));
+		int nbFound = 0;
+		for (OperationResult object : source.executeReads(readProfile9()))
+			nbFound += object.isSuccess() ? 1 : 0;
+		assertEquals(nbObjects, nbFound);
+		assertTrue(execute(source, new WriteOperation(data(9, 3, 3))).get(0).isSuccess());
+
+		//without the monitor too
+		try {
+			source.transfuseData(9, target);
+			fail();
+		} catch (RemoteException e) {
+		}
+		assertTrue(countKeys(sourceStore, 9) > nbObjects);
+		target.discardMigration(9);
+		assertEquals(0, countKeys(targetStore, 9));
+	}
+}
@@ -0,0 +1,254 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static test.TestKVDBTransactions.data;
+import static test.TestKVDBTransactions.key;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import db.KVDBImplementation;
+import db.KVDBInterface;
+import db.StorageMode;
+import monitor.MonitorInterface;
+import storage.OffHeapStorageEngine;
+import storage.StorageKey;
+import transaction.Operation;
+import transaction.OperationResult;
+import transaction.ReadOperation;
+import transaction.WriteOperation;
+
+public class TestMultiProfileMigration {
+	private static final List<Integer> remoteProfiles = Arrays.asList(5, 6, 7, 8, 9);
+	private static final int nbObjects = 500;
+	private static final int firstId = 10000;
+
+	private OffHeapStorageEngine sourceStore = new OffHeapStorageEngine();
+	private KVDBImplementation target;
+	private KVDBImplementation source;
+	private KVDBInterface sourceView;
+	private StubMonitor monitor = new StubMonitor();
+
+	//copies of profiles running at once on source, and the most seen
+	private AtomicInteger nbCopies = new AtomicInteger();
+	private AtomicInteger maxCopies = new AtomicInteger();
+	private CountDownLatch copiesMeeting = new CountDownLatch(4);
+	private volatile boolean isLiveRefused = false;
+
+	/**
+	 * routing table which records the calls of the KVDBs, profiles are not locked
+	 */
+	private static class StubMonitor implements MonitorInterface {
+		private Map<Integer, KVDBInterface> routes = new HashMap<Integer, KVDBInterface>();
+		private List<List<Integer>> ownersCalls = new ArrayList<List<Integer>>();
+		private List<List<Integer>> migrationsCalls = new ArrayList<List<Integer>>();
+		private List<List<Integer>> endMigrationsCalls = new ArrayList<List<Integer>>();
+		private List<Integer> endMigrationCalls = new ArrayList<Integer>();
+
+		@Override
+		public List<OperationResult> executeOperations(List<Operation> operations) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public long submitOperations(List<Operation> operations) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Map<Long, List<OperationResult>> pollResults(List<Long> tickets, long timeoutMillis) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void deliverResults(long ticket, List<OperationResult> results) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public List<OperationResult> executeIndependentOperations(List<Operation> operations) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public List<OperationResult> executeReads(List<ReadOperation> reads) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public List<OperationResult> executeSnapshotReads(List<ReadOperation> reads) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public synchronized Map<Integer, KVDBInterface> getProfileOwners(List<Integer> profiles) {
+			ownersCalls.add(new ArrayList<Integer>(profiles));
+			return getRoutes(profiles);
+		}
+
+		@Override
+		public synchronized KVDBInterface notifyLoadBalanceMigration(KVDBInterface newSource, int profile) {
+			return routes.get(profile);
+		}
+
+		@Override
+		public synchronized void notifyEndLoadBalanceMigration(KVDBInterface newSource, int profile) {
+			endMigrationCalls.add(profile);
+			routes.put(profile, newSource);
+		}
+
+		@Override
+		public synchronized KVDBInterface notifyStandardMigration(KVDBInterface newSource, int profile) {
+			return routes.get(profile);
+		}
+
+		@Override
+		public synchronized void notifyEndStandardMigration(KVDBInterface newSource, int profile) {
+			endMigrationCalls.add(profile);
+			routes.put(profile, newSource);
+		}
+
+		@Override
+		public synchronized Map<Integer, KVDBInterface> notifyMigrations(KVDBInterface newSource, List<Integer> profiles, boolean isLoadBalancing) {
+			migrationsCalls.add(new ArrayList<Integer>(profiles));
+			return getRoutes(profiles);
+		}
+
+		@Override
+		public synchronized void notifyEndMigrations(KVDBInterface newSource, List<Integer> profiles, boolean isLoadBalancing) {
+			endMigrationsCalls.add(new ArrayList<Integer>(profiles));
+			for (int profile : profiles)
+				routes.put(profile, newSource);
+		}
+
+		private Map<Integer, KVDBInterface> getRoutes(List<Integer> profiles) {
+			Map<Integer, KVDBInterface> result = new HashMap<Integer, KVDBInterface>();
+			for (int profile : profiles)
+				result.put(profile, routes.get(profile));
+			return result;
+		}
+	}
+
+	@Before
+	public void setUp() throws RemoteException {
+		target = new KVDBImplementation(0, new OffHeapStorageEngine(), StorageMode.RECORD);
+		source = new KVDBImplementation(5, sourceStore, StorageMode.RECORD);
+
+		//source as seen by target : copies are counted and meet, live copies may be refused
+		sourceView = (KVDBInterface) Proxy.newProxyInstance(KVDBInterface.class.getClassLoader(), new Class<?>[] {KVDBInterface.class}, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] arguments) throws Throwable {
+				boolean isCopy = method.getName().equals("transfuseData") || method.getName().equals("transfuseLiveData");
+				if (isLiveRefused && method.getName().equals("transfuseLiveData"))
+					return false;
+				if (isCopy) {
+					int copies = nbCopies.incrementAndGet();
+					while (maxCopies.get() < copies)
+						maxCopies.compareAndSet(maxCopies.get(), copies);
+					copiesMeeting.countDown();
+					copiesMeeting.await(2, TimeUnit.SECONDS);
+				}
+				try {
+					return method.invoke(source, arguments);
+				} catch (InvocationTargetException e) {
+					throw e.getCause();
+				} finally {
+					if (isCopy)
+						nbCopies.decrementAndGet();
+				}
+			}
+		});
+
+		Map<Integer, MonitorInterface> monitors = new HashMap<Integer, MonitorInterface>();
+		for (int profile = 0; profile < 10; profile++) {
+			monitor.routes.put(profile, (profile < 5) ? target : sourceView);
+			monitors.put(profile, monitor);
+		}
+		for (KVDBImplementation kvdb : Arrays.asList(target, source)) {
+			kvdb.setMonitors(monitors);
+			kvdb.setSelf(kvdb);
+		}
+
+		List<Operation> objects = new ArrayList<Operation>();
+		for (int profile : remoteProfiles) {
+			for (int id = firstId; id < firstId + nbObjects; id++)
+				objects.add(new WriteOperation(data(profile, id, profile * id)));
+		}
+		source.executeIndependentOperations(objects);
+	}
+
+	@After
+	public void tearDown() throws RemoteException {
+		target.closeDB();
+		source.closeDB();
+	}
+
+	private void checkMigrated() {
+		for (int profile : remoteProfiles) {
+			assertSame(target, monitor.routes.get(profile));
+			assertEquals(0, sourceStore.multiGetKeys(StorageKey.createKey(Integer.toString(profile)), null).size());
+
+			List<ReadOperation> reads = new ArrayList<ReadOperation>();
+			for (int id = firstId; id < firstId + nbObjects; id++)
+				reads.add(new ReadOperation(key(profile, id)));
+			reads.add(new ReadOperation(key(profile, 1)));
+			List<OperationResult> results = target.executeReads(reads);
+			for (int i = 0; i < nbObjects; i++)
+				assertEquals(profile * (firstId + i), results.get(i).getData().getNumber(0));
+			//initial object of the profile
+			assertTrue(results.get(nbObjects).isSuccess());
+		}
+		//at most migrationParallelism copies at once
+		assertEquals(4, maxCopies.get());
+	}
+
+	@Test
+	public void testLiveMigrationOfProfiles() throws RemoteException {
+		List<Operation> operations = new ArrayList<Operation>();
+		operations.add(new WriteOperation(data(0, 1, 1)));
+		for (int profile : remoteProfiles)
+			operations.add(new WriteOperation(data(profile, 1, profile)));
+		for (OperationResult result : target.executeOperations(operations))
+			assertTrue(result.isSuccess());
+
+		//owners are asked once, each profile ends on its own
+		assertEquals(Arrays.asList(remoteProfiles), monitor.ownersCalls);
+		assertEquals(0, monitor.migrationsCalls.size());
+		assertEquals(remoteProfiles.size(), monitor.endMigrationCalls.size());
+		checkMigrated();
+		for (int profile : remoteProfiles) {
+			List<ReadOperation> reads = new ArrayList<ReadOperation>(Arrays.asList(new ReadOperation(key(profile, 1))));
+			assertEquals(profile, target.executeReads(reads).get(0).getData().getNumber(0));
+		}
+	}
+
+	@Test
+	public void testLockedMigrationOfProfiles() throws RemoteException {
+		isLiveRefused = true;
+		target.acquireProfiles(remoteProfiles);
+
+		//the profiles refused live are locked and ended with a single call
+		assertEquals(Arrays.asList(remoteProfiles), monitor.ownersCalls);
+		assertEquals(Arrays.asList(remoteProfiles), monitor.migrationsCalls);
+		assertEquals(Arrays.asList(remoteProfiles), monitor.endMigrationsCalls);
+		assertEquals(0, monitor.endMigrationCalls.size());
+		checkMigrated();
+	}
+}
@@ -0,0 +1,80 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import db.CacheStatistics;
+import db.ObjectCache;
+
+public class TestObjectCache {
+
+	@Test
+	public void testGetPut() {
+		ObjectCache cache = new ObjectCache(100);
+		long key = ObjectCache.getKey(4, 42);
+
+		assertNull(cache.get(key));
+		cache.put(key, new byte[] {1, 2}, cache.getStamp());
+		assertEquals(2, cache.get(key).length);
+
+		CacheStatistics statistics = cache.getStatistics();
+		assertEquals(1, statistics.getHits());
+		assertEquals(1, statistics.getMisses());
+		assertEquals(1, statistics.getEntries());
+		assertEquals(0.5, statistics.getHitRatio(), 0.001);
+
+		cache.invalidate(key);
+		assertNull(cache.get(key));
+		assertEquals(0, cache.getStatistics().getBytes());
+	}
+
+	@Test
+	public void testStaleRead() {
+		ObjectCache cache = new ObjectCache(100);
+		long key = ObjectCache.getKey(4, 42);
+
+		//a write invalidates the object while it is read from the store
+		long stamp = cache.getStamp();
+		cache.invalidate(key);
+		cache.put(key, new byte[] {1}, stamp);
+		assertNull(cache.get(key));
+
+		stamp = cache.getStamp();
+		cache.put(key, new byte[] {2}, stamp);
+		assertEquals(2, cache.get(key)[0]);
+	}
+
+	@Test
+	public void testFrequentObjectsStay() {
+		ObjectCache cache = new ObjectCache(100);
+		for (int id = 0; id < 50; id++) {
+			cache.put(ObjectCache.getKey(4, id), new byte[1], cache.getStamp());
+			for (int i = 0; i < 5; i++)
+				cache.get(ObjectCache.getKey(4, id));
+		}
+
+		//a scan of objects read once doesn't flush the frequent ones
+		for (int id = 1000; id < 2000; id++) {
+			cache.get(ObjectCache.getKey(5, id));
+			cache.put(ObjectCache.getKey(5, id), new byte[1], cache.getStamp());
+		}
+
+		for (int id = 0; id < 50; id++)
+			assertNotNull(cache.get(ObjectCache.getKey(4, id)));
+		assertEquals(100, cache.getStatistics().getEntries());
+	}
+
+	@Test
+	public void testInvalidateProfile() {
+		ObjectCache cache = new ObjectCache(100);
+		cache.put(ObjectCache.getKey(4, 1), new byte[1], cache.getStamp());
+		cache.put(ObjectCache.getKey(-4, 1), new byte[1], cache.getStamp());
+
+		cache.invalidateProfile(4);
+		assertNull(cache.get(ObjectCache.getKey(4, 1)));
+		assertNotNull(cache.get(ObjectCache.getKey(-4, 1)));
+	}
+}
@@ -0,0 +1,237 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.SortedMap;
+
+import org.junit.Test;
+
+import storage.OffHeapStorageEngine;
+import storage.StorageEngine;
+import storage.StorageExecutionException;
+import storage.StorageKey;
+import storage.StorageOperation;
+import storage.StorageOperationResult;
+import storage.StorageRange;
+import storage.StorageVersion;
+import storage.StoredValue;
+
+public class TestOffHeapStorageEngine {
+
+	private static StorageKey attributeKey(int profile, int id, int attribute) {
+		List<String> minorPath = new ArrayList<String>();
+		minorPath.add(id + "");
+		minorPath.add(attribute + "");
+		return StorageKey.createKey(profile + "", minorPath);
+	}
+
+	private static void fill(StorageEngine engine, int profile, int nbObjects) throws StorageExecutionException {
+		List<StorageOperation> operations = new ArrayList<StorageOperation>();
+		for (int id = 0; id < nbObjects; id++) {
+			for (int attribute = 0; attribute < 10; attribute++) {
+				operations.add(StorageOperation.createPut(attributeKey(profile, id, attribute), (id + "-" + attribute).getBytes()));
+			}
+		}
+		engine.execute(operations);
+	}
+
+
+	@Test
+	public void testPutGetDelete() {
+		StorageEngine engine = new OffHeapStorageEngine();
+		StorageKey key = attributeKey(4, 42, 0);
+
+		assertNull(engine.get(key));
+		engine.put(key, "700".getBytes());
+		StoredValue value = engine.get(key);
+		assertNotNull(value);
+		assertEquals("700", new String(value.getValue()));
+
+		engine.put(key, "701".getBytes());
+		StoredValue newValue = engine.get(key);
+		assertEquals("701", new String(newValue.getValue()));
+		assertFalse(value.getVersion().equals(newValue.getVersion()));
+
+		assertTrue(engine.delete(key));
+		assertFalse(engine.delete(key));
+		assertNull(engine.get(key));
+		engine.close();
+	}
+
+	@Test
+	public void testMultiGetRange() throws StorageExecutionException {
+		StorageEngine engine = new OffHeapStorageEngine();
+		fill(engine, 4, 12);
+		fill(engine, 5, 3);
+
+		assertEquals(120, engine.multiGet(StorageKey.createKey("4"), null).size());
+		assertEquals(30, engine.multiGet(StorageKey.createKey("5"), null).size());
+
+		//exact range
+		SortedMap<StorageKey, StoredValue> object = engine.multiGet(StorageKey.createKey("4"), new StorageRange("1", true, "1", true));
+		assertEquals(10, object.size());
+		assertEquals("1-0", new String(object.get(object.firstKey()).getValue()));
+
+		//prefix range : 1, 10, 11
+		assertEquals(30, engine.multiGet(StorageKey.createKey("4"), new StorageRange("1")).size());
+
+		//parent with minor path
+		assertEquals(10, engine.multiGetKeys(StorageKey.createKey("4", "11"), null).size());
+
+		assertEquals(30, engine.deleteRange(StorageKey.createKey("4"), new StorageRange("1")));
+		assertEquals(90, engine.multiGet(StorageKey.createKey("4"), null).size());
+		engine.close();
+	}
+
+	@Test
+	public void testMultiGetIterator() throws StorageExecutionException {
+		StorageEngine engine = new OffHeapStorageEngine();
+		fill(engine, 4, 12);
+		fill(engine, 5, 3);
+
+		//batches smaller than an object, and a write between two batches
+		Iterator<Entry<StorageKey, StoredValue>> iterator = engine.multiGetIterator(StorageKey.createKey("4"), null, 7);
+		List<StorageKey> keys = new ArrayList<StorageKey>();
+		while (iterator.hasNext()) {
+			keys.add(iterator.next().getKey());
+			if (keys.size() == 3)
+				engine.put(attributeKey(4, 2, 0), "updated".getBytes());
+		}
+		assertEquals(new ArrayList<StorageKey>(engine.multiGetKeys(StorageKey.createKey("4"), null)), keys);
+
+		//after the object 1 in key order, 10 comes next
+		iterator = engine.multiGetIterator(StorageKey.createKey("4"), new StorageRange("1", false, null, false), 100);
+		assertEquals(attributeKey(4, 10, 0), iterator.next().getKey());
+		int size = 1;
+		for (; iterator.hasNext(); iterator.next())
+			size++;
+		assertEquals(100, size);
+		engine.close();
+	}
+
+	@Test
+	public void testBatchResults() throws StorageExecutionException {
+		StorageEngine engine = new OffHeapStorageEngine();
+		List<StorageOperation> operations = new ArrayList<StorageOperation>();
+		operations.add(StorageOperation.createPut(attributeKey(4, 1, 0), "a".getBytes()));
+		operations.add(StorageOperation.createDelete(attributeKey(4, 1, 0)));
+		operations.add(StorageOperation.createDelete(attributeKey(4, 1, 0)));
+
+		List<StorageOperationResult> results = engine.execute(operations);
+		assertEquals(3, results.size());
+		assertTrue(results.get(0).getSuccess());
+		assertNotNull(results.get(0).getNewVersion());
+		assertTrue(results.get(1).getSuccess());
+		assertFalse(results.get(2).getSuccess());
+		assertNull(engine.get(attributeKey(4, 1, 0)));
+		engine.close();
+	}
+
+	@Test
+	public void testConditionalPuts() throws StorageExecutionException {
+		StorageEngine engine = new OffHeapStorageEngine();
+		StorageKey key = attributeKey(4, 1, 0);
+		List<StorageOperation> operations = new ArrayList<StorageOperation>();
+		operations.add(StorageOperation.createPutIfAbsent(key, "a".getBytes()));
+		StorageVersion version = engine.execute(operations).get(0).getNewVersion();
+
+		operations.clear();
+		operations.add(StorageOperation.createPut(attributeKey(4, 1, 1), "b".getBytes()));
+		operations.add(StorageOperation.createPutIfAbsent(key, "c".getBytes()));
+		try {
+			engine.execute(operations);
+			fail();
+		} catch (StorageExecutionException e) {
+			assertEquals(1, e.getFailedOperationIndex());
+		}
+		//nothing of the aborted batch is written
+		assertNull(engine.get(attributeKey(4, 1, 1)));
+
+		operations.clear();
+		operations.add(StorageOperation.createPutIfVersion(key, "d".getBytes(), version));
+		StorageVersion newVersion = engine.execute(operations).get(0).getNewVersion();
+		assertEquals("d", new String(engine.get(key).getValue()));
+
+		operations.clear();
+		operations.add(StorageOperation.createPutIfVersion(key, "e".getBytes(), version));
+		try {
+			engine.execute(operations);
+			fail();
+		} catch (StorageExecutionException e) {
+			assertEquals(0, e.getFailedOperationIndex());
+		}
+		assertEquals(newVersion, engine.get(key).getVersion());
+		engine.close();
+	}
+
+	@Test
+	public void testRecovery() throws IOException, StorageExecutionException {
+		File logFile = File.createTempFile("kvdb", ".log");
+		try {
+			StorageEngine engine = new OffHeapStorageEngine(logFile);
+			fill(engine, 4, 20);
+			engine.deleteRange(StorageKey.createKey("4"), new StorageRange("1", true, "1", true));
+			engine.put(attributeKey(4, 2, 0), "updated".getBytes());
+			StoredValue before = engine.get(attributeKey(4, 2, 0));
+			engine.close();
+
+			engine = new OffHeapStorageEngine(logFile);
+			assertEquals(190, engine.multiGet(StorageKey.createKey("4"), null).size());
+			StoredValue after = engine.get(attributeKey(4, 2, 0));
+			assertEquals("updated", new String(after.getValue()));
+			assertEquals(before.getVersion(), after.getVersion());
+
+			//versions keep growing after a restart
+			engine.put(attributeKey(4, 2, 0), "again".getBytes());
+			assertFalse(before.getVersion().equals(engine.get(attributeKey(4, 2, 0)).getVersion()));
+			engine.close();
+		} finally {
+			logFile.delete();
+		}
+	}
+
+	@Test
+	public void testBackgroundCheckpoint() throws IOException, InterruptedException, StorageExecutionException {
+		File logFile = File.createTempFile("kvdb", ".log");
+		long megabyte = 1024 * 1024;
+		try {
+			StorageEngine engine = new OffHeapStorageEngine(logFile);
+			fill(engine, 4, 20);
+			//10 values of 1MB, overwritten : the checkpoint starts after 64MB and the writes go on meanwhile
+			for (int round = 0; round < 90; round++) {
+				byte[] value = new byte[(int) megabyte];
+				value[0] = (byte) round;
+				engine.put(attributeKey(5, round % 10, 0), value);
+			}
+			//two regions of 64MB are mapped before the logs are swapped
+			for (int i = 0; (i < 200) && (logFile.length() > 100 * megabyte); i++)
+				Thread.sleep(50);
+			assertTrue(logFile.length() <= 100 * megabyte);
+			engine.put(attributeKey(4, 2, 0), "updated".getBytes());
+			engine.close();
+			//the end of the last region is cut
+			assertTrue(logFile.length() < 40 * megabyte);
+			assertFalse(new File(logFile.getPath() + ".checkpoint").exists());
+
+			engine = new OffHeapStorageEngine(logFile);
+			assertEquals(200, engine.multiGet(StorageKey.createKey("4"), null).size());
+			assertEquals("updated", new String(engine.get(attributeKey(4, 2, 0)).getValue()));
+			for (int id = 0; id < 10; id++)
+				assertEquals((byte) (80 + id), engine.get(attributeKey(5, id, 0)).getValue()[0]);
+			engine.close();
+		} finally {
+			logFile.delete();
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import db.ProfileBlock;
+
+public class TestProfileBlock {
+
+	@Test
+	public void testEncodeDecode() {
+		ProfileBlock block = new ProfileBlock();
+		//RECORD object
+		block.addObject("42");
+		block.addKey(Collections.<String>emptyList(), new byte[] {1, 2, 3});
+		//deleted object
+		block.addObject("43");
+		//ATTRIBUTES object
+		block.addObject("catégorie");
+		for (int attribute = 0; attribute < 200; attribute++) {
+			List<String> keySuffix = new ArrayList<String>();
+			keySuffix.add(attribute + "");
+			block.addKey(keySuffix, ("value" + attribute).getBytes());
+		}
+
+		ProfileBlock result = ProfileBlock.decode(block.encode());
+		assertEquals(3, result.getObjectCount());
+		assertEquals("42", result.getObjectId(0));
+		assertEquals(1, result.getKeyCount(0));
+		assertEquals(0, result.getKeySuffix(0, 0).size());
+		assertArrayEquals(new byte[] {1, 2, 3}, result.getValue(0, 0));
+		assertEquals(0, result.getKeyCount(1));
+		assertEquals("catégorie", result.getObjectId(2));
+		assertEquals(200, result.getKeyCount(2));
+		assertEquals("199", result.getKeySuffix(2, 199).get(0));
+		assertEquals("value150", new String(result.getValue(2, 150)));
+
+		assertEquals(0, ProfileBlock.decode(new ProfileBlock().encode()).getObjectCount());
+	}
+
+	@Test
+	public void testNotABlock() {
+		try {
+			ProfileBlock.decode(new byte[] {1, 0});
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import transaction.Data;
+import db.RecordCodec;
+import db.ValueDecoder;
+
+public class TestRecordCodec {
+
+	@Test
+	public void testEncodeDecode() {
+		Data data = new Data();
+		data.setCategory(4);
+		data.setId(42);
+		data.getListNumber().add(0);
+		data.getListNumber().add(127);
+		data.getListNumber().add(128);
+		data.getListNumber().add(-1);
+		data.getListNumber().add(Integer.MIN_VALUE);
+
+		data.getListString().add("");
+		data.getListString().add("s1");
+		data.getListString().add("catégorie");
+		data.getListString().add("test3");
+		data.getListString().add("test4");
+
+		Data result = RecordCodec.decode(RecordCodec.encode(data), new Data());
+
+		assertEquals(5, result.getListNumber().size());
+		assertEquals(5, result.getListString().size());
+		assertEquals(0,  0 + result.getListNumber().get(0));
+		assertEquals(127,  0 + result.getListNumber().get(1));
+		assertEquals(128,  0 + result.getListNumber().get(2));
+		assertEquals(-1,  0 + result.getListNumber().get(3));
+		assertEquals(Integer.MIN_VALUE,  0 + result.getListNumber().get(4));
+		assertEquals("",  result.getListString().get(0));
+		assertEquals("s1",  result.getListString().get(1));
+		assertEquals("catégorie",  result.getListString().get(2));
+		assertEquals("test3",  result.getListString().get(3));
+		assertEquals("test4",  result.getListString().get(4));
+	}
+
+	@Test
+	public void testCompactSize() {
+		Data data = new Data();
+		for (int i = 0; i < 5; i++) {
+			data.getListNumber().add(i);
+			data.getListString().add("test" + i);
+		}
+
+		//tag + 2 counts + 5 one byte ints + 5 * (length + 5 chars)
+		assertEquals(1 + 2 + 5 + 5 * 6, RecordCodec.encode(data).length);
+	}
+
+	@Test
+	public void testProjectedDecode() {
+		Data data = new Data();
+		for (int i = 0; i < 5; i++) {
+			data.getListNumber().add(700 + i);
+			data.getListString().add("test" + i);
+		}
+		byte[] record = RecordCodec.encode(data);
+
+		Data result = RecordCodec.decode(record, new Data(), new int[] {1, 3, 6});
+		assertEquals("[701, 703]", result.getListNumber().toString());
+		assertEquals("[test1]", result.getListString().toString());
+
+		result = RecordCodec.decode(record, new Data(), new int[] {9});
+		assertEquals(0, result.getNumberCount());
+		assertEquals("[test4]", result.getListString().toString());
+	}
+
+	@Test
+	public void testParseInt() {
+		int[] values = {0, 7, -7, 704, Integer.MAX_VALUE, Integer.MIN_VALUE};
+		for (int value : values) {
+			assertEquals(value, ValueDecoder.parseInt(Integer.toString(value).getBytes()));
+		}
+
+		String[] wrongValues = {"", "-", "s1", "2147483648", "-2147483649"};
+		for (String value : wrongValues) {
+			try {
+				ValueDecoder.parseInt(value.getBytes());
+				fail();
+			} catch (NumberFormatException e) {
+			}
+		}
+	}
+}
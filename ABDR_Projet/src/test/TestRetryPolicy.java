@@ -0,0 +1,45 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import db.RetryPolicy;
+import db.RetryStatistics;
+
+public class TestRetryPolicy {
+
+	@Test
+	public void testBackoff() {
+		RetryPolicy policy = new RetryPolicy(4, 10, 50, 100, 1);
+		for (int i = 0; i < 100; i++) {
+			long delay = policy.onFault(1);
+			assertTrue((delay >= 0) && (delay <= 20));
+			delay = policy.onFault(3);
+			assertTrue((delay >= 0) && (delay <= 50));
+			policy.onSuccess();
+			policy.onSuccess();
+		}
+
+		assertEquals(-1, policy.onFault(4));
+		RetryStatistics statistics = policy.getStatistics();
+		assertEquals(201, statistics.getFaults());
+		assertEquals(200, statistics.getRetries());
+		assertEquals(1, statistics.getAttemptsExhausted());
+	}
+
+	@Test
+	public void testBudget() {
+		RetryPolicy policy = new RetryPolicy(10, 1, 1, 3, 0.5);
+		for (int i = 0; i < 3; i++)
+			assertTrue(policy.onFault(1) >= 0);
+		assertEquals(-1, policy.onFault(1));
+
+		policy.onSuccess();
+		assertEquals(-1, policy.onFault(1));
+		policy.onSuccess();
+		assertTrue(policy.onFault(1) >= 0);
+		assertEquals(2, policy.getStatistics().getBudgetExhausted());
+	}
+}
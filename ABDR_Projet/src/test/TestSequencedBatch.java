@@ -0,0 +1,256 @@
+package test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+import static test.TestKVDBTransactions.data;
+import static test.TestKVDBTransactions.execute;
+import static test.TestKVDBTransactions.key;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import db.KVDBImplementation;
+import db.KVDBInterface;
+import db.StorageMode;
+import monitor.MonitorImplementation;
+import monitor.MonitorInterface;
+import storage.OffHeapStorageEngine;
+import storage.StorageExecutionException;
+import storage.StorageOperation;
+import storage.StorageOperationResult;
+import transaction.IncrementOperation;
+import transaction.Operation;
+import transaction.OperationResult;
+import transaction.ReadOperation;
+import transaction.WriteOperation;
+
+public class TestSequencedBatch {
+	private MeetingStorageEngine store = new MeetingStorageEngine();
+	private KVDBImplementation kvdb;
+	private MonitorImplementation monitor;
+
+	/**
+	 * store where the writes of profiles 1 and 2 wait for each other, they only succeed when executed in parallel
+	 */
+	private static class MeetingStorageEngine extends OffHeapStorageEngine {
+		private volatile CountDownLatch meeting = null;
+		private volatile boolean isMet = true;
+
+		@Override
+		public List<StorageOperationResult> execute(List<StorageOperation> operations) throws StorageExecutionException {
+			String majorKey = operations.get(0).getKey().getMajorPath().get(0);
+			CountDownLatch currentMeeting = meeting;
+			if ((currentMeeting != null) && (majorKey.equals("1") || majorKey.equals("2"))) {
+				currentMeeting.countDown();
+				try {
+					if (! currentMeeting.await(2, TimeUnit.SECONDS))
+						isMet = false;
+				} catch (InterruptedException e) {
+					isMet = false;
+				}
+			}
+			return super.execute(operations);
+		}
+	}
+
+	private static List<Operation> transaction(Operation... operations) {
+		return new ArrayList<Operation>(Arrays.asList(operations));
+	}
+
+	@Before
+	public void setUp() throws RemoteException {
+		kvdb = new KVDBImplementation(0, store, StorageMode.RECORD);
+		Map<Integer, KVDBInterface> kvdbs = new HashMap<Integer, KVDBInterface>();
+		Map<Integer, MonitorInterface> monitors = new HashMap<Integer, MonitorInterface>();
+		monitor = new MonitorImplementation(kvdbs, 0, true, false);
+		for (int profile = 0; profile < 5; profile++) {
+			kvdbs.put(profile, kvdb);
+			monitors.put(profile, monitor);
+		}
+		kvdb.setMonitors(monitors);
+		kvdb.setSelf(kvdb);
+	}
+
+	@After
+	public void tearDown() throws RemoteException {
+		kvdb.closeDB();
+		monitor.close();
+	}
+
+	@Test
+	public void testBatchOrder() throws RemoteException {
+		//each value depends on the previous transactions of its profile
+		List<List<Operation>> batch = new ArrayList<List<Operation>>();
+		batch.add(transaction(new WriteOperation(data(1, 20, 10))));
+		batch.add(transaction(new WriteOperation(data(3, 20, 0))));
+		batch.add(transaction(new IncrementOperation(key(1, 20), 0, 1)));
+		batch.add(transaction(new WriteOperation(data(1, 21, 0)), new WriteOperation(data(2, 20, 0))));
+		batch.add(transaction(new WriteOperation(data(1, 20, 100))));
+		batch.add(transaction(new IncrementOperation(key(2, 20), 0, 7)));
+		batch.add(transaction(new IncrementOperation(key(1, 20), 0, 5)));
+		batch.add(transaction(new WriteOperation(data(9, 20, 0))));
+		for (int i = 0; i < 20; i++)
+			batch.add(transaction(new IncrementOperation(key(3, 20), 0, i)));
+
+		List<List<OperationResult>> results = kvdb.executeSequencedBatch(batch);
+		assertEquals(batch.size(), results.size());
+		for (int i = 0; i < batch.size(); i++) {
+			if (i == 7)
+				continue;
+			for (OperationResult result : results.get(i))
+				assertTrue(result.isSuccess());
+		}
+		//9 is not on this KVDB
+		assertNull(results.get(7));
+
+		assertEquals(105, read(1, 20));
+		assertEquals(7, read(2, 20));
+		assertEquals(190, read(3, 20));
+	}
+
+	@Test
+	public void testIndependentChainsRunConcurrently() throws RemoteException {
+		//chains are executed by one worker per processor
+		assumeTrue(Runtime.getRuntime().availableProcessors() > 1);
+
+		//1 and 2 are in different chains : their writes meet in the store
+		store.meeting = new CountDownLatch(2);
+		List<List<Operation>> batch = new ArrayList<List<Operation>>();
+		batch.add(transaction(new WriteOperation(data(1, 20, 1))));
+		batch.add(transaction(new WriteOperation(data(2, 20, 2))));
+		List<List<OperationResult>> results = kvdb.executeSequencedBatch(batch);
+		assertTrue(store.isMet);
+		assertTrue(results.get(0).get(0).isSuccess() && results.get(1).get(0).isSuccess());
+
+		//transactions of the same profile are in the same chain, the first write waits alone
+		store.meeting = new CountDownLatch(2);
+		batch.set(1, transaction(new WriteOperation(data(1, 21, 2))));
+		kvdb.executeSequencedBatch(batch);
+		store.meeting = null;
+		assertFalse(store.isMet);
+	}
+
+	@Test
+	public void testConcurrentIncrementsThroughMonitor() throws Exception {
+		final List<Throwable> failures = new ArrayList<Throwable>();
+		int initialValue = read(4, 1);
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 8; t++) {
+			final int profile = t % 4;
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < 20; i++) {
+							List<Operation> operations = transaction(new IncrementOperation(key(4, 1), 0, 1));
+							if (i % 4 == 0)
+								operations.add(new WriteOperation(data(profile, 30 + i, i)));
+							for (OperationResult result : monitor.executeOperations(operations))
+								assertTrue(result.isSuccess());
+						}
+					} catch (Throwable e) {
+						synchronized (failures) {
+							failures.add(e);
+						}
+					}
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+
+		assertEquals(0, failures.size());
+		assertEquals(initialValue + 160, read(4, 1));
+	}
+
+	@Test
+	public void testStragglerDoesntStallLaterEpochs() throws Exception {
+		//transactions needing a migration are executed by the KVDB of their first profile, here they wait for release
+		final CountDownLatch entered = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		KVDBInterface kvdbView = (KVDBInterface) Proxy.newProxyInstance(KVDBInterface.class.getClassLoader(), new Class<?>[] {KVDBInterface.class}, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] arguments) throws Throwable {
+				if (method.getName().equals("executeOperations")) {
+					entered.countDown();
+					release.await();
+				}
+				try {
+					return method.invoke(kvdb, arguments);
+				} catch (InvocationTargetException e) {
+					throw e.getCause();
+				}
+			}
+		});
+		Map<Integer, KVDBInterface> kvdbs = new HashMap<Integer, KVDBInterface>();
+		for (int profile = 0; profile < 5; profile++)
+			kvdbs.put(profile, kvdbView);
+		final MonitorImplementation sequencedMonitor = new MonitorImplementation(kvdbs, 0, true, false);
+
+		ExecutorService clients = Executors.newCachedThreadPool();
+		try {
+			//5 has no KVDB : the transaction is a straggler
+			Future<List<OperationResult>> straggler = clients.submit(new Callable<List<OperationResult>>() {
+				@Override
+				public List<OperationResult> call() {
+					return sequencedMonitor.executeOperations(transaction(new WriteOperation(data(0, 20, 1)), new WriteOperation(data(5, 20, 1))));
+				}
+			});
+			assertTrue(entered.await(2, TimeUnit.SECONDS));
+
+			//the next epochs go on for the other profiles
+			Future<List<OperationResult>> other = clients.submit(new Callable<List<OperationResult>>() {
+				@Override
+				public List<OperationResult> call() {
+					return sequencedMonitor.executeOperations(transaction(new WriteOperation(data(1, 20, 1))));
+				}
+			});
+			assertTrue(other.get(2, TimeUnit.SECONDS).get(0).isSuccess());
+
+			//a transaction on 0 is after the straggler in the order, it waits for it
+			Future<List<OperationResult>> later = clients.submit(new Callable<List<OperationResult>>() {
+				@Override
+				public List<OperationResult> call() {
+					return sequencedMonitor.executeOperations(transaction(new IncrementOperation(key(0, 1), 0, 1)));
+				}
+			});
+			Thread.sleep(100);
+			assertFalse(later.isDone());
+
+			release.countDown();
+			straggler.get(2, TimeUnit.SECONDS);
+			assertTrue(later.get(2, TimeUnit.SECONDS).get(0).isSuccess());
+		} finally {
+			release.countDown();
+			clients.shutdown();
+			sequencedMonitor.close();
+		}
+	}
+
+	private int read(int profile, int id) throws RemoteException {
+		return execute(kvdb, new ReadOperation(key(profile, id))).get(0).getData().getNumber(0);
+	}
+}
@@ -0,0 +1,35 @@
+package transaction;
+
+/**
+ * Write of an object only if it was not written since it was read (compare and set) : 
+ * expectedVersion is the version returned with the read, or null if the object must not exist yet.
+ * 
+ * The write fails if the object has another version, the transaction it belongs to is then aborted. 
+ * The result of a successful write holds the new version of the object, so it can be updated again 
+ * without reading it
+ * 
+ * @author 2600705
+ *
+ */
+public class ConditionalWriteOperation extends WriteOperation {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 1L;
+	private ObjectVersion expectedVersion;
+
+	public ConditionalWriteOperation(Data d, ObjectVersion expectedVersion) {
+		super(d);
+		this.expectedVersion = expectedVersion;
+	}
+	
+	public ObjectVersion getExpectedVersion() {
+		return expectedVersion;
+	}
+
+	@Override
+	public String toString() {
+		return "ConditionalWriteOperation [data=" + getData() + ", expectedVersion=" + expectedVersion + "]";
+	}
+}
@@ -1,21 +1,57 @@
 package transaction;
 
 import java.io.Serializable;
-import java.util.ArrayList;
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.List;
 
+/**
+ * Object of a profile : ints in an int[] slot array, strings in a string table.
+ * getListNumber/getListString are views over the slots, use the primitive accessors to avoid boxing.
+ * setListNumber/setListString copy the given list into the slots (they used to keep it) : a change of the list 
+ * after the call is not seen by the data, change it through the views instead
+ * 
+ * strings can be given as utf-8 bytes (ex : bytes read from the store), they are decoded
+ * the first time they are accessed
+ * 
+ * a projected Data (result of a ProjectedReadOperation) only holds some attributes, 
+ * getProjection() gives their indexes
+ */
 public class Data implements Serializable {
 	/**
 	 * 
 	 */
-	private static final long serialVersionUID = 1L;
+	private static final long serialVersionUID = 2L;
+	private static final int DEFAULT_SLOTS = 5;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
 	private int id;
 	private int category;
-	
-	private List<Integer> listNumber = new ArrayList<Integer>();
-	private List<String> listString = new ArrayList<String>();
+
+	private int[] numbers;
+	private int nbNumbers = 0;
+	//String or Utf8Slice not decoded yet
+	private Object[] strings;
+	private int nbStrings = 0;
+	//attribute indexes held by a projected data, null if it holds every attribute
+	private int[] projection;
 	public int sourceId;
-	
+
+	private transient List<Integer> listNumber;
+	private transient List<String> listString;
+
+
+	public Data() {
+		this(DEFAULT_SLOTS, DEFAULT_SLOTS);
+	}
+
+	public Data(int nbNumberSlots, int nbStringSlots) {
+		numbers = new int[nbNumberSlots];
+		strings = new Object[nbStringSlots];
+	}
+
+
 	public int getId() {
 		return id;
 	}
@@ -28,21 +64,228 @@ public class Data implements Serializable {
 	public void setCategory(int category) {
 		this.category = category;
 	}
+
+
+	public int[] getProjection() {
+		return projection;
+	}
+	public void setProjection(int[] projection) {
+		this.projection = projection;
+	}
+
+
+	public int getNumberCount() {
+		return nbNumbers;
+	}
+	public int getNumber(int index) {
+		checkIndex(index, nbNumbers);
+		return numbers[index];
+	}
+	public void setNumber(int index, int number) {
+		checkIndex(index, nbNumbers);
+		numbers[index] = number;
+	}
+	public void addNumber(int number) {
+		insertNumber(nbNumbers, number);
+	}
+
+	public int getStringCount() {
+		return nbStrings;
+	}
+	public String getString(int index) {
+		checkIndex(index, nbStrings);
+		if (strings[index] instanceof Utf8Slice)
+			strings[index] = strings[index].toString();
+		return (String) strings[index];
+	}
+	/**
+	 * utf-8 bytes of a string, not decoded if it was given as bytes
+	 * @param index
+	 * @return
+	 */
+	public byte[] getStringBytes(int index) {
+		checkIndex(index, nbStrings);
+		if (strings[index] instanceof Utf8Slice)
+			return ((Utf8Slice) strings[index]).getBytes();
+		return ((String) strings[index]).getBytes(UTF8);
+	}
+	public void setString(int index, String string) {
+		checkIndex(index, nbStrings);
+		strings[index] = string;
+	}
+	public void addString(String string) {
+		insertString(nbStrings, string);
+	}
+	/**
+	 * add a string given as utf-8 bytes, bytes are not copied and must not change
+	 * @param bytes
+	 * @param offset
+	 * @param length
+	 */
+	public void addString(byte[] bytes, int offset, int length) {
+		insertString(nbStrings, new Utf8Slice(bytes, offset, length));
+	}
+
+
 	public List<Integer> getListNumber() {
+		if (listNumber == null)
+			listNumber = new NumberView();
 		return listNumber;
 	}
+	/**
+	 * the numbers are copied, later changes of listNumber are not seen
+	 */
 	public void setListNumber(List<Integer> listNumber) {
-		this.listNumber = listNumber;
+		numbers = new int[Math.max(DEFAULT_SLOTS, listNumber.size())];
+		nbNumbers = 0;
+		for (int number : listNumber)
+			numbers[nbNumbers++] = number;
 	}
 	public List<String> getListString() {
+		if (listString == null)
+			listString = new StringView();
 		return listString;
 	}
+	/**
+	 * the strings are copied, later changes of listString are not seen
+	 */
 	public void setListString(List<String> listString) {
-		this.listString = listString;
+		strings = listString.toArray(new Object[Math.max(DEFAULT_SLOTS, listString.size())]);
+		nbStrings = listString.size();
+	}
+
+
+	private void insertNumber(int index, int number) {
+		if (nbNumbers == numbers.length)
+			numbers = Arrays.copyOf(numbers, Math.max(DEFAULT_SLOTS, nbNumbers * 2));
+		System.arraycopy(numbers, index, numbers, index + 1, nbNumbers - index);
+		numbers[index] = number;
+		nbNumbers++;
+	}
+
+	private void insertString(int index, Object string) {
+		if (nbStrings == strings.length)
+			strings = Arrays.copyOf(strings, Math.max(DEFAULT_SLOTS, nbStrings * 2));
+		System.arraycopy(strings, index, strings, index + 1, nbStrings - index);
+		strings[index] = string;
+		nbStrings++;
+	}
+
+	private static void checkIndex(int index, int size) {
+		if ((index < 0) || (index >= size))
+			throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+	}
+
+
+	/**
+	 * string of the table kept as utf-8 bytes
+	 */
+	private static class Utf8Slice implements Serializable {
+		private static final long serialVersionUID = 1L;
+		private byte[] bytes;
+		private int offset;
+		private int length;
+
+		private Utf8Slice(byte[] bytes, int offset, int length) {
+			this.bytes = bytes;
+			this.offset = offset;
+			this.length = length;
+		}
+
+		private byte[] getBytes() {
+			if ((offset == 0) && (length == bytes.length))
+				return bytes;
+			return Arrays.copyOfRange(bytes, offset, offset + length);
+		}
+
+		@Override
+		public String toString() {
+			return new String(bytes, offset, length, UTF8);
+		}
 	}
-	
+
+
+	/**
+	 * list view over the int slots
+	 */
+	private class NumberView extends AbstractList<Integer> {
+		@Override
+		public Integer get(int index) {
+			return getNumber(index);
+		}
+
+		@Override
+		public Integer set(int index, Integer number) {
+			int old = getNumber(index);
+			numbers[index] = number;
+			return old;
+		}
+
+		@Override
+		public void add(int index, Integer number) {
+			if ((index < 0) || (index > nbNumbers))
+				throw new IndexOutOfBoundsException("index " + index + ", size " + nbNumbers);
+			insertNumber(index, number);
+			modCount++;
+		}
+
+		@Override
+		public Integer remove(int index) {
+			int old = getNumber(index);
+			System.arraycopy(numbers, index + 1, numbers, index, nbNumbers - index - 1);
+			nbNumbers--;
+			modCount++;
+			return old;
+		}
+
+		@Override
+		public int size() {
+			return nbNumbers;
+		}
+	}
+
+	/**
+	 * list view over the string table
+	 */
+	private class StringView extends AbstractList<String> {
+		@Override
+		public String get(int index) {
+			return getString(index);
+		}
+
+		@Override
+		public String set(int index, String string) {
+			String old = getString(index);
+			strings[index] = string;
+			return old;
+		}
+
+		@Override
+		public void add(int index, String string) {
+			if ((index < 0) || (index > nbStrings))
+				throw new IndexOutOfBoundsException("index " + index + ", size " + nbStrings);
+			insertString(index, string);
+			modCount++;
+		}
+
+		@Override
+		public String remove(int index) {
+			String old = getString(index);
+			System.arraycopy(strings, index + 1, strings, index, nbStrings - index - 1);
+			strings[--nbStrings] = null;
+			modCount++;
+			return old;
+		}
+
+		@Override
+		public int size() {
+			return nbStrings;
+		}
+	}
+
+
 	@Override
 	public String toString() {
-		return "id = " + id + ", category = " + category + "  " + listNumber.toString() + "  " + listString.toString();
+		return "id = " + id + ", category = " + category + "  " + getListNumber().toString() + "  " + getListString().toString();
 	}
 }
@@ -0,0 +1,51 @@
+package transaction;
+
+import java.io.Serializable;
+
+/**
+ * Add delta to an int attribute of an object, applied by the KVDB holding the object so the client 
+ * doesn't read then write it. Only the key of the attribute is written (the record in RECORD mode).
+ * 
+ * The Data of the result holds the new value of the attribute, getProjection() gives its index
+ * 
+ * @author 2600705
+ *
+ */
+public class IncrementOperation implements Operation, Serializable {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 1L;
+	private Data data;
+	private int attribute;
+	private int delta;
+
+	public IncrementOperation(Data d, int attribute, int delta) {
+		if (attribute < 0)
+			throw new IllegalArgumentException("negative attribute " + attribute);
+		data = d;
+		this.attribute = attribute;
+		this.delta = delta;
+	}
+
+
+	@Override
+	public Data getData() {
+		return data;
+	}
+	
+	public int getAttribute() {
+		return attribute;
+	}
+	
+	public int getDelta() {
+		return delta;
+	}
+
+
+	@Override
+	public String toString() {
+		return "IncrementOperation [data=" + data + ", attribute=" + attribute + ", delta=" + delta + "]";
+	}
+}
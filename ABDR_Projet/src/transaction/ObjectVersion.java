@@ -0,0 +1,55 @@
+package transaction;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Version of an object returned by a read, it changes on every write of the object. 
+ * It holds the version of each stored key of the object (one for a record, one per attribute 
+ * otherwise), it is only meaningful to the KVDB which returned it
+ * 
+ * @author 2600705
+ *
+ */
+public class ObjectVersion implements Serializable {
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 1L;
+	private byte[][] keyVersions;
+
+	public ObjectVersion(byte[][] keyVersions) {
+		this.keyVersions = keyVersions;
+	}
+	
+	
+	public int getKeyCount() {
+		return keyVersions.length;
+	}
+	
+	public byte[] getKeyVersion(int index) {
+		return keyVersions[index];
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.deepHashCode(keyVersions);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		ObjectVersion other = (ObjectVersion) obj;
+		return Arrays.deepEquals(keyVersions, other.keyVersions);
+	}
+
+	@Override
+	public String toString() {
+		return "ObjectVersion [keys=" + keyVersions.length + "]";
+	}
+}
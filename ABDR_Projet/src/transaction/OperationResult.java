@@ -14,6 +14,8 @@ public class OperationResult implements Serializable {
 	private static final long serialVersionUID = 1L;
 	private boolean isSuccess = false;
 	private Data data;
+	//version of the object read or written, used by ConditionalWriteOperation
+	private ObjectVersion version;
 
 	public OperationResult() {}
 	
@@ -22,6 +24,11 @@ public class OperationResult implements Serializable {
 		this.data = data;
 	}
 	
+	public OperationResult(boolean isSuccess, Data data, ObjectVersion version) {
+		this(isSuccess, data);
+		this.version = version;
+	}
+	
 	
 	public boolean isSuccess() {
 		return isSuccess;
@@ -38,5 +45,13 @@ public class OperationResult implements Serializable {
 	public void setData(Data data) {
 		this.data = data;
 	}
+	
+	public ObjectVersion getVersion() {
+		return version;
+	}
+
+	public void setVersion(ObjectVersion version) {
+		this.version = version;
+	}
 
 }
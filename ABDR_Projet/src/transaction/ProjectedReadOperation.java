@@ -0,0 +1,49 @@
+package transaction;
+
+import java.util.Arrays;
+
+/**
+ * Read of some attributes of an object only. attributes are indexes of the stored attributes 
+ * (ints first, then strings), the KVDB only fetches them.
+ * 
+ * The Data of the result is sparse : it only holds the selected ints then the selected strings, 
+ * in the order of their attribute index, and getProjection() gives these indexes
+ * 
+ * @author 2600705
+ *
+ */
+public class ProjectedReadOperation extends ReadOperation {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 1L;
+	private int[] attributes;
+
+	public ProjectedReadOperation(Data d, int... attributes) {
+		super(d);
+		if (attributes.length == 0)
+			throw new IllegalArgumentException("no attribute selected");
+		
+		//sorted without duplicates
+		int[] sorted = Arrays.copyOf(attributes, attributes.length);
+		Arrays.sort(sorted);
+		int nbAttributes = 0;
+		for (int attribute : sorted) {
+			if (attribute < 0)
+				throw new IllegalArgumentException("negative attribute " + attribute);
+			if ((nbAttributes == 0) || (sorted[nbAttributes - 1] != attribute))
+				sorted[nbAttributes++] = attribute;
+		}
+		this.attributes = Arrays.copyOf(sorted, nbAttributes);
+	}
+	
+	public int[] getAttributes() {
+		return attributes;
+	}
+
+	@Override
+	public String toString() {
+		return "ProjectedReadOperation [data=" + getData() + ", attributes=" + Arrays.toString(attributes) + "]";
+	}
+}
@@ -0,0 +1,97 @@
+package transaction;
+
+import java.io.Serializable;
+
+/**
+ * Scan of the objects of a profile having an id in [startId, endId], returned by chunks of 
+ * at most limit objects (the KVDB can return less). Objects come in the order of the store keys,
+ * ids compared as strings.
+ * 
+ * a chunk is a ScanResult, next(result) gives the operation reading the following chunk :
+ * 
+ * 	ScanOperation scan = new ScanOperation(profile, 0, Integer.MAX_VALUE, 500);
+ * 	while (scan != null) {
+ * 		ScanResult result = (ScanResult) monitor.executeOperations(scanList).get(0);
+ * 		...
+ * 		scan = scan.next(result);
+ * 	}
+ * 
+ * @author 2600705
+ *
+ */
+public class ScanOperation implements Operation, Serializable {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 1L;
+	private Data data;
+	private int startId;
+	private int endId;
+	private int limit;
+	//id of the last object of the previous chunk, null for the first chunk
+	private String cursor;
+
+	public ScanOperation(int profile, int startId, int endId, int limit) {
+		this(profile, startId, endId, limit, null);
+	}
+	
+	private ScanOperation(int profile, int startId, int endId, int limit, String cursor) {
+		if (limit <= 0)
+			throw new IllegalArgumentException("limit must be positive");
+		
+		data = new Data(0, 0);
+		data.setCategory(profile);
+		this.startId = startId;
+		this.endId = endId;
+		this.limit = limit;
+		this.cursor = cursor;
+	}
+	
+	
+	/**
+	 * operation reading the chunk following result, null if the scan is over
+	 * @param result
+	 * @return
+	 */
+	public ScanOperation next(ScanResult result) {
+		if (! result.hasMore())
+			return null;
+		return new ScanOperation(data.getCategory(), startId, endId, limit, result.getCursor());
+	}
+	
+	public boolean inRange(int id) {
+		return (id >= startId) && (id <= endId);
+	}
+	
+	@Override
+	public Data getData() {
+		return data;
+	}
+	
+	public int getProfile() {
+		return data.getCategory();
+	}
+
+	public int getStartId() {
+		return startId;
+	}
+
+	public int getEndId() {
+		return endId;
+	}
+
+	public int getLimit() {
+		return limit;
+	}
+
+	public String getCursor() {
+		return cursor;
+	}
+
+	@Override
+	public String toString() {
+		return "ScanOperation [profile=" + data.getCategory() + ", startId=" + startId + ", endId=" + endId 
+				+ ", limit=" + limit + ", cursor=" + cursor + "]";
+	}
+}
@@ -0,0 +1,37 @@
+package transaction;
+
+import java.util.List;
+
+/**
+ * Chunk of objects returned by a ScanOperation
+ * @author 2600705
+ *
+ */
+public class ScanResult extends OperationResult {
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 1L;
+	private List<Data> datas;
+	//null when the scan is over
+	private String cursor;
+
+	public ScanResult(List<Data> datas, String cursor) {
+		super(true, null);
+		this.datas = datas;
+		this.cursor = cursor;
+	}
+	
+	
+	public List<Data> getDatas() {
+		return datas;
+	}
+
+	public String getCursor() {
+		return cursor;
+	}
+	
+	public boolean hasMore() {
+		return cursor != null;
+	}
+}